@@ -0,0 +1,53 @@
+package ExternalSorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Sorts a block of words and spills it to a temp file with {@link FileSorter#sortAndSaveTempFile}.
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkSortBenchmark {
+    @Param({"UNIFORM", "ZIPF", "SORTED", "LONG_WORDS"})
+    public CorpusGenerator.Distribution distribution;
+
+    @Param({"100000"})
+    public int words;
+
+    @Param({WordOrdering.CASE_INSENSITIVE, WordOrdering.CASE_SENSITIVE})
+    public String collation;
+
+    @Param({"false", "true"})
+    public boolean parallelSort;
+
+    private List<String> chunk;
+    private WordOrdering ordering;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CorpusGenerator generator = new CorpusGenerator(distribution);
+        chunk = new ArrayList<>(words);
+        for (int i = 0; i < words; i++) {
+            chunk.add(generator.nextWord(i));
+        }
+        ordering = WordOrdering.forName(collation, false);
+    }
+
+    @Benchmark
+    public File sortAndSave() throws IOException {
+        // sortChunk sorts the list it is given, so every invocation gets an unsorted copy
+        File tempFile = FileSorter.sortAndSaveTempFile(new ArrayList<>(chunk), ordering, null, parallelSort);
+        tempFile.delete();
+        return tempFile;
+    }
+}
@@ -0,0 +1,156 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+* Writes synthetic input files for the benchmarks. Every corpus is generated from a fixed seed, so the same
+* arguments always give the same file and results can be compared between releases.
+*
+* Usage: java -cp benchmarks.jar ExternalSorting.CorpusGenerator &lt;distribution&gt; &lt;words&gt; &lt;output file&gt;
+* */
+public class CorpusGenerator {
+    /** Seed of every corpus */
+    public static final long SEED = 42;
+    /** Number of distinct words the uniform and Zipfian corpora draw from */
+    public static final int VOCABULARY_SIZE = 50_000;
+    /** Exponent of the Zipfian distribution, 1 is close to natural language */
+    public static final double ZIPF_EXPONENT = 1.0;
+    /** Words per line of the generated files */
+    private static final int WORDS_PER_LINE = 16;
+
+    /**
+    * Shape of a generated corpus.
+    * */
+    public enum Distribution {
+        /** Short words drawn uniformly from the vocabulary, few duplicates per block */
+        UNIFORM,
+        /** Short words drawn from the vocabulary by rank with a Zipfian law, many duplicates per block */
+        ZIPF,
+        /** Distinct words already in ascending order */
+        SORTED,
+        /** Distinct words of 32 to 128 letters, where comparisons and I/O dominate */
+        LONG_WORDS
+    }
+
+    private final Distribution distribution;
+    private final Random random = new Random(SEED);
+    private final String[] vocabulary;
+    private final double[] cumulative;
+
+    /**
+    * @param distribution Shape of the corpus to generate
+    * */
+    public CorpusGenerator(Distribution distribution) {
+        this.distribution = distribution;
+        if (distribution == Distribution.UNIFORM || distribution == Distribution.ZIPF) {
+            vocabulary = new String[VOCABULARY_SIZE];
+            for (int i = 0; i < vocabulary.length; i++) {
+                vocabulary[i] = randomWord(3, 12);
+            }
+        } else {
+            vocabulary = null;
+        }
+        cumulative = distribution == Distribution.ZIPF ? zipfCumulative(VOCABULARY_SIZE, ZIPF_EXPONENT) : null;
+    }
+
+    /**
+    * Writes a corpus to a temp file deleted on exit.
+    *
+    * @param distribution Shape of the corpus
+    * @param words Number of words to write
+    * @param directory Directory of the file, or null for the default temp directory
+    *
+    * @return The generated file
+    *
+    * @throws IOException If unable to write the file
+    * */
+    public static File generateTempFile(Distribution distribution, long words, File directory) throws IOException {
+        File file = File.createTempFile("corpus-" + distribution.name().toLowerCase(Locale.ROOT), ".txt", directory);
+        file.deleteOnExit();
+        new CorpusGenerator(distribution).generate(file, words);
+        return file;
+    }
+
+    /**
+    * @param file File to write the corpus to
+    * @param words Number of words to write
+    *
+    * @throws IOException If unable to write the file
+    * */
+    public void generate(File file, long words) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (long i = 0; i < words; i++) {
+                writer.write(nextWord(i));
+                if ((i + 1) % WORDS_PER_LINE == 0) {
+                    writer.newLine();
+                } else {
+                    writer.write(' ');
+                }
+            }
+        }
+    }
+
+    /**
+    * @param i Position of the word in the corpus
+    *
+    * @return The word at that position
+    * */
+    String nextWord(long i) {
+        switch (distribution) {
+            case UNIFORM:
+                return vocabulary[random.nextInt(vocabulary.length)];
+            case ZIPF:
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+                return vocabulary[Math.min(vocabulary.length - 1, rank < 0 ? -rank - 1 : rank)];
+            case SORTED:
+                return sequentialWord(i);
+            default:
+                return randomWord(32, 128);
+        }
+    }
+
+    /**
+    * The words of a base 26 counter, fixed width so that numeric and alphabetical order match.
+    * */
+    private static String sequentialWord(long i) {
+        char[] chars = new char[10];
+        for (int p = chars.length - 1; p >= 0; p--) {
+            chars[p] = (char) ('a' + i % 26);
+            i /= 26;
+        }
+        return new String(chars);
+    }
+
+    private String randomWord(int minLength, int maxLength) {
+        char[] chars = new char[minLength + random.nextInt(maxLength - minLength + 1)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static double[] zipfCumulative(int size, double exponent) {
+        double[] cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: CorpusGenerator <uniform|zipf|sorted|long_words> <words> <output file>");
+            System.exit(1);
+        }
+        new CorpusGenerator(Distribution.valueOf(args[0].toUpperCase(Locale.ROOT)))
+                .generate(new File(args[2]), Long.parseLong(args[1]));
+    }
+}
@@ -0,0 +1,71 @@
+package ExternalSorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+* The whole sort the way {@link FileSorter#main(String[])} runs it: temp files are created from the input
+* file and merged into the output file.
+* */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileSorterBenchmark {
+    @Param({"UNIFORM", "ZIPF", "SORTED", "LONG_WORDS"})
+    public CorpusGenerator.Distribution distribution;
+
+    @Param({"5000000"})
+    public long words;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({SortOptions.RUN_BUFFER_OBJECTS, SortOptions.RUN_BUFFER_PACKED})
+    public String runBuffer;
+
+    /** Limits the temp files so that larger corpora still produce several of them */
+    @Param({"64m"})
+    public String memoryBudget;
+
+    private final WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+    private File tmpDirectory;
+    private File input;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmpDirectory = Files.createTempDirectory("sort-benchmark").toFile();
+        input = CorpusGenerator.generateTempFile(distribution, words, tmpDirectory);
+        output = new File(tmpDirectory, "sorted.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        input.delete();
+        output.delete();
+        tmpDirectory.delete();
+    }
+
+    @Benchmark
+    public long sort() throws Exception {
+        long budget = MemoryBudget.parseSize(memoryBudget);
+        SortOptions options = new SortOptions().setThreads(threads).setRunBuffer(runBuffer);
+        WordTokenizer fileScanner = WordTokenizer.open(input, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE);
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(input.length(), 1024, budget, fileScanner,
+                ordering, tmpDirectory, options);
+        options.setMergeMemory(budget / 2);
+        FileSorter.mergeSortedTempFiles(ordering, sortedTempFiles,
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output))), 100, options);
+        for (File sortedTempFile : sortedTempFiles) {
+            sortedTempFile.delete();
+        }
+        return output.length();
+    }
+}
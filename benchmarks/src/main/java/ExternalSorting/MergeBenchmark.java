@@ -0,0 +1,80 @@
+package ExternalSorting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Merges k sorted temp files into an output file with {@link FileSorter#mergeSortedTempFiles}. The total number
+* of words stays the same whatever k is, so the results show the cost of a wider merge.
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"2", "16", "128", "1024"})
+    public int k;
+
+    @Param({Merger.HEAP, Merger.LOSER_TREE})
+    public String merger;
+
+    @Param({RunCodec.TEXT, RunCodec.BINARY})
+    public String runCodec;
+
+    @Param({"UNIFORM", "ZIPF"})
+    public CorpusGenerator.Distribution distribution;
+
+    @Param({"1000000"})
+    public int words;
+
+    private final WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+    private File tmpDirectory;
+    private List<File> runs;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tmpDirectory = Files.createTempDirectory("merge-benchmark").toFile();
+        CorpusGenerator generator = new CorpusGenerator(distribution);
+        RunCodec codec = RunCodec.forName(runCodec, ordering);
+        runs = new ArrayList<>(k);
+        int wordsPerRun = words / k;
+        for (int run = 0; run < k; run++) {
+            List<String> chunk = new ArrayList<>(wordsPerRun);
+            for (int i = 0; i < wordsPerRun; i++) {
+                chunk.add(generator.nextWord(i));
+            }
+            try (RunWriter runWriter = new RunWriter(tmpDirectory, codec)) {
+                for (String word : FileSorter.sortChunk(chunk, ordering, false)) {
+                    runWriter.write(word);
+                }
+                runs.add(runWriter.getFile());
+            }
+        }
+        output = new File(tmpDirectory, "merged.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File run : runs) {
+            run.delete();
+        }
+        output.delete();
+        tmpDirectory.delete();
+    }
+
+    @Benchmark
+    public long merge() throws IOException {
+        SortOptions options = new SortOptions().setMerger(merger).setRunCodec(runCodec);
+        FileSorter.mergeSortedTempFiles(ordering, runs,
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output))), 100, options);
+        return output.length();
+    }
+}
@@ -0,0 +1,53 @@
+package ExternalSorting;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Reads a whole corpus word by word through a {@link CachedScanner}, the way the merge reads a temp file.
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({WordTokenizer.NIO, WordTokenizer.SCANNER})
+    public String tokenizer;
+
+    @Param({"UNIFORM", "ZIPF", "SORTED", "LONG_WORDS"})
+    public CorpusGenerator.Distribution distribution;
+
+    @Param({"1000000"})
+    public long words;
+
+    private File corpus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = CorpusGenerator.generateTempFile(distribution, words, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void readWords(Blackhole blackhole) throws IOException {
+        CachedScanner scanner = new CachedScanner(
+                WordTokenizer.open(corpus, tokenizer, WordTokenizer.INPUT_BUFFER_SIZE));
+        try {
+            while (!scanner.isEmpty()) {
+                blackhole.consume(scanner.pop());
+            }
+        } finally {
+            scanner.close();
+        }
+    }
+}
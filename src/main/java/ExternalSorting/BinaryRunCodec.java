@@ -0,0 +1,261 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+/**
+* Binary temp files of length prefixed UTF-8 records.
+*
+* A temp file starts with a header of the magic bytes, a flags byte and the number of words as a long.
+* Every word follows as its length in bytes as an unsigned varint, the packed prefix of its sort key
+* as a long if the {@link #KEY_PREFIXES} flag is set, and then its UTF-8 bytes.
+*
+* Since the words are already tokenized nothing has to be split when reading back, and the
+* {@link Reader} hands the bytes of every word to the {@link CachedScanner} as they are. With key
+* prefixes most merge comparisons are a single long comparison, and ties between ASCII words are
+* broken on the bytes, so a String is only created once a word is written to the output.
+* */
+class BinaryRunCodec implements RunCodec {
+    private static final byte[] MAGIC = {'F', 'S', 'R', 'B'};
+    /** Flag set if every record carries the prefix of its case folded sort key */
+    static final int KEY_PREFIXES = 1;
+    /** Flag set if the key prefixes ignore case */
+    static final int IGNORE_CASE = 2;
+    private static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+
+    private final WordOrdering.CaseFolded keyOrdering;
+
+    /**
+    * @param comparator Comparator the words are sorted with. Key prefixes are only stored for the
+    *                   case folded orderings, whose prefix is cheap to compute from ASCII bytes
+    * */
+    BinaryRunCodec(Comparator<String> comparator) {
+        this.keyOrdering = comparator instanceof WordOrdering.CaseFolded ? (WordOrdering.CaseFolded) comparator : null;
+    }
+
+    @Override
+    public WordSink newWriter(File file) throws IOException {
+        return new Writer(new FileOutputStream(file), keyOrdering);
+    }
+
+    @Override
+    public WordTokenizer newReader(File file, String tokenizer, int bufferSize, ExecutorService ioExecutor)
+        throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        InputStream in = Channels.newInputStream(ioExecutor != null
+                ? new PrefetchingChannel(channel, bufferSize, ioExecutor) : channel);
+        return new Reader(new RecordInput(in, bufferSize));
+    }
+
+    /**
+    * @return True if every byte of the word is ASCII, in which case it encodes the same in every ASCII compatible
+    *         charset
+    * */
+    static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+    * Length prefixed {@link WordSink}. The word count in the header is filled in when the writer is closed.
+    * */
+    static class Writer implements WordSink {
+        private final FileOutputStream file;
+        private final RecordOutput out;
+        private final WordOrdering.CaseFolded keyOrdering;
+        private long count;
+
+        /**
+        * @param file Stream of the new temp file, closed with the writer
+        * @param keyOrdering Ordering to store key prefixes for, or null
+        * */
+        Writer(FileOutputStream file, WordOrdering.CaseFolded keyOrdering) throws IOException {
+            this.file = file;
+            this.out = new RecordOutput(file);
+            this.keyOrdering = keyOrdering != null && RunBuffer.canFoldAscii(keyOrdering) ? keyOrdering : null;
+            out.ensureCapacity(HEADER_SIZE);
+            out.put(MAGIC, 0, MAGIC.length);
+            out.put(new byte[] {(byte) (this.keyOrdering == null ? 0
+                    : KEY_PREFIXES | (this.keyOrdering.isIgnoreCase() ? IGNORE_CASE : 0))}, 0, 1);
+            out.putLong(0); // word count, filled in on close
+        }
+
+        @Override
+        public void write(String word) throws IOException {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            writeRecord(bytes, 0, bytes.length, word);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+            if (!StandardCharsets.UTF_8.equals(charset)
+                    && !(WordTokenizer.isAsciiCompatible(charset) && isAscii(bytes, offset, length))) {
+                write(new String(bytes, offset, length, charset));
+                return;
+            }
+            writeRecord(bytes, offset, length, null);
+        }
+
+        private void writeRecord(byte[] bytes, int offset, int length, String word) throws IOException {
+            out.ensureCapacity(5 + 8 + length);
+            out.putVarint(length);
+            if (keyOrdering != null) {
+                out.putLong(isAscii(bytes, offset, length)
+                        ? SortKey.packAsciiChars(bytes, offset, length, keyOrdering.isIgnoreCase())
+                        : keyOrdering.keyOf(word != null ? word : new String(bytes, offset, length,
+                                StandardCharsets.UTF_8)).getPrefix());
+            }
+            out.put(bytes, offset, length);
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.flush();
+                ByteBuffer header = ByteBuffer.allocate(8).putLong(0, count);
+                file.getChannel().write(header, MAGIC.length + 1);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+    * Length prefixed {@link WordTokenizer}. Besides handing out Strings, it reads one record at a time with
+    * {@link #nextRecord()} and exposes its bytes, which stay valid until the next record is read.
+    * */
+    static class Reader implements WordTokenizer {
+        private final RecordInput in;
+        private final int flags;
+        private long remaining;
+        private byte[] word = new byte[64];
+        private int length;
+        private long keyPrefix;
+        private boolean ascii;
+        private String cache;
+
+        /**
+        * @param in Input of a binary temp file, closed with the reader
+        * */
+        Reader(RecordInput in) throws IOException {
+            this.in = in;
+            byte[] magic = new byte[MAGIC.length];
+            try {
+                in.readFully(magic, 0, magic.length);
+            } catch (EOFException ex) {
+                throw new IOException("Not a binary temp file", ex);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a binary temp file");
+            }
+            this.flags = in.readByte();
+            this.remaining = in.readLong();
+        }
+
+        /**
+        * Reads the next record.
+        *
+        * @return False if there are no more words
+        * */
+        boolean nextRecord() {
+            cache = null;
+            if (remaining == 0) {
+                length = 0;
+                return false;
+            }
+            try {
+                length = in.readVarint();
+                if ((flags & KEY_PREFIXES) != 0) {
+                    keyPrefix = in.readLong();
+                }
+                if (length > word.length) {
+                    word = Arrays.copyOf(word, Math.max(length, 2 * word.length));
+                }
+                in.readFully(word, 0, length);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            ascii = BinaryRunCodec.isAscii(word, 0, length);
+            remaining--;
+            return true;
+        }
+
+        /**
+        * @return The UTF-8 bytes of the current word, from index 0 to {@link #getLength()}
+        * */
+        byte[] getBytes() {
+            return word;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        boolean isAscii() {
+            return ascii;
+        }
+
+        /**
+        * @param ordering Ordering the words are merged with
+        *
+        * @return True if the records carry key prefixes of that ordering
+        * */
+        boolean hasKeyPrefixes(WordOrdering ordering) {
+            return (flags & KEY_PREFIXES) != 0 && ordering instanceof WordOrdering.CaseFolded
+                    && ((WordOrdering.CaseFolded) ordering).isIgnoreCase() == ((flags & IGNORE_CASE) != 0)
+                    && RunBuffer.canFoldAscii(ordering);
+        }
+
+        /**
+        * @return The packed prefix of the sort key of the current word, see {@link SortKey#getPrefix()}
+        * */
+        long getKeyPrefix() {
+            return keyPrefix;
+        }
+
+        /**
+        * @return The current word
+        * */
+        String decode() {
+            if (cache == null) {
+                cache = new String(word, 0, length, StandardCharsets.UTF_8);
+            }
+            return cache;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public String next() {
+            if (!nextRecord()) {
+                throw new NoSuchElementException();
+            }
+            return decode();
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
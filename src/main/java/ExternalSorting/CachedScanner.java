@@ -1,28 +1,103 @@
 package ExternalSorting;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 /**
-* This is essentially a wrapper on java.util.Scanner to keep the last word in memory.
+* This is essentially a wrapper on a {@link WordTokenizer} to keep the last word in memory.
 * It is necessary as the min/max heap used to merge needs check the current word across
 * all the temp files several times to maintain the files in sorted order.
+*
+* Binary temp files are read a record at a time instead: the bytes of the current word are kept
+* and only decoded if a comparison or the sink needs the String.
+*
+* Counted temp files follow every word with its count, which is read along with the word.
 * */
 
 public class CachedScanner {
-    private final Scanner sc;
+    private final WordTokenizer sc;
+    private final WordOrdering ordering;
+    private final BinaryRunCodec.Reader records;
+    private final boolean keyPrefixes;
+    private final boolean ignoreCase;
+    private final boolean counted;
     private String cache;
+    private long cacheCount;
+    private SortKey cacheKey;
+    private boolean hasRecord;
+    private int runIndex;
 
     public CachedScanner(Scanner scanner) {
-        this.sc = scanner;
+        this(new ScannerWordTokenizer(scanner));
+    }
+
+    public CachedScanner(WordTokenizer tokenizer) {
+        this(tokenizer, null);
+    }
+
+    /**
+    * @param tokenizer Tokenizer for the sorted temp file
+    * @param ordering If not null, the key of every word read is computed once and cached with it
+    * */
+    public CachedScanner(WordTokenizer tokenizer, WordOrdering ordering) {
+        this(tokenizer, ordering, false);
+    }
+
+    /**
+    * @param tokenizer Tokenizer for the sorted temp file
+    * @param ordering If not null, the key of every word read is computed once and cached with it
+    * @param counted True if every word in the temp file is followed by its count
+    * */
+    public CachedScanner(WordTokenizer tokenizer, WordOrdering ordering, boolean counted) {
+        this.sc = tokenizer;
+        this.ordering = ordering;
+        this.counted = counted;
+        // the counts are records of their own, so counted temp files are read word by word
+        this.records = tokenizer instanceof BinaryRunCodec.Reader && !counted
+                ? (BinaryRunCodec.Reader) tokenizer : null;
+        this.keyPrefixes = records != null && records.hasKeyPrefixes(ordering);
+        this.ignoreCase = keyPrefixes && ((WordOrdering.CaseFolded) ordering).isIgnoreCase();
         readNewWord();
     }
 
     public String peek() {
+        if (this.cache == null && this.hasRecord) {
+            this.cache = this.records.decode();
+        }
         return this.cache;
     }
 
+    /**
+    * @return The key of the current word, only available when created with an ordering
+    * */
+    public SortKey peekKey() {
+        if (this.cacheKey == null && this.records != null && this.ordering != null && !isEmpty()) {
+            this.cacheKey = this.ordering.keyOf(peek());
+        }
+        return this.cacheKey;
+    }
+
+    /**
+    * @return The number of occurrences of the current word, always 1 unless the temp file is counted
+    * */
+    public long peekCount() {
+        return this.cacheCount;
+    }
+
+    /**
+    * @return Position of the temp file among the ones merged, equal words are merged in this order
+    * */
+    int getRunIndex() {
+        return this.runIndex;
+    }
+
+    void setRunIndex(int runIndex) {
+        this.runIndex = runIndex;
+    }
+
     public boolean isEmpty() {
-        return this.cache == null;
+        return this.records != null ? !this.hasRecord : this.cache == null;
     }
 
     public void close() {
@@ -35,7 +110,58 @@ public class CachedScanner {
         return curr;
     }
 
+    /**
+    * Writes the current word to a sink and moves on to the next one. The words of binary temp files
+    * are handed to the sink as bytes.
+    *
+    * @param sink Sink to write the current word to
+    *
+    * @throws IOException If unable to write
+    * */
+    public void popInto(WordSink sink) throws IOException {
+        if (this.records != null) {
+            sink.write(this.records.getBytes(), 0, this.records.getLength(), StandardCharsets.UTF_8);
+            readNewWord();
+        } else {
+            sink.write(pop());
+        }
+    }
+
+    /**
+    * Compares the current words of two scanners created with the same ordering. If both read key
+    * prefixes from binary temp files, the words are only decoded when the prefixes are equal and
+    * one of the words is not ASCII.
+    *
+    * @param other The other scanner
+    *
+    * @return The comparison of the current words according to the ordering
+    * */
+    public int compareWith(CachedScanner other) {
+        if (this.keyPrefixes && other.keyPrefixes && !isEmpty() && !other.isEmpty()) {
+            int cmp = Long.compareUnsigned(this.records.getKeyPrefix(), other.records.getKeyPrefix());
+            if (cmp == 0) {
+                if (!this.records.isAscii() || !other.records.isAscii()) {
+                    return this.ordering.compareKeys(peekKey(), other.peekKey());
+                }
+                cmp = RunBuffer.compareAscii(this.records.getBytes(), 0, this.records.getLength(),
+                        other.records.getBytes(), 0, other.records.getLength(), this.ignoreCase);
+            }
+            return this.ordering.isDescending() ? -cmp : cmp;
+        }
+        return this.ordering.compareKeys(peekKey(), other.peekKey());
+    }
+
     private void readNewWord() {
+        if (this.records != null) {
+            this.hasRecord = this.records.nextRecord();
+            this.cache = null;
+            this.cacheKey = null;
+            return;
+        }
         this.cache = this.sc.hasNext() ? sc.next() : null;
+        this.cacheCount = this.counted && this.cache != null ? Long.parseLong(sc.next()) : 1;
+        if (ordering != null) {
+            this.cacheKey = this.cache != null ? ordering.keyOf(this.cache) : null;
+        }
     }
 }
@@ -0,0 +1,180 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+* {@link WordSink} for the final output file that encodes the words itself into one large byte buffer and
+* writes it to a channel, instead of going through a BufferedWriter and an OutputStreamWriter per call.
+*
+* The layout is the one of {@link WordWrapWriter}: every word is followed by a space and a line separator is
+* written after every wordWrap words. ASCII words are copied char by char without creating any object, and the
+* encoded words of binary temp files are copied as they are when they are in the charset of the output, so
+* only non ASCII words in another charset are encoded through a String.
+*
+* If the channel is a FileChannel, the output can be forced to the disk on close or after every flush, see
+* {@link SortOptions#setOutputSync(String)}.
+* */
+public class ChannelWordWriter implements WordSink {
+    /** Size of the output buffer */
+    public static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private final byte[] lineSeparator;
+    private final int wordWrap;
+    private final String sync;
+    private final byte[] buffer;
+    private int position;
+    private int counter;
+
+    /**
+    * @param channel Channel of the output file, closed with the sink
+    * @param charset Charset of the output
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param sync One of {@link SortOptions#SYNC_NONE}, {@link SortOptions#SYNC_CLOSE} or
+    *             {@link SortOptions#SYNC_FLUSH}, only a FileChannel is forced
+    * */
+    public ChannelWordWriter(WritableByteChannel channel, Charset charset, int wordWrap, String sync) {
+        this(channel, charset, wordWrap, sync, OUTPUT_BUFFER_SIZE);
+    }
+
+    ChannelWordWriter(WritableByteChannel channel, Charset charset, int wordWrap, String sync, int bufferSize) {
+        this(channel, charset, wordWrap, sync, bufferSize, 0);
+    }
+
+    /**
+    * Writes a segment of a larger output, see {@link PartitionedMerge}.
+    *
+    * @param firstWordIndex Number of words of the output before the segment, so lines wrap at the same words
+    * */
+    ChannelWordWriter(WritableByteChannel channel, Charset charset, int wordWrap, String sync, int bufferSize,
+        long firstWordIndex) {
+        this.channel = channel;
+        this.charset = charset;
+        this.asciiCompatible = WordTokenizer.isAsciiCompatible(charset);
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.wordWrap = wordWrap;
+        this.sync = sync;
+        // room for at least a separator and a new line, so ending a word never needs more than one flush
+        this.buffer = new byte[Math.max(bufferSize, 1 + lineSeparator.length)];
+        // a word wrap below 1 wraps after every word, like the word wrap writer
+        this.counter = wordWrap > 0 ? (int) (firstWordIndex % wordWrap) : 0;
+    }
+
+    @Override
+    public void write(String word) throws IOException {
+        if (!asciiCompatible || !writeAscii(word)) {
+            byte[] encoded = word.getBytes(charset);
+            writeBytes(encoded, 0, encoded.length);
+        }
+        endWord();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+        if (charset.equals(this.charset) || (asciiCompatible && isAscii(bytes, offset, length))) {
+            writeBytes(bytes, offset, length);
+            endWord();
+        } else {
+            write(new String(bytes, offset, length, charset));
+        }
+    }
+
+    /**
+    * Copies an ASCII word into the buffer.
+    *
+    * @return False, with nothing written, if the word is not ASCII
+    * */
+    private boolean writeAscii(String word) throws IOException {
+        int length = word.length();
+        if (length > buffer.length) {
+            return false;
+        }
+        if (length > buffer.length - position) {
+            flush();
+        }
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            buffer[position + i] = (byte) c;
+        }
+        position += length;
+        return true;
+    }
+
+    private static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flush();
+            if (length > buffer.length) {
+                // a word larger than the buffer goes straight to the channel
+                writeFully(ByteBuffer.wrap(bytes, offset, length));
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    private void endWord() throws IOException {
+        if (1 + lineSeparator.length > buffer.length - position) {
+            flush();
+        }
+        buffer[position++] = ' ';
+        if (++counter >= wordWrap) { // wrap line after wordWrap words per line
+            System.arraycopy(lineSeparator, 0, buffer, position, lineSeparator.length);
+            position += lineSeparator.length;
+            counter = 0;
+        }
+    }
+
+    private void flush() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        writeFully(ByteBuffer.wrap(buffer, 0, position));
+        position = 0;
+        if (SortOptions.SYNC_FLUSH.equals(sync)) {
+            force();
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void force() throws IOException {
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (SortOptions.SYNC_CLOSE.equals(sync)) {
+                force();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ExternalSorting;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+* Algorithm used to sort a chunk of words in memory before it is saved as a sorted temp file.
+* */
+public interface ChunkSortEngine {
+    /** Comparison sort, java.util.List#sort or java.util.Arrays#parallelSort. The default */
+    String TIMSORT = "timsort";
+    /** MSD radix sort over the encoded words, see {@link RadixSortEngine} */
+    String RADIX = "radix";
+
+    /**
+    * Sorts a chunk of words. Engines must be stable, so words that compare equal keep their order.
+    *
+    * @param unsortedLineChunk A list of words to sort, it may be sorted in place
+    * @param comparator Comparator to use to sort the list of words
+    * @param parallelSort True to sort the chunk using the common fork join pool
+    *
+    * @return The sorted list of words
+    * */
+    List<String> sort(List<String> unsortedLineChunk, Comparator<String> comparator, boolean parallelSort);
+
+    /**
+    * @param name {@link #TIMSORT} or {@link #RADIX}
+    *
+    * @return The engine with that name
+    * */
+    static ChunkSortEngine forName(String name) {
+        if (TIMSORT.equals(name)) {
+            return FileSorter::sortChunk;
+        } else if (RADIX.equals(name)) {
+            return new RadixSortEngine();
+        }
+        throw new IllegalArgumentException("Unknown sort engine: " + name);
+    }
+}
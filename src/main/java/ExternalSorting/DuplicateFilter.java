@@ -0,0 +1,125 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* {@link WordSink} that drops or counts duplicate words on their way to another sink.
+*
+* Words reach it in sorted order, but words that the comparator finds equal (e.g. "ut" and "Ut" when
+* ignoring case) may come in any order, so the distinct words of such a group are collected with their
+* counts and only written, in the order they first came in, once a word of the next group arrives.
+*
+* Words that come with their {@link SortKey}, e.g. the key a {@link CachedScanner} already holds, are grouped by
+* comparing keys, so the words are not keyed again.
+* */
+class DuplicateFilter implements WordSink {
+    /** Separates a word from its count in the output when counts are emitted */
+    static final char COUNT_SEPARATOR = ':';
+
+    /**
+    * How the count of a word is written.
+    * */
+    enum CountFormat {
+        /** Only the word */
+        NONE,
+        /** The word followed by its count as a separate word, the layout of counted temp files */
+        TOKEN,
+        /** The word and its count joined by {@link #COUNT_SEPARATOR} */
+        SUFFIX
+    }
+
+    private final WordSink sink;
+    private final Comparator<String> comparator;
+    private final CountFormat countFormat;
+    private final Map<String, long[]> group = new LinkedHashMap<>();
+    private String groupWord;
+    private SortKey groupKey;
+
+    /**
+    * @param sink Sink the distinct words are written to, closed with the filter
+    * @param comparator Comparator the words are sorted with
+    * @param countFormat How the count of every distinct word is written
+    * */
+    DuplicateFilter(WordSink sink, Comparator<String> comparator, CountFormat countFormat) {
+        this.sink = sink;
+        this.comparator = comparator;
+        this.countFormat = countFormat;
+    }
+
+    @Override
+    public void write(String word) throws IOException {
+        write(word, 1);
+    }
+
+    /**
+    * Adds occurrences of the next word in sorted order.
+    *
+    * @param word The word
+    * @param count Number of occurrences
+    *
+    * @throws IOException If unable to write the previous group
+    * */
+    void write(String word, long count) throws IOException {
+        write(word, null, count);
+    }
+
+    /**
+    * Same as {@link #write(String, long)} with the key of the word.
+    *
+    * @param key The key of the word computed by the comparator, a {@link WordOrdering}, or null if not known
+    * */
+    void write(String word, SortKey key, long count) throws IOException {
+        if (groupWord != null && compareToGroup(word, key) != 0) {
+            flush();
+        }
+        if (groupWord == null) {
+            groupWord = word;
+            groupKey = key;
+        }
+        long[] groupCount = group.get(word);
+        if (groupCount == null) {
+            group.put(word, new long[] {count});
+        } else {
+            groupCount[0] += count;
+        }
+    }
+
+    private int compareToGroup(String word, SortKey key) {
+        if (key != null && groupKey != null) {
+            return ((WordOrdering) comparator).compareKeys(groupKey, key);
+        }
+        return comparator.compare(groupWord, word);
+    }
+
+    private void flush() throws IOException {
+        for (Map.Entry<String, long[]> entry : group.entrySet()) {
+            long count = entry.getValue()[0];
+            switch (countFormat) {
+                case TOKEN:
+                    sink.write(entry.getKey());
+                    sink.write(Long.toString(count));
+                    break;
+                case SUFFIX:
+                    sink.write(entry.getKey() + COUNT_SEPARATOR + count);
+                    break;
+                default:
+                    sink.write(entry.getKey());
+            }
+        }
+        group.clear();
+        groupWord = null;
+        groupKey = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            sink.close();
+        }
+    }
+}
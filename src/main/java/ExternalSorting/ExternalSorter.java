@@ -0,0 +1,242 @@
+package ExternalSorting;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Instance based entry point for sorting files from a long running process, instead of one JVM per file through
+* {@link FileSorter#main(String[])}.
+*
+* A sorter owns a bounded executor that the blocks and segments of every job are sorted on, and a
+* {@link MemoryPool} every job reserves its memory budget from, so jobs can run side by side, from
+* {@link #sort(SortJob)} on any thread or from {@link #submit(SortJob)}, without oversubscribing the CPU or the
+* heap. It is thread-safe and holds no state of a job: every run of a job gets its own copy of the options, its own
+* metrics and a temp directory, which is deleted once the run is done.
+* */
+public class ExternalSorter implements Closeable {
+    private final int threads;
+    private final int maxConcurrentJobs;
+    private final Path tmpDirectory;
+    private final MemoryPool memoryPool;
+    private final ExecutorService executor;
+    private final ExecutorService jobExecutor;
+
+    private ExternalSorter(Builder builder) {
+        this.threads = builder.threads;
+        this.maxConcurrentJobs = builder.maxConcurrentJobs;
+        this.tmpDirectory = builder.tmpDirectory;
+        this.memoryPool = new MemoryPool(builder.memory > 0 ? builder.memory
+                : Math.max(1, MemoryBudget.getAvailableHeap()));
+        this.executor = Executors.newFixedThreadPool(threads, newThreadFactory("sort-worker"));
+        this.jobExecutor = Executors.newFixedThreadPool(maxConcurrentJobs, newThreadFactory("sort-job"));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+    * Runs a job on the calling thread, once its memory budget is available in the pool.
+    *
+    * @param job The job to run
+    *
+    * @return The metrics of this run of the job
+    *
+    * @throws Exception If unable to read the input, write the temp files or write the output
+    * */
+    public SortMetrics sort(SortJob job) throws Exception {
+        long memory = job.getMemoryBudget() > 0 ? job.getMemoryBudget() : getDefaultMemoryBudget();
+        memoryPool.acquire(memory);
+        File jobDirectory = null;
+        try {
+            // every run completes a copy of the options of the job, with metrics of its own
+            SortOptions options = job.getOptions() != null ? job.getOptions().copyForRun() : new SortOptions();
+            options.setExecutor(executor)
+                    .setThreads(job.getThreads() != null ? job.getThreads() : threads);
+            jobDirectory = Files.createTempDirectory(job.getTmpDirectory() != null ? job.getTmpDirectory()
+                    : tmpDirectory, "sort").toFile();
+            File inputFile = job.getInput() != null ? job.getInput().toFile() : null;
+            if (inputFile != null) {
+                options.getMetrics().setInputBytes(inputFile.length());
+            }
+
+            // every input is read through a tokenizer, except a file that is memory mapped
+            WordTokenizer fileScanner = null;
+            long fileSize = FileSorter.UNKNOWN_SIZE;
+            if (job.getInputWords() != null) {
+                fileScanner = new IteratorWordTokenizer(job.getInputWords());
+            } else if (inputFile == null) {
+                fileScanner = WordTokenizer.open(job.getInputStream(), options.getTokenizer(),
+                        WordTokenizer.INPUT_BUFFER_SIZE);
+            } else if (GzipFiles.isGzip(inputFile)) {
+                fileScanner = GzipFiles.openTokenizer(inputFile, options.getTokenizer(),
+                        WordTokenizer.INPUT_BUFFER_SIZE);
+            } else if (!SortOptions.INPUT_MMAP.equals(options.getInputMode())) {
+                fileScanner = WordTokenizer.open(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE);
+                fileSize = inputFile.length();
+            }
+            // the merge buffers get half the budget like from the command line, once the blocks are gone
+            options.setMergeMemory(memory / 2);
+            if (fileScanner != null && job.getOutput() != null) {
+                // an input that fits in memory is sorted straight into the output file
+                FileSorter.sortAndMerge(fileSize, job.getMaxTmpFiles(), memory, fileScanner, job.getComparator(),
+                        jobDirectory, job.getOutput().toFile(), false, job.getWordWrap(), options);
+                return options.getMetrics();
+            }
+
+            List<File> sortedTempFiles = fileScanner != null
+                    ? FileSorter.createSortedTempFiles(fileSize, job.getMaxTmpFiles(), memory, fileScanner,
+                            job.getComparator(), jobDirectory, options)
+                    : FileSorter.createSortedTempFilesMapped(inputFile, job.getMaxTmpFiles(), memory,
+                            job.getComparator(), jobDirectory, options);
+            if (job.getConsumer() != null) {
+                FileSorter.mergeSortedTempFiles(job.getComparator(), sortedTempFiles, job.getConsumer(), options);
+            } else if (job.getOutput() != null) {
+                FileSorter.mergeSortedTempFiles(job.getComparator(), sortedTempFiles, job.getOutput().toFile(), false,
+                        job.getWordWrap(), options);
+            } else {
+                BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(job.getOutputStream(),
+                        Charset.defaultCharset()));
+                FileSorter.mergeSortedTempFiles(job.getComparator(), sortedTempFiles, fileWriter, job.getWordWrap(),
+                        options);
+            }
+            return options.getMetrics();
+        } finally {
+            if (jobDirectory != null) {
+                deleteDirectory(jobDirectory);
+            }
+            memoryPool.release(memory);
+        }
+    }
+
+    /**
+    * Runs a job on one of the {@link Builder#maxConcurrentJobs(int)} job threads, jobs beyond that wait in line.
+    *
+    * @param job The job to run
+    *
+    * @return The metrics of the job once it is done
+    * */
+    public Future<SortMetrics> submit(SortJob job) {
+        return jobExecutor.submit(() -> sort(job));
+    }
+
+    /**
+    * @return The memory a job reserves unless it sets its own budget: an equal share of the pool for every
+    *         job that may run at once
+    * */
+    public long getDefaultMemoryBudget() {
+        return Math.max(1, memoryPool.getCapacity() / maxConcurrentJobs);
+    }
+
+    public MemoryPool getMemoryPool() {
+        return memoryPool;
+    }
+
+    /**
+    * Stops taking jobs and waits for the submitted ones to finish, then stops the executor. Jobs still
+    * running through {@link #sort(SortJob)} on other threads must be done before.
+    * */
+    @Override
+    public void close() {
+        jobExecutor.shutdown();
+        try {
+            jobExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+    * Builds an {@link ExternalSorter}.
+    * */
+    public static final class Builder {
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxConcurrentJobs = 1;
+        private long memory = 0;
+        private Path tmpDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+        private Builder() {
+        }
+
+        /**
+        * @param threads Size of the executor shared by every job, defaults to the number of processors
+        * */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Invalid number of threads: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+        * @param maxConcurrentJobs Number of submitted jobs that run at once, defaults to 1
+        * */
+        public Builder maxConcurrentJobs(int maxConcurrentJobs) {
+            if (maxConcurrentJobs < 1) {
+                throw new IllegalArgumentException("Invalid number of concurrent jobs: " + maxConcurrentJobs);
+            }
+            this.maxConcurrentJobs = maxConcurrentJobs;
+            return this;
+        }
+
+        /**
+        * @param memory Memory in bytes shared by every job, defaults to the heap free after the last garbage
+        *               collection when the sorter is built
+        * */
+        public Builder memory(long memory) {
+            if (memory <= 0) {
+                throw new IllegalArgumentException("Invalid memory: " + memory);
+            }
+            this.memory = memory;
+            return this;
+        }
+
+        /**
+        * @param tmpDirectory Directory under which every job creates a directory for its temp files, defaults
+        *                     to java.io.tmpdir
+        * */
+        public Builder tmpDirectory(Path tmpDirectory) {
+            if (tmpDirectory == null) {
+                throw new IllegalArgumentException("Temp directory cannot be null");
+            }
+            this.tmpDirectory = tmpDirectory;
+            return this;
+        }
+
+        public ExternalSorter build() {
+            return new ExternalSorter(this);
+        }
+    }
+}
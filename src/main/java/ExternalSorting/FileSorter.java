@@ -1,8 +1,18 @@
 package ExternalSorting;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Sorts a large input file by splitting it into sorted temp files and merging them into a sorted output file.
@@ -13,7 +23,13 @@ import java.util.*;
  * It then merges the sorted temp files using the merge k sorted lists algorithm to produce a final sorted file
  * */
 public class FileSorter {
-    private static int OBJ_OVERHEAD;
+    /** Size of an input whose length is not known up front, e.g. a stream */
+    public static final long UNKNOWN_SIZE = -1;
+    /** Largest part of the input mapped at once, a single mapping cannot exceed 2GB */
+    public static final long MAX_SEGMENT_SIZE = 1L << 30;
+    /** Number of words merged between two updates of the metrics */
+    static final int METRICS_BATCH = 1 << 16;
+    private static final int OBJ_OVERHEAD = MemoryBudget.getStringOverhead();
     private static Properties props;
 
     /**
@@ -25,20 +41,13 @@ public class FileSorter {
      * */
     public FileSorter(Properties props) {
         FileSorter.props = props;
-        String dataModel = System.getProperty("sun.arch.data.model");
-        // If unknown JVM bit model, default to 64 bits
-        boolean IS_64_BIT_JVM = dataModel == null || !dataModel.contains("32");
-        int OBJ_HEADER = IS_64_BIT_JVM ? 16 : 8;
-        int ARR_HEADER = IS_64_BIT_JVM ? 24 : 12;
-        int OBJ_REF = IS_64_BIT_JVM ? 8 : 4;
-        int INT_FIELDS = 12;
-        OBJ_OVERHEAD = OBJ_HEADER + INT_FIELDS + OBJ_REF + ARR_HEADER;
     }
 
     /**
     * This method essentially attempts to estimate the available free memory.
     * It first calls the gc to clear up unused objects and then estimates the
-    * free memory is the configured max memory -Xmx/mx minus the used memory
+    * free memory is the configured max memory -Xmx/mx minus the used memory.
+    * Forcing a full gc is slow on large heaps, the sorter itself uses {@link MemoryBudget} instead.
     *
     * @return The estimated free memory
     * */
@@ -69,18 +78,47 @@ public class FileSorter {
     * */
     public static long getEstimatedBlockSize(long fileSize, int maxTmpFiles, long freeMemory)
             throws Exception {
+        return getEstimatedBlockSize(fileSize, maxTmpFiles, freeMemory, 1);
+    }
+
+    /**
+    * Same as {@link #getEstimatedBlockSize(long, int, long)} but shares the free memory between
+    * several blocks that are held in memory at the same time, e.g. while they are being read,
+    * sorted and written concurrently in pipelined mode.
+    *
+    * If the size of the input is {@link #UNKNOWN_SIZE} the blocks take half of their share of the free memory,
+    * and maxTmpFiles cannot be checked.
+    *
+    * @param fileSize The size of the input file to be processed, or {@link #UNKNOWN_SIZE}
+    * @param maxTmpFiles The maximum number of temp files to create
+    * @param freeMemory The amount of JVM memory that is free and available for use
+    * @param inFlightBlocks The maximum number of blocks held in memory at once
+    *
+    * @return The estimated size of a block which we can read into memory safely
+    *
+    * @throws Exception If the estimated block size is above the free memory share of a block then the file
+    *                   cannot be processed unless the maxTmpFiles is increased
+    * */
+    public static long getEstimatedBlockSize(long fileSize, int maxTmpFiles, long freeMemory, int inFlightBlocks)
+            throws Exception {
+        // Every in flight block gets an equal share of the free memory
+        long blockMemory = freeMemory / Math.max(1, inFlightBlocks);
+        if (fileSize == UNKNOWN_SIZE) {
+            return Math.max(1, blockMemory / 2);
+        }
+
         // We make sure we are not creating more files than maxTmpFiles
         long blockSize = fileSize / maxTmpFiles + (fileSize % maxTmpFiles == 0 ? 0 : 1);
 
         // If the block size is greater than free memory, we cannot proceed with the configured
         // maxTmpFiles. Throw an error
-        if (blockSize > freeMemory) {
+        if (blockSize > blockMemory) {
             throw new Exception("Cannot create enough temporary files to fit a sort file. Please check maxTmpFiles");
         }
 
         // If the block size if far less than the free memory, we are creating to many
         // temporary files, so we increase it
-        blockSize = Math.max(blockSize, freeMemory / 2);
+        blockSize = Math.max(blockSize, blockMemory / 2);
 
         return blockSize;
     }
@@ -112,15 +150,96 @@ public class FileSorter {
     * */
     public static File sortAndSaveTempFile(List<String> unsortedLineChunk, Comparator<String> comparator,
         File tmpDirectory) throws IOException {
-        // Sort the unsorted line chunk
-        unsortedLineChunk.sort(comparator); // TODO - Compare with parallel sort
+        return sortAndSaveTempFile(unsortedLineChunk, comparator, tmpDirectory, false);
+    }
+
+    /**
+    * Same as {@link #sortAndSaveTempFile(List, Comparator, File)} but optionally sorts the
+    * chunk with java.util.Arrays#parallelSort.
+    *
+    * @param unsortedLineChunk A list of words to sort and save in a temp file
+    * @param comparator Comparator to use to sort the list of words
+    * @param tmpDirectory Directory to save the sorted temp file
+    * @param parallelSort True to sort the chunk using the common fork join pool
+    *
+    * @return The sorted temp file
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static File sortAndSaveTempFile(List<String> unsortedLineChunk, Comparator<String> comparator,
+        File tmpDirectory, boolean parallelSort) throws IOException {
+        return saveTempFile(sortChunk(unsortedLineChunk, comparator, parallelSort), tmpDirectory);
+    }
+
+    /**
+    * Sorts a chunk of words in memory.
+    *
+    * java.util.Arrays#parallelSort only pays off on large chunks and multi core machines,
+    * which is why it is optional. Both sorts are stable so the output is the same either way.
+    *
+    * If the comparator is a {@link WordOrdering}, the packed prefix of the key of every word is computed once up
+    * front into a long array and the words are sorted as an int permutation, so no key object is kept per word.
+    * Only words with the same prefix are compared with the comparator.
+    *
+    * @param unsortedLineChunk A list of words to sort
+    * @param comparator Comparator to use to sort the list of words
+    * @param parallelSort True to sort the chunk using the common fork join pool
+    *
+    * @return The sorted list of words
+    * */
+    public static List<String> sortChunk(List<String> unsortedLineChunk, Comparator<String> comparator,
+        boolean parallelSort) {
+        if (comparator instanceof WordOrdering) {
+            return sortChunkByKeys(unsortedLineChunk, (WordOrdering) comparator, parallelSort);
+        }
+        if (!parallelSort) {
+            unsortedLineChunk.sort(comparator);
+            return unsortedLineChunk;
+        }
+        String[] words = unsortedLineChunk.toArray(new String[0]);
+        Arrays.parallelSort(words, comparator);
+        return Arrays.asList(words);
+    }
+
+    private static List<String> sortChunkByKeys(List<String> unsortedLineChunk, WordOrdering ordering,
+        boolean parallelSort) {
+        String[] words = unsortedLineChunk.toArray(new String[0]);
+        long[] prefixes = new long[words.length];
+        int[] order = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            prefixes[i] = ordering.prefixOf(words[i]);
+            order[i] = i;
+        }
+        int direction = ordering.isDescending() ? -1 : 1;
+        RunBuffer.sort(order, (a, b) -> {
+            int cmp = Long.compareUnsigned(prefixes[a], prefixes[b]);
+            return cmp != 0 ? direction * cmp : ordering.compare(words[a], words[b]);
+        }, parallelSort);
+        List<String> sortedLineChunk = new ArrayList<>(words.length);
+        for (int i : order) {
+            sortedLineChunk.add(words[i]);
+        }
+        return sortedLineChunk;
+    }
+
+    /**
+    * Saves an already sorted chunk of words to a new temp file, one word per line.
+    *
+    * @param sortedLineChunk A sorted list of words
+    * @param tmpDirectory Directory to save the sorted temp file
+    *
+    * @return The sorted temp file
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static File saveTempFile(List<String> sortedLineChunk, File tmpDirectory) throws IOException {
         // Create a temp file and delete it on exit
         File newTempFile = File.createTempFile("sorted", ".txt", tmpDirectory);
         newTempFile.deleteOnExit();
         // Write the tmp file to disk
         OutputStream out = new FileOutputStream(newTempFile);
         BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(out));
-        for (String line : unsortedLineChunk) {
+        for (String line : sortedLineChunk) {
             fileWriter.write(line);
             fileWriter.newLine();
         }
@@ -131,9 +250,10 @@ public class FileSorter {
     /**
     * This uses a min/max heap and the merge k sorted lists algorithm to merge the sorted temp files.
     *
-    * Why use java.util.Scanner here instead of java.io.BufferedFileReader? The scanner uses
-    * a smaller buffer than the buffered reader and since the files are sorted word for word, it is
-    * more memory efficient to read a single word than to read a line chunk and split it into words
+    * Why use a word tokenizer here instead of java.io.BufferedFileReader? Since the files are sorted
+    * word for word, it is more memory efficient to read a single word than to read a line chunk and
+    * split it into words. The temp files are read with the tokenizer configured in the options,
+    * the byte level one by default, with a buffer of {@link WordTokenizer#RUN_BUFFER_SIZE} per file.
     *
     * @param comparator Comparator for merging the words in the sorted temp files
     * @param tmpFiles A list of the sorted temp files to be merged into output file
@@ -144,41 +264,287 @@ public class FileSorter {
     * */
     public static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles,
         BufferedWriter fileWriter, int wordWrap) throws IOException {
-        // Min/Max heap depending on the comparator passed
-        PriorityQueue<CachedScanner> queue = new PriorityQueue<>((o1, o2) -> comparator.compare(o1.peek(), o2.peek()));
-        // Add all the temp file scanners to the heap
-        for (File file : tmpFiles) {
-            Scanner s = new Scanner(file);
-            CachedScanner sc = new CachedScanner(s);
-            if (!sc.isEmpty()) {
-                queue.add(sc);
+        mergeSortedTempFiles(comparator, tmpFiles, fileWriter, wordWrap, new SortOptions());
+    }
+
+    /**
+    * Same as {@link #mergeSortedTempFiles(Comparator, List, BufferedWriter, int)} with tuning options.
+    *
+    * If there are more temp files than {@link SortOptions#getMaxMergeFanIn()}, the smallest ones are first
+    * merged into larger intermediate temp files (see {@link #mergeIntermediatePasses(Comparator, List, SortOptions)})
+    * so that the final pass never opens more files than the fan-in. The temp files must have been written
+    * with the {@link RunCodec} of the options.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files
+    * @param tmpFiles A list of the sorted temp files to be merged into output file
+    * @param fileWriter A simple buffered file writer for writing the output file
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param options Options selecting how the temp files are tokenized and merged
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles,
+        BufferedWriter fileWriter, int wordWrap, SortOptions options) throws IOException {
+        mergeSortedTempFiles(comparator, tmpFiles, new WordWrapWriter(fileWriter, wordWrap), options);
+    }
+
+    /**
+    * Same as {@link #mergeSortedTempFiles(Comparator, List, BufferedWriter, int, SortOptions)} but opens the
+    * output file itself and writes it through a {@link ChannelWordWriter}, which encodes the words straight
+    * into a large buffer and forces the file to the disk as set in {@link SortOptions#getOutputSync()}. An
+    * output file ending in {@link GzipFiles#EXTENSION} is gzip compressed.
+    *
+    * With more than one {@link SortOptions#getMergeThreads()}, the final pass is split into key ranges that are
+    * merged concurrently by a {@link PartitionedMerge} if the temp files allow it. The output is the same.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files
+    * @param tmpFiles A list of the sorted temp files to be merged into output file
+    * @param outputFile The output file
+    * @param append True to append to the output file instead of replacing it
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param options Options selecting how the temp files are tokenized and merged
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles, File outputFile,
+        boolean append, int wordWrap, SortOptions options) throws IOException {
+        WritableByteChannel channel = openOutputChannel(outputFile, append);
+        SortMetrics metrics = options.getMetrics();
+        metrics.phaseStarted(SortMetrics.Phase.MERGE);
+        try {
+            List<File> runs;
+            try {
+                runs = mergeIntermediatePasses(comparator, tmpFiles, options);
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+            if (PartitionedMerge.canMerge(runs, options)) {
+                PartitionedMerge.merge(comparator, runs, channel, wordWrap, options);
+            } else {
+                mergeRuns(comparator, runs,
+                        new ChannelWordWriter(channel, Charset.defaultCharset(), wordWrap, options.getOutputSync()),
+                        options, true);
+            }
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
+        }
+    }
+
+    /**
+    * Same as {@link #mergeSortedTempFiles(Comparator, List, File, boolean, int, SortOptions)} but also merges a file
+    * that is already sorted with the comparator, e.g. the previous output, so new input only needs to be sorted
+    * into temp files and the whole is a single linear merge. The sorted file is read like an input, whatever its
+    * word wrap, and it can be the output file itself, which is then replaced once the merge is done.
+    *
+    * The sorted file holds no counts, so it cannot be merged in count mode. In distinct mode the words already in
+    * the sorted file are not written twice.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files and the sorted file
+    * @param tmpFiles A list of the sorted temp files to be merged into output file
+    * @param sortedFile A file already sorted with the comparator, gzip compressed if it ends in
+    *                   {@link GzipFiles#EXTENSION}
+    * @param outputFile The output file, replaced
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param options Options selecting how the temp files are tokenized and merged
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles, File sortedFile,
+        File outputFile, int wordWrap, SortOptions options) throws IOException {
+        if (options.isCounted()) {
+            throw new IllegalArgumentException("A sorted file holds no counts, it cannot be merged in count mode");
+        }
+        // the sorted file may be the output itself, which is written next to it and only replaced at the end
+        boolean replace = sortedFile.getCanonicalFile().equals(outputFile.getCanonicalFile());
+        File mergedFile = replace ? File.createTempFile("merged", "-" + outputFile.getName(),
+                outputFile.getAbsoluteFile().getParentFile()) : outputFile;
+        SortMetrics metrics = options.getMetrics();
+        metrics.phaseStarted(SortMetrics.Phase.MERGE);
+        try {
+            // the sorted file takes a place of the fan-in of the final pass
+            int fanIn = options.getMaxMergeFanIn();
+            List<File> runs = mergeIntermediatePasses(comparator, tmpFiles,
+                    fanIn == SortOptions.UNLIMITED_FAN_IN ? fanIn : Math.max(2, fanIn - 1), options);
+            WordSink sink = new ChannelWordWriter(openOutputChannel(mergedFile, false), Charset.defaultCharset(),
+                    wordWrap, options.getOutputSync());
+            try (RunMerger merger = new RunMerger(comparator, runs, sortedFile, sink, options, true)) {
+                while (merger.mergeNext()) {
+                    // every call writes one word to the sink
+                }
+            }
+            if (replace) {
+                Files.move(mergedFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (replace) {
+                mergedFile.delete();
             }
+            throw ex;
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
         }
-        // Go through heap and write the sorted words to output file
-        // Wrapped in a try-finally block so if an exception occurs the file writer
-        // and file scanners will always be closed
+    }
+
+    private static WritableByteChannel openOutputChannel(File outputFile, boolean append) throws IOException {
+        return GzipFiles.isGzip(outputFile) ? GzipFiles.newChannel(outputFile, append)
+                : new FileOutputStream(outputFile, append).getChannel();
+    }
+
+    /**
+    * Same as {@link #mergeSortedTempFiles(Comparator, List, BufferedWriter, int, SortOptions)} but pushes the
+    * sorted words into a callback instead of writing them, e.g. to load them somewhere else. With emitted
+    * counts every word comes with its count as a suffix, like in the output file.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files
+    * @param tmpFiles A list of the sorted temp files to be merged
+    * @param consumer Callback that gets the words in sorted order, on the calling thread
+    * @param options Options selecting how the temp files are tokenized and merged
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles,
+        Consumer<String> consumer, SortOptions options) throws IOException {
+        mergeSortedTempFiles(comparator, tmpFiles, new WordSink() {
+            @Override
+            public void write(String word) {
+                consumer.accept(word);
+            }
+
+            @Override
+            public void close() {
+                // nothing to release, the consumer belongs to the caller
+            }
+        }, options);
+    }
+
+    /**
+    * Same as {@link #mergeSortedTempFiles(Comparator, List, Consumer, SortOptions)} but the words are only merged
+    * as they are read from the returned iterator, which must be closed unless it is read to the end. The
+    * intermediate merges, if any, are done before it is returned.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files
+    * @param tmpFiles A list of the sorted temp files to be merged, they are left for the caller to delete
+    * @param options Options selecting how the temp files are tokenized and merged
+    *
+    * @return A lazy iterator over the sorted words, see {@link SortedWordIterator#stream()} for a Stream
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static SortedWordIterator iterateSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles,
+        SortOptions options) throws IOException {
+        SortMetrics metrics = options.getMetrics();
+        metrics.phaseStarted(SortMetrics.Phase.MERGE);
+        try {
+            return new SortedWordIterator(comparator, mergeIntermediatePasses(comparator, tmpFiles, options),
+                    options);
+        } catch (IOException | RuntimeException ex) {
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
+            throw ex;
+        }
+    }
+
+    private static void mergeSortedTempFiles(Comparator<String> comparator, List<File> tmpFiles, WordSink sink,
+        SortOptions options) throws IOException {
+        SortMetrics metrics = options.getMetrics();
+        metrics.phaseStarted(SortMetrics.Phase.MERGE);
         try {
-            int counter = 0;
-            while (!queue.isEmpty()) {
-                CachedScanner currScanner = queue.poll();
-                String word = currScanner.pop();
-                fileWriter.write(word);
-                fileWriter.write(" ");
-                if (++counter >= wordWrap) { // wrap line after wordWrap words per line
-                    fileWriter.newLine();
-                    counter = 0;
+            List<File> runs;
+            try {
+                runs = mergeIntermediatePasses(comparator, tmpFiles, options);
+            } catch (IOException | RuntimeException ex) {
+                sink.close();
+                throw ex;
+            }
+            mergeRuns(comparator, runs, sink, options, true);
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
+        }
+    }
+
+    /**
+    * Merges runs until no more than {@link SortOptions#getMaxMergeFanIn()} are left.
+    *
+    * Each intermediate merge takes the smallest runs, so the least data possible is rewritten. The first
+    * merge only takes as many runs as needed for every later merge to take exactly fan-in runs and for the
+    * last one to leave exactly fan-in runs, like a k-ary Huffman tree. Merged runs are deleted straight away
+    * to free the disk space, and the intermediate runs are written next to them. With a checkpoint in the options,
+    * every merge is recorded in it, so the passes can go on from the last merge after a restart.
+    *
+    * @param comparator Comparator for merging the words in the sorted temp files
+    * @param tmpFiles A list of the sorted temp files
+    * @param options Options holding the fan-in and the merge memory
+    *
+    * @return The runs left for the final pass
+    *
+    * @throws IOException General IOException if unable to access any file(s)
+    * */
+    public static List<File> mergeIntermediatePasses(Comparator<String> comparator, List<File> tmpFiles,
+        SortOptions options) throws IOException {
+        return mergeIntermediatePasses(comparator, tmpFiles, options.getMaxMergeFanIn(), options);
+    }
+
+    private static List<File> mergeIntermediatePasses(Comparator<String> comparator, List<File> tmpFiles, int fanIn,
+        SortOptions options) throws IOException {
+        if (fanIn == SortOptions.UNLIMITED_FAN_IN || tmpFiles.size() <= fanIn) {
+            return tmpFiles;
+        }
+        JobManifest checkpoint = options.getCheckpoint();
+        // a merged run is only recorded once it is complete, until then it is written where the manifest clears
+        File tmpDirectory = checkpoint != null ? checkpoint.getTempDirectory()
+                : tmpFiles.get(0).getAbsoluteFile().getParentFile();
+        RunCodec codec = RunCodec.forName(options.getRunCodec(), comparator);
+        PriorityQueue<File> runs = new PriorityQueue<>(Comparator.comparingLong(File::length));
+        runs.addAll(tmpFiles);
+        int count = (runs.size() - 2) % (fanIn - 1) + 2;
+        while (runs.size() > fanIn) {
+            List<File> group = new ArrayList<>();
+            while (group.size() < count) {
+                group.add(runs.poll());
+            }
+            RunWriter runWriter = new RunWriter(tmpDirectory, codec);
+            long[] written = new long[1];
+            mergeRuns(comparator, group, checkpoint == null ? runWriter : new WordSink() {
+                @Override
+                public void write(String word) throws IOException {
+                    written[0]++;
+                    runWriter.write(word);
                 }
-                if (currScanner.isEmpty()) {
-                    currScanner.close();
-                } else {
-                    queue.add(currScanner);
+
+                @Override
+                public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+                    written[0]++;
+                    runWriter.write(bytes, offset, length, charset);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    runWriter.close();
                 }
+            }, options, false);
+            // recorded before the merged runs are deleted, so the manifest never lists a run that is gone,
+            // counted runs hold a count after every word
+            File merged = checkpoint == null ? runWriter.getFile() : checkpoint.replaceRuns(group,
+                    runWriter.getFile(), options.isCounted() ? written[0] / 2 : written[0]);
+            for (File run : group) {
+                run.delete();
             }
-        } finally {
-            fileWriter.close();
-            // Just in case an exception occurs before the priority queue is empty, to avoid any memory leaks
-            for (CachedScanner sc : queue) {
-                sc.close();
+            options.getMetrics().tempFileWritten(merged);
+            runs.add(merged);
+            Log.info("Merged " + group.size() + " temp files into : " + merged.toString() + ".");
+            count = fanIn;
+        }
+        return new ArrayList<>(runs);
+    }
+
+    /**
+    * Merges runs into a sink with a {@link RunMerger}, the sink is always closed.
+    * */
+    private static void mergeRuns(Comparator<String> comparator, List<File> runs, WordSink sink,
+        SortOptions options, boolean finalPass) throws IOException {
+        try (RunMerger merger = new RunMerger(comparator, runs, sink, options, finalPass)) {
+            while (merger.mergeNext()) {
+                // every call writes one word to the sink
             }
         }
     }
@@ -201,24 +567,401 @@ public class FileSorter {
     * */
     public static List<File> createSortedTempFiles(long fileSize, int maxTmpFiles, long freeMemory,
         Scanner fileScanner, Comparator<String> comparator, File tmpDirectory) throws Exception {
-        List<File> files = new ArrayList<>();
-        long maxBlockSize = getEstimatedBlockSize(fileSize, maxTmpFiles, freeMemory);
-        Set<String> distinctWords = new HashSet<>();
+        return createSortedTempFiles(fileSize, maxTmpFiles, freeMemory, fileScanner, comparator, tmpDirectory,
+                new SortOptions());
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(long, int, long, Scanner, Comparator, File)} with tuning options.
+    *
+    * With more than one thread configured, the calling thread only reads blocks from the scanner.
+    * Each filled block is handed to a bounded pool of sorting threads and then to a separate pool of
+    * writer threads, so reading, sorting and spilling overlap. The number of blocks in memory at once
+    * is capped by {@link SortOptions#getInFlightBlocks()} and the block size is shrunk to match.
+    *
+    * @param fileSize Size of the input file, used to estimate block size
+    * @param maxTmpFiles Maximum number of temporary files to create, used to estimate block size
+    * @param freeMemory Estimated free memory, used to estimate block size
+    * @param fileScanner Scanner for the input file to be sorted
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param options Threading and sorting options
+    *
+    * @return The list of the sorted temp files, in the order their blocks were read
+    *
+    * @throws Exception If unable to read from the input file or save a temp file
+    * */
+    public static List<File> createSortedTempFiles(long fileSize, int maxTmpFiles, long freeMemory,
+        Scanner fileScanner, Comparator<String> comparator, File tmpDirectory, SortOptions options) throws Exception {
+        return createSortedTempFiles(fileSize, maxTmpFiles, freeMemory, new ScannerWordTokenizer(fileScanner),
+                comparator, tmpDirectory, options);
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(long, int, long, Scanner, Comparator, File, SortOptions)} but reads
+    * the input through any {@link WordTokenizer}, e.g. the byte level {@link NioWordTokenizer}.
+    *
+    * If the size of the input is {@link #UNKNOWN_SIZE} the block size is always adaptive, starting from
+    * half of the share of a block of the free memory.
+    *
+    * @param fileSize Size of the input file, used to estimate block size, or {@link #UNKNOWN_SIZE}
+    * @param maxTmpFiles Maximum number of temporary files to create, used to estimate block size
+    * @param freeMemory Estimated free memory, used to estimate block size
+    * @param fileScanner Tokenizer for the input file to be sorted, it is closed once the input is read
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param options Threading and sorting options
+    *
+    * @return The list of the sorted temp files, in the order their blocks were read
+    *
+    * @throws Exception If unable to read from the input file or save a temp file
+    * */
+    public static List<File> createSortedTempFiles(long fileSize, int maxTmpFiles, long freeMemory,
+        WordTokenizer fileScanner, Comparator<String> comparator, File tmpDirectory, SortOptions options)
+        throws Exception {
+        SortMetrics metrics = options.getMetrics();
+        if (metrics.getInputBytes() < 0) {
+            metrics.setInputBytes(fileSize);
+        }
+        metrics.phaseStarted(SortMetrics.Phase.RUN_GENERATION);
+        try {
+            return createSortedTempFiles(newMemoryBudget(fileSize, maxTmpFiles, freeMemory, options), null,
+                    fileScanner, comparator, tmpDirectory, options);
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.RUN_GENERATION);
+        }
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(long, int, long, WordTokenizer, Comparator, File, SortOptions)}
+    * followed by {@link #mergeSortedTempFiles(Comparator, List, File, boolean, int, SortOptions)}, unless the whole
+    * input fits in memory.
+    *
+    * The first block is read as usual, and if the tokenizer runs out of words before it is full, the input fits:
+    * the block is sorted, in parallel if more than one thread is set, and written straight to the output
+    * without any temp file. Otherwise the first block becomes the first run and the sort goes on through temp
+    * files. With the default block size an input fits when it takes less than half of the free memory, whether
+    * its size is known or it is a stream.
+    *
+    * @param fileSize Size of the input file, used to estimate block size, or {@link #UNKNOWN_SIZE}
+    * @param maxTmpFiles Maximum number of temporary files to create, used to estimate block size
+    * @param freeMemory Estimated free memory, used to estimate block size, half of it goes to the merge unless
+    *                   the options already set {@link SortOptions#getMergeMemory()}
+    * @param fileScanner Tokenizer for the input file to be sorted, it is closed once the input is read
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param outputFile The output file
+    * @param append True to append to the output file instead of replacing it
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param options Threading, sorting and merging options
+    *
+    * @return The sorted temp files merged into the output, none if the input was sorted in memory
+    *
+    * @throws Exception If unable to read from the input file, save a temp file or write the output
+    * */
+    public static List<File> sortAndMerge(long fileSize, int maxTmpFiles, long freeMemory, WordTokenizer fileScanner,
+        Comparator<String> comparator, File tmpDirectory, File outputFile, boolean append, int wordWrap,
+        SortOptions options) throws Exception {
+        SortMetrics metrics = options.getMetrics();
+        if (metrics.getInputBytes() < 0) {
+            metrics.setInputBytes(fileSize);
+        }
+        metrics.phaseStarted(SortMetrics.Phase.RUN_GENERATION);
+        RunBlock block = null;
+        List<File> sortedTempFiles;
+        try {
+            MemoryBudget budget = newMemoryBudget(fileSize, maxTmpFiles, freeMemory, options);
+            if (SortOptions.RUNS_BLOCKS.equals(options.getRunGenerator())) {
+                try {
+                    block = readBlock(fileScanner, budget, comparator, options);
+                } catch (RuntimeException ex) {
+                    fileScanner.close();
+                    throw ex;
+                }
+            }
+            if (block != null && !fileScanner.hasNext()) {
+                fileScanner.close();
+                sortedTempFiles = Collections.emptyList();
+                sortInMemory(block, comparator, options);
+            } else {
+                sortedTempFiles = createSortedTempFiles(budget, block, fileScanner, comparator, tmpDirectory, options);
+                block = null;
+            }
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.RUN_GENERATION);
+        }
+
+        if (block != null) {
+            Log.info("The input fits in memory, writing the sorted output file - " + outputFile.toString());
+            writeSortedBlock(block, comparator, new ChannelWordWriter(openOutputChannel(outputFile, append),
+                    Charset.defaultCharset(), wordWrap, options.getOutputSync()), options);
+            return sortedTempFiles;
+        }
+        Log.info("Begin merging temporary sorted files to sorted output file - " + outputFile.toString());
+        if (options.getMergeMemory() == 0) {
+            options.setMergeMemory(freeMemory / 2);
+        }
+        mergeSortedTempFiles(comparator, sortedTempFiles, outputFile, append, wordWrap, options);
+        return sortedTempFiles;
+    }
+
+    /**
+    * Sorts the only block of an input that fits in memory. The threads that would have sorted blocks side by
+    * side sort it in parallel instead.
+    * */
+    private static void sortInMemory(RunBlock block, Comparator<String> comparator, SortOptions options) {
+        boolean parallelSort = options.isParallelSort();
+        options.setParallelSort(parallelSort || options.getThreads() > 1);
+        try {
+            block.sort(comparator, options);
+        } finally {
+            options.setParallelSort(parallelSort);
+        }
+    }
+
+    /**
+    * Writes a sorted block to the output as the final pass, the sink is always closed. The words of a counted
+    * block are each followed by their count, which is emitted like a merge would emit it.
+    * */
+    private static void writeSortedBlock(RunBlock block, Comparator<String> comparator, WordSink output,
+        SortOptions options) throws IOException {
+        SortMetrics metrics = options.getMetrics();
+        metrics.phaseStarted(SortMetrics.Phase.MERGE);
+        try {
+            if (!options.isCounted()) {
+                try (WordSink sink = output) {
+                    block.writeTo(sink);
+                }
+                return;
+            }
+            try (DuplicateFilter filter = new DuplicateFilter(output, comparator, options.isEmitCounts()
+                    ? DuplicateFilter.CountFormat.SUFFIX : DuplicateFilter.CountFormat.NONE)) {
+                block.writeTo(new WordSink() {
+                    private String word;
+
+                    @Override
+                    public void write(String token) throws IOException {
+                        if (word == null) {
+                            word = token;
+                        } else {
+                            filter.write(word, Long.parseLong(token));
+                            word = null;
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        // the filter is closed once the block is written
+                    }
+                });
+            }
+        } finally {
+            metrics.wordsMerged(block.size(), 0, true);
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
+        }
+    }
+
+    private static MemoryBudget newMemoryBudget(long fileSize, int maxTmpFiles, long freeMemory, SortOptions options)
+        throws Exception {
+        MemoryBudget budget = new MemoryBudget(freeMemory, options.isAdaptiveBlockSize() || fileSize == UNKNOWN_SIZE);
+        budget.initBlockSize(fileSize, maxTmpFiles, options.getInFlightBlocks());
+        return budget;
+    }
+
+    /**
+    * Creates the runs with the generator of the options, pipelined with more than one thread. A block already
+    * read from the tokenizer, if any, becomes the first run.
+    * */
+    private static List<File> createSortedTempFiles(MemoryBudget budget, RunBlock firstBlock,
+        WordTokenizer fileScanner, Comparator<String> comparator, File tmpDirectory, SortOptions options)
+        throws Exception {
+        if (options.getThreads() > 1 && SortOptions.RUNS_BLOCKS.equals(options.getRunGenerator())) {
+            return createSortedTempFilesPipelined(budget, firstBlock, fileScanner, comparator, tmpDirectory, options);
+        }
+
+        return writeSortedTempFiles(budget, firstBlock, fileScanner, comparator, tmpDirectory, options);
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(long, int, long, WordTokenizer, Comparator, File, SortOptions)} but
+    * reads the words from a stream of unknown length, with the tokenizer of the options.
+    *
+    * @param in Stream of text in the platform default charset, it is closed once the input is read
+    * @param maxTmpFiles Maximum number of temporary files to create, only used by the intermediate merges
+    * @param freeMemory Estimated free memory, used to estimate block size
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param options Threading and sorting options
+    *
+    * @return The list of the sorted temp files, in the order their blocks were read
+    *
+    * @throws Exception If unable to read from the stream or save a temp file
+    * */
+    public static List<File> createSortedTempFiles(InputStream in, int maxTmpFiles, long freeMemory,
+        Comparator<String> comparator, File tmpDirectory, SortOptions options) throws Exception {
+        return createSortedTempFiles(UNKNOWN_SIZE, maxTmpFiles, freeMemory,
+                WordTokenizer.open(in, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE), comparator,
+                tmpDirectory, options);
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(InputStream, int, long, Comparator, File, SortOptions)} but takes the
+    * words from an iterator, see {@link IteratorWordTokenizer}.
+    *
+    * @param words Words to sort, the iterator is closed once it is exhausted if it is AutoCloseable
+    * @param maxTmpFiles Maximum number of temporary files to create, only used by the intermediate merges
+    * @param freeMemory Estimated free memory, used to estimate block size
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param options Threading and sorting options
+    *
+    * @return The list of the sorted temp files, in the order their blocks were read
+    *
+    * @throws Exception If unable to save a temp file
+    * */
+    public static List<File> createSortedTempFiles(Iterator<String> words, int maxTmpFiles, long freeMemory,
+        Comparator<String> comparator, File tmpDirectory, SortOptions options) throws Exception {
+        return createSortedTempFiles(UNKNOWN_SIZE, maxTmpFiles, freeMemory, new IteratorWordTokenizer(words),
+                comparator, tmpDirectory, options);
+    }
+
+    /**
+    * Same as {@link #createSortedTempFiles(long, int, long, WordTokenizer, Comparator, File, SortOptions)} but
+    * memory maps the input file and splits it into segments, one per thread and at most
+    * {@link #MAX_SEGMENT_SIZE} each. Segment boundaries are moved forward to just after a whitespace byte, so
+    * no word is split, and the segments are tokenized, sorted and spilled concurrently by
+    * {@link SortOptions#getThreads()} threads, each one holding a single block at a time.
+    *
+    * Whitespace can only be found at byte level in an ASCII compatible charset, any other charset or the scanner
+    * tokenizer reads the input as a stream instead.
+    *
+    * @param inputFile The input file to be sorted
+    * @param maxTmpFiles Maximum number of temporary files to create, used to estimate block size
+    * @param freeMemory Estimated free memory, used to estimate block size
+    * @param comparator Comparator used to sort the words, ascending or descending order
+    * @param tmpDirectory Directory to place the temp files, files will be deleted after
+    * @param options Threading and sorting options
+    *
+    * @return The list of the sorted temp files, segment by segment in the order of the input
+    *
+    * @throws Exception If unable to read from the input file or save a temp file
+    * */
+    public static List<File> createSortedTempFilesMapped(File inputFile, int maxTmpFiles, long freeMemory,
+        Comparator<String> comparator, File tmpDirectory, SortOptions options) throws Exception {
+        Charset charset = Charset.defaultCharset();
+        if (WordTokenizer.SCANNER.equals(options.getTokenizer()) || !WordTokenizer.isAsciiCompatible(charset)) {
+            return createSortedTempFiles(inputFile.length(), maxTmpFiles, freeMemory,
+                    WordTokenizer.open(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE),
+                    comparator, tmpDirectory, options);
+        }
+        long fileSize = inputFile.length();
+        SortMetrics metrics = options.getMetrics();
+        if (metrics.getInputBytes() < 0) {
+            metrics.setInputBytes(fileSize);
+        }
+        metrics.phaseStarted(SortMetrics.Phase.RUN_GENERATION);
+        MemoryBudget budget = new MemoryBudget(freeMemory, options.isAdaptiveBlockSize());
+        budget.initBlockSize(fileSize, maxTmpFiles, options.getThreads());
+        long segmentSize = Math.max(1, Math.min(MAX_SEGMENT_SIZE,
+                (fileSize + options.getThreads() - 1) / options.getThreads()));
+        ExecutorService executor = options.getExecutor();
+        ExecutorService segmentPool = executor != null ? executor : Executors.newFixedThreadPool(options.getThreads());
+        List<Future<List<File>>> segments = new ArrayList<>();
 
+        try (FileChannel channel = new FileInputStream(inputFile).getChannel()) {
+            long start = 0;
+            while (start < fileSize) {
+                long end = start + segmentSize >= fileSize ? fileSize : alignToWhitespace(channel, start + segmentSize);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                segments.add(segmentPool.submit(() -> writeSortedTempFiles(budget, null,
+                        new NioWordTokenizer(segment, charset), comparator, tmpDirectory, options)));
+                start = end;
+            }
+
+            List<File> files = new ArrayList<>();
+            for (Future<List<File>> segment : segments) {
+                try {
+                    files.addAll(segment.get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) ex.getCause()).getCause();
+                    } else if (ex.getCause() instanceof Exception) {
+                        throw (Exception) ex.getCause();
+                    }
+                    throw new Exception("Unable to create sorted temp files", ex.getCause());
+                }
+            }
+            return files;
+        } finally {
+            // stop the pool, or the segments left on a shared executor, whatever the outcome
+            if (executor == null) {
+                segmentPool.shutdownNow();
+            } else {
+                for (Future<List<File>> segment : segments) {
+                    segment.cancel(true);
+                }
+            }
+            metrics.phaseFinished(SortMetrics.Phase.RUN_GENERATION);
+        }
+    }
+
+    /**
+    * @return The position just after the first whitespace byte at or after the given position, or the end
+    *         of the file if there is none
+    * */
+    private static long alignToWhitespace(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position++;
+                if (NioWordTokenizer.isWhitespace(buffer.get())) {
+                    return position;
+                }
+            }
+            buffer.clear();
+        }
+        return channel.size();
+    }
+
+    /**
+    * Reads, sorts and spills blocks one after the other on the calling thread until the tokenizer runs out of words,
+    * or runs a {@link ReplacementSelection} with the memory of a block if selected in the options. A block already
+    * read, if not null, is sorted and spilled first.
+    * */
+    private static List<File> writeSortedTempFiles(MemoryBudget budget, RunBlock firstBlock,
+        WordTokenizer fileScanner, Comparator<String> comparator, File tmpDirectory, SortOptions options)
+        throws IOException {
+        RunCodec codec = RunCodec.forName(options.getRunCodec(), comparator);
+        if (SortOptions.RUNS_REPLACEMENT.equals(options.getRunGenerator())) {
+            ReplacementSelection selection = new ReplacementSelection(comparator, options.getDuplicates(),
+                    options.getMetrics());
+            return selection.writeRuns(fileScanner, budget.getBlockSize(), tmpDirectory, codec);
+        }
+        List<File> files = new ArrayList<>();
+        JobManifest checkpoint = options.getCheckpoint();
         try {
-            while (fileScanner.hasNext()) {
-                long currBlockSize = 0;
-                // read lines from the file until we hit the max block size
-                while (currBlockSize < maxBlockSize && fileScanner.hasNext()) {
-                    String word = fileScanner.next();
-                    distinctWords.add(word);
-                    currBlockSize += getEstimatedStringSize(word);
+            RunBlock block = firstBlock;
+            // a block already read starts the input
+            long blockStart = 0, blockEnd = fileScanner.getBytesRead();
+            while (block != null || fileScanner.hasNext()) {
+                if (block == null) {
+                    blockStart = blockEnd;
+                    block = readBlock(fileScanner, budget, comparator, options);
+                    blockEnd = fileScanner.getBytesRead();
                 }
-                File currFile = sortAndSaveTempFile(new ArrayList<>(distinctWords), comparator, tmpDirectory);
+                long sortStart = System.nanoTime();
+                block.sort(comparator, options);
+                long writeStart = System.nanoTime();
+                File currFile = block.save(tmpDirectory, codec);
+                if (checkpoint != null) {
+                    currFile = checkpoint.addRun(currFile, block.size(), blockStart, blockEnd);
+                }
+                options.getMetrics().runCreated(currFile, writeStart - sortStart, System.nanoTime() - writeStart);
                 files.add(currFile);
-                distinctWords.clear();
-                System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                        + ": Temp file : " + currFile.toString() + " created successfully.");
+                budget.adapt();
+                Log.info("Temp file : " + currFile.toString() + " created successfully.");
+                block = null;
             }
         } finally {
             // close the file scanner
@@ -228,17 +971,169 @@ public class FileSorter {
         return files;
     }
 
+    /**
+    * Reads distinct words from the scanner until the estimated size of the block reaches maxBlockSize, the block
+    * is full or the scanner runs out of words. A block always takes at least one word, even if its empty arrays alone
+    * already reach a tiny maxBlockSize, so that reading makes progress. The words and bytes read are
+    * reported to the metrics. If the tokenizer can estimate the size of an input of unknown size, the estimate
+    * goes to the budget and replaces the input size of the metrics.
+    * */
+    private static RunBlock readBlock(WordTokenizer fileScanner, MemoryBudget budget, Comparator<String> comparator,
+        SortOptions options) {
+        long maxBlockSize = budget.getBlockSize();
+        RunBlock block = newRunBlock(comparator, options);
+        long bytesBefore = fileScanner.getBytesRead();
+        long words = 0;
+        // read lines from the file until we hit the max block size
+        while ((words == 0 || (block.sizeInBytes() < maxBlockSize && !block.isFull()))
+                && fileScanner.nextInto(block)) {
+            // the tokenizer adds the word to the block
+            words++;
+        }
+        options.getMetrics().inputRead(words, bytesBefore < 0 ? 0 : fileScanner.getBytesRead() - bytesBefore);
+        long estimatedSize = fileScanner.getEstimatedSize();
+        if (estimatedSize > 0) {
+            budget.estimateInputSize(estimatedSize);
+            options.getMetrics().setInputBytes(estimatedSize);
+        }
+        return block;
+    }
+
+    /**
+    * Creates an empty block of the configured kind. The packed {@link RunBuffer} stores words in the
+    * platform charset, so it is only used when that charset is ASCII compatible. With a limit every block is
+    * a {@link TopBlock}.
+    * */
+    private static RunBlock newRunBlock(Comparator<String> comparator, SortOptions options) {
+        Charset charset = Charset.defaultCharset();
+        if (options.getLimit() != SortOptions.NO_LIMIT) {
+            return new TopBlock(options.getLimit(), comparator, options.getDuplicates());
+        } else if (SortOptions.RUN_BUFFER_PACKED.equals(options.getRunBuffer())
+                && WordTokenizer.isAsciiCompatible(charset)) {
+            return new RunBuffer(charset, options.getDuplicates());
+        }
+        return new WordListBlock(options.getDuplicates());
+    }
+
+    /**
+    * Pipelined run generation. The calling thread keeps reading blocks while earlier blocks are sorted
+    * on the sorting pool and spilled on the writer pool. A semaphore holds the reader back once
+    * {@link SortOptions#getInFlightBlocks()} blocks are in memory, and a failure in any stage stops the
+    * reader and is rethrown once the pools have been shut down. With a shared executor in the options,
+    * both stages run on it and the blocks left are cancelled instead. A block already read, if not null, is
+    * handed over first.
+    * */
+    private static List<File> createSortedTempFilesPipelined(MemoryBudget budget, RunBlock firstBlock,
+        WordTokenizer fileScanner, Comparator<String> comparator, File tmpDirectory, SortOptions options)
+        throws Exception {
+        ExecutorService executor = options.getExecutor();
+        ExecutorService sortPool = executor != null ? executor : Executors.newFixedThreadPool(options.getThreads());
+        ExecutorService writerPool = executor != null ? executor
+                : Executors.newFixedThreadPool(options.getWriterThreads());
+        Semaphore inFlightBlocks = new Semaphore(options.getInFlightBlocks());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<File>> runs = new ArrayList<>();
+        RunCodec codec = RunCodec.forName(options.getRunCodec(), comparator);
+
+        JobManifest checkpoint = options.getCheckpoint();
+        RunBlock pending = firstBlock;
+        long bytesRead = pending != null ? 0 : fileScanner.getBytesRead();
+        try {
+            while (failure.get() == null && (pending != null || fileScanner.hasNext())) {
+                inFlightBlocks.acquire();
+                RunBlock block = pending != null ? pending : readBlock(fileScanner, budget, comparator, options);
+                pending = null;
+                long blockStart = bytesRead;
+                long blockEnd = bytesRead = fileScanner.getBytesRead();
+                CompletableFuture<File> run = CompletableFuture
+                        .supplyAsync(() -> {
+                            long sortStart = System.nanoTime();
+                            block.sort(comparator, options);
+                            return System.nanoTime() - sortStart;
+                        }, sortPool)
+                        .thenApplyAsync(sortNanos -> {
+                            try {
+                                long writeStart = System.nanoTime();
+                                File currFile = block.save(tmpDirectory, codec);
+                                if (checkpoint != null) {
+                                    currFile = checkpoint.addRun(currFile, block.size(), blockStart, blockEnd);
+                                }
+                                options.getMetrics().runCreated(currFile, sortNanos, System.nanoTime() - writeStart);
+                                budget.adapt();
+                                Log.info("Temp file : " + currFile.toString() + " created successfully.");
+                                return currFile;
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                        }, writerPool);
+                run.whenComplete((file, ex) -> {
+                    if (ex != null) {
+                        failure.compareAndSet(null, ex instanceof CompletionException ? ex.getCause() : ex);
+                    }
+                    inFlightBlocks.release();
+                });
+                runs.add(run);
+            }
+
+            List<File> files = new ArrayList<>();
+            for (CompletableFuture<File> run : runs) {
+                try {
+                    files.add(run.join());
+                } catch (CompletionException ex) {
+                    failure.compareAndSet(null, ex.getCause());
+                }
+            }
+            Throwable cause = failure.get();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause != null) {
+                throw new Exception("Unable to create sorted temp files", cause);
+            }
+            return files;
+        } finally {
+            // close the file scanner and stop the pools, or the blocks left on a shared executor, whatever the outcome
+            fileScanner.close();
+            if (executor == null) {
+                sortPool.shutdownNow();
+                writerPool.shutdownNow();
+            } else {
+                for (CompletableFuture<File> run : runs) {
+                    run.cancel(false);
+                }
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         // Internal default values
         long startTime = System.currentTimeMillis();
-        int maxTempFiles = 1024, wordWrap = 100;
+        int maxTempFiles = 1024, wordWrap = 100, threads = 1, writerThreads = 1;
+        boolean parallelSort = false;
         File inputFile, outputFile;
         File tmpFilesDirectory = new File(".");
-        String order = "asc";
+        String order = "asc", tokenizer = WordTokenizer.NIO, collation = WordOrdering.CASE_INSENSITIVE;
+        String runBuffer = SortOptions.RUN_BUFFER_OBJECTS, sortEngine = ChunkSortEngine.TIMSORT;
+        String merger = Merger.HEAP;
+        int maxMergeFanIn = SortOptions.UNLIMITED_FAN_IN;
+        boolean prefetchRuns = false;
+        String runCodec = RunCodec.TEXT;
+        String inputMode = SortOptions.INPUT_STREAM;
+        String runGenerator = SortOptions.RUNS_BLOCKS;
+        long memoryBudget = 0;
+        boolean adaptiveBlockSize = false;
+        String duplicates = SortOptions.DUPLICATES_PER_RUN;
+        boolean emitCounts = false;
+        int progressInterval = 10;
+        File metricsFile = null;
+        String outputSync = SortOptions.SYNC_NONE;
+        int mergeThreads = 1;
+        int limit = SortOptions.NO_LIMIT;
+        File previousOutputFile = null;
+        boolean checkpoint = false;
 
-        // TODO - Replace with logger
-        System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                + ": Loading Configuration from File.");
+        Log.info("Loading Configuration from File.");
 
         // Try to load configuration file, default to internal values if not found
         try {
@@ -252,13 +1147,11 @@ public class FileSorter {
         } catch (FileNotFoundException ex) {
             // file does not exist continue with defaults
             props = props == null ? new Properties() : props;
-            System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                    + ": Configuration file not found. Using command line variables or internal defaults.");
+            Log.info("Configuration file not found. Using command line variables or internal defaults.");
         } catch (IOException ex) {
             // I/O error continue with defaults
             props = props == null ? new Properties() : props;
-            System.err.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                    + ": Unable to load configuration file: " + ex.getMessage()
+            Log.error("Unable to load configuration file: " + ex.getMessage()
                     + ". Using command line variables or internal defaults");
         }
 
@@ -277,6 +1170,43 @@ public class FileSorter {
             : tmpFilesDirectory;
         order = props.getProperty("order") != null ? props.getProperty("order") : order;
         wordWrap = props.getProperty("wordWrap") != null ? Integer.parseInt(props.getProperty("wordWrap")) : wordWrap;
+        threads = props.getProperty("threads") != null ? Integer.parseInt(props.getProperty("threads")) : threads;
+        writerThreads = props.getProperty("writerThreads") != null
+            ? Integer.parseInt(props.getProperty("writerThreads")) : writerThreads;
+        parallelSort = props.getProperty("parallelSort") != null ? Boolean.parseBoolean(props.getProperty("parallelSort"))
+            : parallelSort;
+        tokenizer = props.getProperty("tokenizer") != null ? props.getProperty("tokenizer") : tokenizer;
+        collation = props.getProperty("collation") != null ? props.getProperty("collation") : collation;
+        runBuffer = props.getProperty("runBuffer") != null ? props.getProperty("runBuffer") : runBuffer;
+        sortEngine = props.getProperty("sortEngine") != null ? props.getProperty("sortEngine") : sortEngine;
+        merger = props.getProperty("merger") != null ? props.getProperty("merger") : merger;
+        maxMergeFanIn = props.getProperty("maxMergeFanIn") != null ? Integer.parseInt(props.getProperty("maxMergeFanIn"))
+            : maxMergeFanIn;
+        prefetchRuns = props.getProperty("prefetchRuns") != null ? Boolean.parseBoolean(props.getProperty("prefetchRuns"))
+            : prefetchRuns;
+        runCodec = props.getProperty("runCodec") != null ? props.getProperty("runCodec") : runCodec;
+        inputMode = props.getProperty("inputMode") != null ? props.getProperty("inputMode") : inputMode;
+        runGenerator = props.getProperty("runGenerator") != null ? props.getProperty("runGenerator") : runGenerator;
+        memoryBudget = props.getProperty("memoryBudget") != null && !props.getProperty("memoryBudget").isEmpty()
+            ? MemoryBudget.parseSize(props.getProperty("memoryBudget")) : memoryBudget;
+        adaptiveBlockSize = props.getProperty("adaptiveBlockSize") != null
+            ? Boolean.parseBoolean(props.getProperty("adaptiveBlockSize")) : adaptiveBlockSize;
+        duplicates = props.getProperty("duplicates") != null ? props.getProperty("duplicates") : duplicates;
+        emitCounts = props.getProperty("emitCounts") != null ? Boolean.parseBoolean(props.getProperty("emitCounts"))
+            : emitCounts;
+        progressInterval = props.getProperty("progressInterval") != null
+            ? Integer.parseInt(props.getProperty("progressInterval")) : progressInterval;
+        metricsFile = props.getProperty("metricsFile") != null && !props.getProperty("metricsFile").isEmpty()
+            ? new File(props.getProperty("metricsFile")) : metricsFile;
+        outputSync = props.getProperty("outputSync") != null ? props.getProperty("outputSync") : outputSync;
+        mergeThreads = props.getProperty("mergeThreads") != null ? Integer.parseInt(props.getProperty("mergeThreads"))
+            : mergeThreads;
+        limit = props.getProperty("limit") != null ? Integer.parseInt(props.getProperty("limit")) : limit;
+        previousOutputFile = props.getProperty("previousOutputFile") != null
+            && !props.getProperty("previousOutputFile").isEmpty()
+            ? new File(props.getProperty("previousOutputFile")) : previousOutputFile;
+        checkpoint = props.getProperty("checkpoint") != null ? Boolean.parseBoolean(props.getProperty("checkpoint"))
+            : checkpoint;
         // command line
         for (int param = 0; param < args.length; param++) {
             if (args[param].equals("--maxtmpfiles") && args.length > param + 1) {
@@ -297,6 +1227,84 @@ public class FileSorter {
                 order = args[++param];
             } else if (args[param].equals("--wordwrap") && args.length > param + 1) {
                 wordWrap = Integer.parseInt(args[++param]);
+            } else if (args[param].equals("--threads") && args.length > param + 1) {
+                int val = Integer.parseInt(args[++param]);
+                if (val < 1) { // make sure it is valid
+                    System.err.println("Invalid threads value: " + val
+                            + ". Continuing with: " + threads);
+                } else {
+                    threads = val;
+                }
+            } else if (args[param].equals("--writerthreads") && args.length > param + 1) {
+                int val = Integer.parseInt(args[++param]);
+                if (val < 1) { // make sure it is valid
+                    System.err.println("Invalid writer threads value: " + val
+                            + ". Continuing with: " + writerThreads);
+                } else {
+                    writerThreads = val;
+                }
+            } else if (args[param].equals("--parallelsort") && args.length > param + 1) {
+                parallelSort = Boolean.parseBoolean(args[++param]);
+            } else if (args[param].equals("--tokenizer") && args.length > param + 1) {
+                tokenizer = args[++param];
+            } else if (args[param].equals("--collation") && args.length > param + 1) {
+                collation = args[++param];
+            } else if (args[param].equals("--runbuffer") && args.length > param + 1) {
+                runBuffer = args[++param];
+            } else if (args[param].equals("--sortengine") && args.length > param + 1) {
+                sortEngine = args[++param];
+            } else if (args[param].equals("--merger") && args.length > param + 1) {
+                merger = args[++param];
+            } else if (args[param].equals("--maxmergefanin") && args.length > param + 1) {
+                int val = Integer.parseInt(args[++param]);
+                if (val != SortOptions.UNLIMITED_FAN_IN && val < 2) { // make sure it is valid
+                    System.err.println("Invalid max merge fan-in value: " + val
+                            + ". Continuing with: " + maxMergeFanIn);
+                } else {
+                    maxMergeFanIn = val;
+                }
+            } else if (args[param].equals("--prefetchruns") && args.length > param + 1) {
+                prefetchRuns = Boolean.parseBoolean(args[++param]);
+            } else if (args[param].equals("--runcodec") && args.length > param + 1) {
+                runCodec = args[++param];
+            } else if (args[param].equals("--inputmode") && args.length > param + 1) {
+                inputMode = args[++param];
+            } else if (args[param].equals("--rungenerator") && args.length > param + 1) {
+                runGenerator = args[++param];
+            } else if (args[param].equals("--memorybudget") && args.length > param + 1) {
+                memoryBudget = MemoryBudget.parseSize(args[++param]);
+            } else if (args[param].equals("--adaptiveblocksize") && args.length > param + 1) {
+                adaptiveBlockSize = Boolean.parseBoolean(args[++param]);
+            } else if (args[param].equals("--duplicates") && args.length > param + 1) {
+                duplicates = args[++param];
+            } else if (args[param].equals("--emitcounts") && args.length > param + 1) {
+                emitCounts = Boolean.parseBoolean(args[++param]);
+            } else if (args[param].equals("--progressinterval") && args.length > param + 1) {
+                progressInterval = Integer.parseInt(args[++param]);
+            } else if (args[param].equals("--metricsfile") && args.length > param + 1) {
+                metricsFile = new File(args[++param]);
+            } else if (args[param].equals("--outputsync") && args.length > param + 1) {
+                outputSync = args[++param];
+            } else if (args[param].equals("--mergethreads") && args.length > param + 1) {
+                int val = Integer.parseInt(args[++param]);
+                if (val < 1) { // make sure it is valid
+                    System.err.println("Invalid merge threads value: " + val
+                            + ". Continuing with: " + mergeThreads);
+                } else {
+                    mergeThreads = val;
+                }
+            } else if (args[param].equals("--limit") && args.length > param + 1) {
+                int val = Integer.parseInt(args[++param]);
+                if (val != SortOptions.NO_LIMIT && val < 1) { // make sure it is valid
+                    System.err.println("Invalid limit value: " + val
+                            + ". Continuing with: " + limit);
+                } else {
+                    limit = val;
+                }
+            } else if (args[param].equals("--previousoutputfile") && args.length > param + 1) {
+                previousOutputFile = new File(args[++param]);
+            } else if (args[param].equals("--checkpoint") && args.length > param + 1) {
+                checkpoint = Boolean.parseBoolean(args[++param]);
             }
         }
 
@@ -305,30 +1313,150 @@ public class FileSorter {
             String message = "The following parameters are required: "
                     + (inputFile == null ? "Input file, " : "")
                     + (outputFile == null ? "Output file" : "");
-            System.err.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                    + ": " + message);
+            Log.error(message);
             throw new Exception(message);
         }
+        // A previous output holds no counts, rejected before any temp file is written
+        if (previousOutputFile != null && SortOptions.DUPLICATES_COUNT.equals(duplicates)) {
+            String message = "A previous output file cannot be merged in count mode: " + previousOutputFile.toString();
+            Log.error(message);
+            throw new Exception(message);
+        }
+        // The first incremental sort has no previous output yet
+        if (previousOutputFile != null && !previousOutputFile.exists()) {
+            Log.info("Previous output file not found, sorting the whole input - " + previousOutputFile.toString());
+            previousOutputFile = null;
+        }
 
-        // Sort ascending order or descending order
-        Comparator<String> comparator = order.equals("desc") ? (a, b) -> b.toLowerCase().compareTo(a.toLowerCase())
-                : (a, b) -> a.toLowerCase().compareTo(b.toLowerCase());
+        // Sort ascending order or descending order, comparing precomputed keys of the configured collation
+        Comparator<String> comparator = WordOrdering.forName(collation, order.equals("desc"));
 
         // Split the input file into sorted temp files
-        System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                + ": Begin splitting large file into temporary sorted smaller files.");
-        Scanner fileScanner = new Scanner(inputFile);
-        List<File> sortedTempFiles = createSortedTempFiles(inputFile.length(), maxTempFiles,
-                getEstimatedFreeMemory(), fileScanner, comparator, tmpFilesDirectory);
+        Log.info("Begin splitting large file into temporary sorted smaller files.");
+        SortOptions options = new SortOptions()
+                .setThreads(threads)
+                .setWriterThreads(writerThreads)
+                .setParallelSort(parallelSort)
+                .setTokenizer(tokenizer)
+                .setRunBuffer(runBuffer)
+                .setSortEngine(sortEngine)
+                .setMerger(merger)
+                .setMaxMergeFanIn(maxMergeFanIn)
+                .setPrefetchRuns(prefetchRuns)
+                .setRunCodec(runCodec)
+                .setInputMode(inputMode)
+                .setRunGenerator(runGenerator)
+                .setAdaptiveBlockSize(adaptiveBlockSize)
+                .setDuplicates(duplicates)
+                .setEmitCounts(emitCounts)
+                .setOutputSync(outputSync)
+                .setMergeThreads(mergeThreads)
+                .setLimit(limit)
+                .setMetrics(new SortMetrics().setInputBytes(inputFile.length()).addListener(new LoggingSortListener()));
+        // Progress lines with an ETA every progressInterval seconds, none if 0
+        ProgressReporter progressReporter = progressInterval > 0
+                ? new ProgressReporter(options.getMetrics(), progressInterval * 1000L) : null;
+        try {
+            // the runs of a checkpoint are only reused with the same order and layout
+            JobManifest manifest = checkpoint ? JobManifest.open(tmpFilesDirectory, inputFile, collation + " " + order
+                    + " " + tokenizer + " " + duplicates + " " + runCodec + " " + limit) : null;
+            sortAndMerge(inputFile, outputFile, previousOutputFile, manifest, tmpFilesDirectory, maxTempFiles,
+                    wordWrap, memoryBudget, comparator, options);
+        } finally {
+            if (progressReporter != null) {
+                progressReporter.close();
+            }
+        }
+        if (metricsFile != null) {
+            try (Writer metricsWriter = new OutputStreamWriter(new FileOutputStream(metricsFile),
+                    StandardCharsets.UTF_8)) {
+                metricsWriter.write(options.getMetrics().toJson());
+            }
+            Log.info("Metrics written to " + metricsFile.toString());
+        }
+        Log.info("Total processing time(ms) - " + (System.currentTimeMillis() - startTime));
+    }
+
+    /**
+    * The sort as run from the command line: the input file is split into sorted temp files, which are merged
+    * into the output file, or sorted in memory if it fits. Input and output files ending in
+    * {@link GzipFiles#EXTENSION} are gzip compressed.
+    *
+    * With a previous output, the input is only the new words: it is always split into temp files, which are
+    * merged with the previous output into a new output file.
+    *
+    * With a manifest, the input is always split into temp files too, and the job goes on from its runs. Blocks of
+    * an input read by the nio tokenizer are recorded as they are spilled, so reading goes on from the offset the
+    * recorded runs end at. Other inputs are recorded once they are read, and only the merge can go on. The runs
+    * are written to the temp directory of the manifest until they are recorded.
+    * */
+    private static void sortAndMerge(File inputFile, File outputFile, File previousOutputFile, JobManifest manifest,
+        File tmpFilesDirectory, int maxTempFiles, int wordWrap, long memoryBudget, Comparator<String> comparator,
+        SortOptions options) throws Exception {
+        // An explicit budget is used as is, otherwise the heap left free by the last gc, without forcing one
+        long freeMemory = memoryBudget > 0 ? memoryBudget : MemoryBudget.getAvailableHeap();
+        boolean gzip = GzipFiles.isGzip(inputFile);
+        boolean mapped = SortOptions.INPUT_MMAP.equals(options.getInputMode()) && !gzip;
+        if (!mapped && previousOutputFile == null && manifest == null) {
+            // a compressed input can neither be mapped nor sized up front
+            WordTokenizer fileScanner = gzip
+                    ? GzipFiles.openTokenizer(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE)
+                    : WordTokenizer.open(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE);
+            // an input that fits in memory is sorted without temp files
+            sortAndMerge(gzip ? UNKNOWN_SIZE : inputFile.length(), maxTempFiles, freeMemory, fileScanner,
+                    comparator, tmpFilesDirectory, outputFile, true, wordWrap, options);
+            Log.info("Sorted output file created successfully.");
+            return;
+        }
+        if (manifest != null) {
+            // runs are written where a restart can tell the ones that were never recorded
+            tmpFilesDirectory = manifest.getTempDirectory();
+        }
+        List<File> sortedTempFiles;
+        if (manifest != null && manifest.isInputDone()) {
+            sortedTempFiles = manifest.getRuns();
+            Log.info("Resuming the merge of " + sortedTempFiles.size() + " temp files from the job manifest.");
+        } else if (mapped) {
+            sortedTempFiles = createSortedTempFilesMapped(inputFile, maxTempFiles, freeMemory,
+                    comparator, tmpFilesDirectory, options);
+        } else {
+            boolean resumable = manifest != null && !gzip && SortOptions.RUNS_BLOCKS.equals(options.getRunGenerator())
+                    && WordTokenizer.NIO.equals(options.getTokenizer())
+                    && WordTokenizer.isAsciiCompatible(Charset.defaultCharset());
+            long offset = resumable ? manifest.getInputOffset() : 0;
+            if (offset > 0) {
+                Log.info("Resuming the input from byte " + offset + " with " + manifest.getRuns().size()
+                        + " temp files from the job manifest.");
+                options.getMetrics().setInputBytes(inputFile.length() - offset);
+            }
+            WordTokenizer fileScanner = gzip
+                    ? GzipFiles.openTokenizer(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE)
+                    : resumable ? WordTokenizer.open(inputFile, WordTokenizer.INPUT_BUFFER_SIZE, offset)
+                    : WordTokenizer.open(inputFile, options.getTokenizer(), WordTokenizer.INPUT_BUFFER_SIZE);
+            options.setCheckpoint(resumable ? manifest : null);
+            sortedTempFiles = createSortedTempFiles(gzip ? UNKNOWN_SIZE : inputFile.length() - offset, maxTempFiles,
+                    freeMemory, fileScanner, comparator, tmpFilesDirectory, options);
+        }
+        if (manifest != null) {
+            sortedTempFiles = manifest.finishInput(sortedTempFiles);
+            options.setCheckpoint(manifest);
+        }
 
         // Merge the sorted temp files
-        System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                + ": Begin merging temporary sorted files to sorted output file - " + outputFile.toString());
-        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile, true)));
-        mergeSortedTempFiles(comparator, sortedTempFiles, fileWriter, wordWrap);
-        System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                + ": Sorted output file created successfully.");
-        System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.sss").format(new Date())
-                + ": Total processing time(ms) - " + (System.currentTimeMillis() - startTime));
+        Log.info("Begin merging temporary sorted files to sorted output file - " + outputFile.toString());
+        options.setMergeMemory((memoryBudget > 0 ? memoryBudget : MemoryBudget.getAvailableHeap()) / 2);
+        if (previousOutputFile != null) {
+            Log.info("Merging with the previous output file - " + previousOutputFile.toString());
+            mergeSortedTempFiles(comparator, sortedTempFiles, previousOutputFile, outputFile, wordWrap, options);
+        } else {
+            if (manifest != null) {
+                manifest.startOutput(outputFile);
+            }
+            mergeSortedTempFiles(comparator, sortedTempFiles, outputFile, true, wordWrap, options);
+        }
+        if (manifest != null) {
+            manifest.complete();
+        }
+        Log.info("Sorted output file created successfully.");
     }
 }
@@ -0,0 +1,195 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+* Front coded temp files, optionally deflated.
+*
+* Sorted words share long prefixes with the word before them, so every word is stored as the number of
+* leading bytes it shares with the previous word, the number of remaining bytes, both as unsigned varints,
+* and then the remaining bytes. Words are encoded in the platform charset like text temp files, and since
+* the shared prefix is counted in bytes a multi byte character may be split, the reader always decodes
+* whole words.
+* */
+class FrontCodedRunCodec implements RunCodec {
+    private final boolean deflate;
+    private final Charset charset = Charset.defaultCharset();
+
+    /**
+    * @param deflate True to compress the front coded bytes with java.util.zip.Deflater
+    * */
+    FrontCodedRunCodec(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    @Override
+    public WordSink newWriter(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (!deflate) {
+            return new Writer(out, null, charset);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        return new Writer(new DeflaterOutputStream(out, deflater, WordTokenizer.RUN_BUFFER_SIZE), deflater, charset);
+    }
+
+    @Override
+    public WordTokenizer newReader(File file, String tokenizer, int bufferSize, ExecutorService ioExecutor)
+        throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        InputStream in = Channels.newInputStream(ioExecutor != null
+                ? new PrefetchingChannel(channel, bufferSize, ioExecutor) : channel);
+        if (!deflate) {
+            return new Reader(in, null, charset, bufferSize);
+        }
+        Inflater inflater = new Inflater();
+        return new Reader(new InflaterInputStream(in, inflater, bufferSize), inflater, charset, bufferSize);
+    }
+
+    /**
+    * Front coding {@link WordSink}, words are encoded into a local buffer that is written out when full.
+    * */
+    static class Writer implements WordSink {
+        private final RecordOutput out;
+        private final Deflater deflater;
+        private final Charset charset;
+        private byte[] previous = new byte[64];
+        private int previousLength;
+
+        /**
+        * @param out Stream to write the front coded words to, closed with the writer
+        * @param deflater Deflater used by the stream, ended with the writer, or null
+        * @param charset Charset the words are encoded in
+        * */
+        Writer(OutputStream out, Deflater deflater, Charset charset) {
+            this.out = new RecordOutput(out);
+            this.deflater = deflater;
+            this.charset = charset;
+        }
+
+        @Override
+        public void write(String word) throws IOException {
+            byte[] bytes = word.getBytes(charset);
+            write(bytes, 0, bytes.length, charset);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+            if (!this.charset.equals(charset)) {
+                write(new String(bytes, offset, length, charset));
+                return;
+            }
+            int shared = 0;
+            int maxShared = Math.min(length, previousLength);
+            while (shared < maxShared && previous[shared] == bytes[offset + shared]) {
+                shared++;
+            }
+            int suffix = length - shared;
+            out.ensureCapacity(10 + suffix); // two varints of at most 5 bytes each
+            out.putVarint(shared);
+            out.putVarint(suffix);
+            out.put(bytes, offset + shared, suffix);
+            if (length > previous.length) {
+                previous = Arrays.copyOf(previous, Math.max(length, 2 * previous.length));
+            }
+            System.arraycopy(bytes, offset + shared, previous, shared, suffix);
+            previousLength = length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+
+    /**
+    * Front coding {@link WordTokenizer}, rebuilds every word from the previous one.
+    * */
+    static class Reader implements WordTokenizer {
+        private final RecordInput in;
+        private final Inflater inflater;
+        private final Charset charset;
+        private byte[] word = new byte[64];
+        private int wordLength;
+        private String cache;
+
+        /**
+        * @param in Stream of front coded words, closed with the reader
+        * @param inflater Inflater used by the stream, ended with the reader, or null
+        * @param charset Charset the words are encoded in
+        * @param bufferSize Size of the read buffer
+        * */
+        Reader(InputStream in, Inflater inflater, Charset charset, int bufferSize) {
+            this.in = new RecordInput(in, bufferSize);
+            this.inflater = inflater;
+            this.charset = charset;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (cache == null) {
+                try {
+                    cache = readWord();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return cache != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String curr = cache;
+            cache = null;
+            return curr;
+        }
+
+        private String readWord() throws IOException {
+            if (in.isAtEnd()) {
+                return null;
+            }
+            int shared = in.readVarint();
+            int suffix = in.readVarint();
+            if (shared > wordLength) {
+                throw new IOException("Corrupt front coded temp file");
+            }
+            if (shared + suffix > word.length) {
+                word = Arrays.copyOf(word, Math.max(shared + suffix, 2 * word.length));
+            }
+            in.readFully(word, shared, suffix);
+            wordLength = shared + suffix;
+            return new String(word, 0, wordLength, charset);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+            }
+        }
+    }
+}
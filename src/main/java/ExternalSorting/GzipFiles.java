@@ -0,0 +1,214 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+* Reads and writes gzip compressed input and output files, recognised by their {@link #EXTENSION}.
+*
+* The input is decompressed on a thread of its own into a {@link PrefetchingChannel}, so inflating the next
+* buffer overlaps with tokenizing the current one. The size of a compressed input is not known up front, so its
+* tokenizer estimates it from the compression ratio so far, which the block sizing and the progress use instead
+* of the compressed length.
+* */
+public final class GzipFiles {
+    /** Extension of gzip compressed files */
+    public static final String EXTENSION = ".gz";
+    /** Buffer size of the inflater and deflater streams */
+    static final int GZIP_BUFFER_SIZE = 1 << 20;
+
+    private GzipFiles() {
+    }
+
+    /**
+    * @param file An input or output file
+    *
+    * @return True if the file is gzip compressed
+    * */
+    public static boolean isGzip(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+    * Opens a tokenizer on a gzip compressed file of text in the platform default charset.
+    *
+    * @param file File to decompress and tokenize
+    * @param tokenizer Either {@link WordTokenizer#NIO} or {@link WordTokenizer#SCANNER}
+    * @param bufferSize Size of the read buffer and of the buffer being decompressed into meanwhile
+    *
+    * @return A tokenizer for the decompressed file, whose {@link WordTokenizer#getEstimatedSize()} is the
+    *         estimated size of the decompressed file
+    *
+    * @throws IOException If the file cannot be opened or is not in gzip format
+    * */
+    public static WordTokenizer openTokenizer(File file, String tokenizer, int bufferSize) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        boolean scanner = WordTokenizer.SCANNER.equals(tokenizer) || !WordTokenizer.isAsciiCompatible(charset);
+        if (!scanner && !WordTokenizer.NIO.equals(tokenizer)) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + tokenizer);
+        }
+        DecompressingChannel channel = new DecompressingChannel(file, bufferSize);
+        if (scanner) {
+            return new ScannerWordTokenizer(new Scanner(channel, charset.name())) {
+                @Override
+                public long getEstimatedSize() {
+                    return channel.getEstimatedSize();
+                }
+            };
+        }
+        return new NioWordTokenizer(channel, charset, bufferSize) {
+            @Override
+            public long getEstimatedSize() {
+                return channel.getEstimatedSize();
+            }
+        };
+    }
+
+    /**
+    * Opens a buffered writer that gzip compresses the text in the platform default charset. Appending adds
+    * a gzip member to the file, which gzip and java.util.zip.GZIPInputStream read as one stream.
+    *
+    * @param file File to write
+    * @param append True to append to the file instead of replacing it
+    *
+    * @return The writer, closing it finishes the compressed stream
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    public static BufferedWriter newWriter(File file, boolean append) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file, append), GZIP_BUFFER_SIZE), Charset.defaultCharset()));
+    }
+
+    /**
+    * Same as {@link #newWriter(File, boolean)} but as a channel of encoded bytes, e.g. for a
+    * {@link ChannelWordWriter}.
+    *
+    * @param file File to write
+    * @param append True to append to the file instead of replacing it
+    *
+    * @return The channel, closing it finishes the compressed stream
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    public static WritableByteChannel newChannel(File file, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            return Channels.newChannel(new GZIPOutputStream(out, GZIP_BUFFER_SIZE));
+        } catch (IOException ex) {
+            out.close();
+            throw ex;
+        }
+    }
+
+    /**
+    * Channel over a decompressed file, filled ahead on a daemon thread that is stopped when it is closed.
+    * The compressed and decompressed bytes are both counted on that thread, at the inflater, so their ratio is
+    * not skewed by the buffers in between.
+    * */
+    private static class DecompressingChannel implements ReadableByteChannel {
+        private final long compressedSize;
+        private final ExecutorService decompressor;
+        private final PrefetchingChannel channel;
+        private volatile long compressedRead;
+        private volatile long decompressedRead;
+
+        DecompressingChannel(File file, int bufferSize) throws IOException {
+            this.compressedSize = file.length();
+            // the header and trailer are read byte by byte, the deflated data in blocks
+            InputStream compressed = new FilterInputStream(new FileInputStream(file)) {
+                @Override
+                public int read() throws IOException {
+                    int read = super.read();
+                    if (read >= 0) {
+                        compressedRead++;
+                    }
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        compressedRead += read;
+                    }
+                    return read;
+                }
+            };
+            InputStream in;
+            try {
+                in = new GZIPInputStream(compressed, GZIP_BUFFER_SIZE);
+            } catch (IOException ex) {
+                compressed.close();
+                throw ex;
+            }
+            ReadableByteChannel decompressed = Channels.newChannel(in);
+            ReadableByteChannel counted = new ReadableByteChannel() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int read = decompressed.read(dst);
+                    if (read > 0) {
+                        decompressedRead += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return decompressed.isOpen();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    decompressed.close();
+                }
+            };
+            this.decompressor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "gzip-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.channel = new PrefetchingChannel(counted, bufferSize, decompressor);
+        }
+
+        /**
+        * @return The compressed size scaled by the compression ratio so far, or -1 before anything is read
+        * */
+        long getEstimatedSize() {
+            long compressed = compressedRead;
+            long decompressed = decompressedRead;
+            if (compressed == 0 || decompressed == 0) {
+                return -1;
+            }
+            return (long) ((double) compressedSize * decompressed / compressed);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                decompressor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ExternalSorting;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+* {@link Merger} backed by a java.util.PriorityQueue, the original merge k sorted lists implementation.
+* Every word costs a poll and an add, i.e. about 2 log k comparisons.
+* */
+public class HeapMerger implements Merger {
+    private final PriorityQueue<CachedScanner> queue;
+
+    public HeapMerger(List<CachedScanner> runs, Comparator<CachedScanner> comparator) {
+        // Min/Max heap depending on the comparator passed
+        queue = new PriorityQueue<>(Math.max(1, runs.size()), comparator);
+        for (CachedScanner run : runs) {
+            if (run.isEmpty()) {
+                run.close();
+            } else {
+                queue.add(run);
+            }
+        }
+    }
+
+    @Override
+    public CachedScanner peek() {
+        return queue.peek();
+    }
+
+    @Override
+    public void advance() {
+        CachedScanner currScanner = queue.poll();
+        if (currScanner.isEmpty()) {
+            currScanner.close();
+        } else {
+            queue.add(currScanner);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Just in case an exception occurs before the priority queue is empty, to avoid any memory leaks
+        for (CachedScanner sc : queue) {
+            sc.close();
+        }
+        queue.clear();
+    }
+}
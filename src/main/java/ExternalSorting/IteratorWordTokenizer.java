@@ -0,0 +1,79 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+* {@link WordTokenizer} over words that are already in memory, e.g. produced by another part of the application,
+* so they can be sorted without being written to an input file first.
+*
+* Every element is expected to be a single word. Elements holding whitespace are split on it like
+* java.util.Scanner splits the input, since the temp files could not tell such a word from two words,
+* and null or blank elements are skipped. If the iterator is AutoCloseable it is closed with the tokenizer.
+* */
+public class IteratorWordTokenizer implements WordTokenizer {
+    private final Iterator<String> words;
+    private final Deque<String> split = new ArrayDeque<>();
+
+    /**
+    * @param words Words to sort, in any order
+    * */
+    public IteratorWordTokenizer(Iterator<String> words) {
+        this.words = words;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (split.isEmpty() && words.hasNext()) {
+            addWords(words.next());
+        }
+        return !split.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return split.poll();
+    }
+
+    private void addWords(String element) {
+        if (element == null) {
+            return;
+        }
+        int start = -1;
+        for (int i = 0; i < element.length(); i++) {
+            if (Character.isWhitespace(element.charAt(i))) {
+                if (start >= 0) {
+                    split.add(element.substring(start, i));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (start == 0) {
+            split.add(element);
+        } else if (start > 0) {
+            split.add(element.substring(start));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (words instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) words).close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Unable to close the words", ex);
+            }
+        }
+    }
+}
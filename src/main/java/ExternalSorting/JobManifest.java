@@ -0,0 +1,358 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+* Checkpoint of a sort run from the command line, so a job that is stopped, e.g. on a preemptible machine, goes
+* on from where it was when it is started again instead of from the beginning.
+*
+* The manifest is a properties file in the temp directory. It lists the runs written so far, with their word
+* count and a CRC32 checksum, and the input offsets of the words every run holds. A run is renamed after the
+* manifest as soon as it is recorded, which also keeps it from being deleted on exit, and the manifest is
+* written next to itself and moved over the previous one, so it always matches the runs on the disk. Runs are
+* written in a directory named after the manifest until they are recorded, so the runs a killed job was writing,
+* and the runs it renamed but did not record yet, are known and deleted when it is started again.
+*
+* A restarted job checks every run against its checksum, keeps the runs that cover the input from its start
+* without a gap, and reads the input again from the offset they end at. Once the input is read, every
+* intermediate merge replaces its runs by the merged run in the manifest, so the merge passes go on from the last
+* one done. The length of the output is recorded before the final pass, so an output left by a final pass that
+* did not finish is cut back before it is merged again.
+*
+* A manifest belongs to one input file, as it was when the job started, and to the settings the runs were
+* written with. A manifest of another input or other settings is dropped along with its runs.
+* */
+final class JobManifest {
+    /** Extension of the manifest, after the name of the input file */
+    static final String EXTENSION = ".manifest";
+    /** Extension of the directory the runs are written to until they are recorded, after the name of the input */
+    static final String TEMP_EXTENSION = ".partial";
+
+    private final File file;
+    private final String name;
+    private final String job;
+    private final File tempDirectory;
+    private final List<Run> runs = new ArrayList<>();
+    private final long inputOffset;
+    private boolean inputDone;
+    private long outputLength = -1;
+    private int nextRun;
+
+    private JobManifest(File file, String name, String job) throws IOException {
+        this.file = file;
+        this.name = name;
+        this.job = job;
+        this.tempDirectory = new File(file.getParentFile(), name + TEMP_EXTENSION);
+        Properties props = new Properties();
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+        }
+        List<Run> found = new ArrayList<>();
+        int count = Integer.parseInt(props.getProperty("runs", "0"));
+        for (int i = 0; i < count; i++) {
+            found.add(new Run(new File(file.getParentFile(), props.getProperty("run." + i + ".file")),
+                    Long.parseLong(props.getProperty("run." + i + ".words")),
+                    Long.parseLong(props.getProperty("run." + i + ".length")),
+                    Long.parseLong(props.getProperty("run." + i + ".checksum")),
+                    Long.parseLong(props.getProperty("run." + i + ".start")),
+                    Long.parseLong(props.getProperty("run." + i + ".end"))));
+        }
+        nextRun = Integer.parseInt(props.getProperty("nextRun", "0"));
+        if (file.exists() && !job.equals(props.getProperty("job"))) {
+            Log.info("The job manifest is of another input or other settings, starting over - " + file.toString());
+            deleteRuns(found);
+        } else if (Boolean.parseBoolean(props.getProperty("inputDone"))) {
+            // runs of a merge pass cover no range of the input, so they are all needed
+            List<Run> broken = new ArrayList<>();
+            for (Run run : found) {
+                if (!run.isIntact()) {
+                    broken.add(run);
+                }
+            }
+            if (broken.isEmpty()) {
+                runs.addAll(found);
+                inputDone = true;
+                outputLength = Long.parseLong(props.getProperty("outputLength", "-1"));
+            } else {
+                Log.info("Temp file " + broken.get(0).file.toString()
+                        + " does not match the job manifest, starting over.");
+                deleteRuns(found);
+            }
+        } else {
+            // blocks can be spilled out of order, only the runs that follow on from the start of the input are kept
+            found.sort(Comparator.comparingLong(run -> run.start));
+            long offset = 0;
+            for (Run run : found) {
+                if (run.start == offset && run.isIntact()) {
+                    runs.add(run);
+                    offset = run.end;
+                } else {
+                    run.file.delete();
+                }
+            }
+        }
+        this.inputOffset = runs.isEmpty() ? 0 : runs.get(runs.size() - 1).end;
+        deleteUnrecorded();
+        save();
+    }
+
+    /**
+    * Opens the manifest of an input in the temp directory, or creates it if there is none yet.
+    *
+    * @param tmpDirectory Directory of the temp files
+    * @param inputFile Input file of the job
+    * @param settings Settings the runs depend on, e.g. the order and the codec, in any format
+    *
+    * @return The manifest, with the runs that can be reused
+    *
+    * @throws IOException If unable to read the manifest or its runs
+    * */
+    static JobManifest open(File tmpDirectory, File inputFile, String settings) throws IOException {
+        String job = inputFile.getCanonicalPath() + " " + inputFile.length() + " " + inputFile.lastModified()
+                + " " + settings;
+        return new JobManifest(new File(tmpDirectory, inputFile.getName() + EXTENSION), inputFile.getName(), job);
+    }
+
+    /**
+    * @return Directory to write the runs to until they are recorded, cleared whenever the manifest is opened
+    * */
+    File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+    * @return Offset of the input the runs of an earlier start end at, where run generation goes on from
+    * */
+    long getInputOffset() {
+        return inputOffset;
+    }
+
+    /**
+    * @return True if the whole input is in the runs, so only the merge is left
+    * */
+    synchronized boolean isInputDone() {
+        return inputDone;
+    }
+
+    /**
+    * @return The runs recorded, in the order they were recorded
+    * */
+    synchronized List<File> getRuns() {
+        List<File> files = new ArrayList<>();
+        for (Run run : runs) {
+            files.add(run.file);
+        }
+        return files;
+    }
+
+    /**
+    * Records a run just written during run generation. Safe to call from any thread.
+    *
+    * @param run The sorted temp file
+    * @param words Number of words in the run
+    * @param start Offset of the first byte of its block, from {@link #getInputOffset()}, or -1 if not known
+    * @param end Offset after the last word of its block, from {@link #getInputOffset()}, or -1 if not known
+    *
+    * @return The run, renamed after the manifest
+    *
+    * @throws IOException If unable to rename or read the run, or to write the manifest
+    * */
+    File addRun(File run, long words, long start, long end) throws IOException {
+        Run recorded = newRun(run, words, start < 0 ? -1 : inputOffset + start, end < 0 ? -1 : inputOffset + end);
+        synchronized (this) {
+            runs.add(recorded);
+            save();
+        }
+        return recorded.file;
+    }
+
+    /**
+    * Records that the whole input is in the runs. Runs not recorded yet, e.g. from a generator that cannot tell
+    * the input offsets, are recorded first.
+    *
+    * @param files The runs of run generation
+    *
+    * @return Every run of the job
+    *
+    * @throws IOException If unable to rename or read a run, or to write the manifest
+    * */
+    synchronized List<File> finishInput(List<File> files) throws IOException {
+        List<File> recorded = getRuns();
+        for (File run : files) {
+            if (!recorded.contains(run)) {
+                runs.add(newRun(run, -1, -1, -1));
+            }
+        }
+        inputDone = true;
+        save();
+        return getRuns();
+    }
+
+    /**
+    * Replaces the runs of an intermediate merge by the merged run. The merged runs can be deleted afterwards.
+    *
+    * @param group The runs merged
+    * @param merged The merged run
+    * @param words Number of words in the merged run
+    *
+    * @return The merged run, renamed after the manifest
+    *
+    * @throws IOException If unable to rename or read the merged run, or to write the manifest
+    * */
+    synchronized File replaceRuns(List<File> group, File merged, long words) throws IOException {
+        Run run = newRun(merged, words, -1, -1);
+        runs.removeIf(old -> group.contains(old.file));
+        runs.add(run);
+        save();
+        return run.file;
+    }
+
+    /**
+    * Records the length of the output before the final pass appends to it. If a final pass already started,
+    * what it wrote is cut off the output instead.
+    *
+    * @param outputFile The output file
+    *
+    * @throws IOException If unable to truncate the output or to write the manifest
+    * */
+    synchronized void startOutput(File outputFile) throws IOException {
+        if (outputLength < 0) {
+            outputLength = outputFile.length();
+            save();
+        } else if (outputFile.length() > outputLength) {
+            Log.info("Cutting the output of an unfinished merge off " + outputFile.toString() + ".");
+            try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(outputLength);
+            }
+        }
+    }
+
+    /**
+    * Deletes the runs and the manifest once the output is complete.
+    * */
+    synchronized void complete() {
+        deleteRuns(runs);
+        runs.clear();
+        file.delete();
+        tempDirectory.delete();
+    }
+
+    private Run newRun(File run, long words, long start, long end) throws IOException {
+        int number;
+        synchronized (this) {
+            number = nextRun++;
+        }
+        File renamed = new File(file.getParentFile(), name + ".run" + number);
+        Files.move(run.toPath(), renamed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return new Run(renamed, words, renamed.length(), checksum(renamed), start, end);
+    }
+
+    /**
+    * Deletes the runs left by an earlier start that are not recorded: every file of the temp directory, and the
+    * runs renamed after the manifest but not written to it yet.
+    * */
+    private void deleteUnrecorded() throws IOException {
+        List<File> recorded = getRuns();
+        File[] unrecorded = file.getParentFile().listFiles((dir, fileName) ->
+                fileName.matches(Pattern.quote(name) + "\\.run\\d+") && !recorded.contains(new File(dir, fileName)));
+        File[] partial = tempDirectory.listFiles();
+        int deleted = 0;
+        for (File[] files : new File[][] {unrecorded, partial}) {
+            for (File run : files != null ? files : new File[0]) {
+                if (run.delete()) {
+                    deleted++;
+                }
+            }
+        }
+        if (deleted > 0) {
+            Log.info("Deleted " + deleted + " temp files not in the job manifest - " + file.toString());
+        }
+        if (!tempDirectory.isDirectory() && !tempDirectory.mkdirs()) {
+            throw new IOException("Unable to create the temp directory " + tempDirectory.toString());
+        }
+    }
+
+    private static void deleteRuns(List<Run> runs) {
+        for (Run run : runs) {
+            run.file.delete();
+        }
+    }
+
+    /**
+    * Writes the manifest next to itself, forces it to the disk and moves it over the previous one.
+    * */
+    private void save() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("job", job);
+        props.setProperty("inputDone", Boolean.toString(inputDone));
+        props.setProperty("outputLength", Long.toString(outputLength));
+        props.setProperty("nextRun", Integer.toString(nextRun));
+        props.setProperty("runs", Integer.toString(runs.size()));
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            props.setProperty("run." + i + ".file", run.file.getName());
+            props.setProperty("run." + i + ".words", Long.toString(run.words));
+            props.setProperty("run." + i + ".length", Long.toString(run.length));
+            props.setProperty("run." + i + ".checksum", Long.toString(run.checksum));
+            props.setProperty("run." + i + ".start", Long.toString(run.start));
+            props.setProperty("run." + i + ".end", Long.toString(run.end));
+        }
+        File written = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(written)) {
+            props.store(new OutputStreamWriter(out, StandardCharsets.UTF_8), "Sort job manifest");
+            out.getFD().sync();
+        }
+        Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+    * A run of the manifest, with the input offsets of its block, -1 if it comes from a merge or they are unknown.
+    * */
+    private static final class Run {
+        final File file;
+        final long words;
+        final long length;
+        final long checksum;
+        final long start;
+        final long end;
+
+        Run(File file, long words, long length, long checksum, long start, long end) {
+            this.file = file;
+            this.words = words;
+            this.length = length;
+            this.checksum = checksum;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isIntact() throws IOException {
+            return file.isFile() && file.length() == length && checksum(file) == checksum;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+* {@link WordSink} that passes the first words of the output on to another sink and drops the rest, see
+* {@link SortOptions#setLimit(int)}.
+* */
+class LimitSink implements WordSink {
+    private final WordSink sink;
+    private final long limit;
+    private long written;
+
+    /**
+    * @param sink Sink the first words are written to, closed with this one
+    * @param limit Number of words passed on
+    * */
+    LimitSink(WordSink sink, long limit) {
+        this.sink = sink;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(String word) throws IOException {
+        if (written < limit) {
+            written++;
+            sink.write(word);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+        if (written < limit) {
+            written++;
+            sink.write(bytes, offset, length, charset);
+        }
+    }
+
+    /**
+    * @return True once the limit is reached, every word written from then on is dropped
+    * */
+    boolean isFull() {
+        return written >= limit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.close();
+    }
+}
@@ -0,0 +1,35 @@
+package ExternalSorting;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+* Timestamped log lines on the standard output and error streams.
+*
+* The formatter is immutable and shared by every thread, unlike a java.text.SimpleDateFormat which had to be
+* created for every line. Milliseconds are SSS, the former ss.sss pattern printed the seconds twice.
+* */
+final class Log {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSS");
+
+    private Log() {
+    }
+
+    /**
+    * @param message Line to print on the standard output
+    * */
+    static void info(String message) {
+        System.out.println(timestamp() + ": " + message);
+    }
+
+    /**
+    * @param message Line to print on the standard error
+    * */
+    static void error(String message) {
+        System.err.println(timestamp() + ": " + message);
+    }
+
+    private static String timestamp() {
+        return TIMESTAMP.format(LocalDateTime.now());
+    }
+}
@@ -0,0 +1,50 @@
+package ExternalSorting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* {@link SortListener} that logs a summary of every phase and the progress lines of a {@link ProgressReporter}.
+* */
+public class LoggingSortListener implements SortListener {
+    @Override
+    public void onPhaseFinished(SortMetrics.Phase phase, SortMetrics metrics) {
+        if (phase == SortMetrics.Phase.RUN_GENERATION) {
+            Log.info("Run generation finished in " + toMillis(metrics.getPhaseNanos(phase)) + " ms: "
+                    + metrics.getWordsRead() + " words (" + metrics.getBytesRead() + " bytes) read into "
+                    + metrics.getRunsCreated() + " temp files of " + metrics.getTempBytesWritten() + " bytes, "
+                    + toMillis(metrics.getRunSortNanos()) + " ms sorting and " + toMillis(metrics.getRunWriteNanos())
+                    + " ms writing over all threads.");
+        } else {
+            Log.info("Merge finished in " + toMillis(metrics.getPhaseNanos(phase)) + " ms: "
+                    + metrics.getWordsMerged() + " words merged (" + Math.round(metrics.getMergeWordsPerSecond())
+                    + " words/s) with " + metrics.getComparisons() + " comparisons, "
+                    + metrics.getTempBytesRead() + " bytes of temp files read. Peak heap "
+                    + metrics.getPeakHeap() + " bytes.");
+        }
+    }
+
+    @Override
+    public void onProgress(SortMetrics metrics) {
+        SortMetrics.Phase phase = metrics.getPhase();
+        if (phase == null) {
+            return;
+        }
+        double progress = metrics.getProgress();
+        long eta = metrics.getEtaMillis();
+        String done = phase == SortMetrics.Phase.RUN_GENERATION
+                ? metrics.getWordsRead() + " words read, " + metrics.getRunsCreated() + " temp files"
+                : metrics.getFinalPassWords() + " words merged";
+        Log.info("Progress: " + (phase == SortMetrics.Phase.RUN_GENERATION ? "run generation" : "merge")
+                + (progress >= 0 ? String.format(" %.1f%%", progress * 100) : "") + ", " + done
+                + (eta >= 0 ? ", ETA " + formatDuration(eta) : "") + ".");
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
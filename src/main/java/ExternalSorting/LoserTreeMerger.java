@@ -0,0 +1,125 @@
+package ExternalSorting;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+* {@link Merger} backed by a loser tree (tournament tree).
+*
+* The runs are the leaves of a complete binary tree and every internal node remembers the loser of the
+* match played there, while the overall winner is kept at the top. Once the winner's word is popped, only
+* the matches on the path from its leaf to the root are replayed, so every word costs exactly
+* ceil(log2 k) comparisons, against about twice that for a heap that has to sift down and up again.
+*
+* An exhausted run loses every match. Words that compare equal are taken from the run added first.
+* */
+public class LoserTreeMerger implements Merger {
+    private final CachedScanner[] runs;
+    private final Comparator<CachedScanner> comparator;
+    private final boolean[] closed;
+    /** tree[0] is the winner, tree[1..k-1] the losers of the internal nodes */
+    private final int[] tree;
+
+    public LoserTreeMerger(List<CachedScanner> runs, Comparator<CachedScanner> comparator) {
+        this.runs = runs.toArray(new CachedScanner[0]);
+        this.comparator = comparator;
+        this.closed = new boolean[this.runs.length];
+        this.tree = new int[Math.max(1, this.runs.length)];
+        for (int i = 0; i < this.runs.length; i++) {
+            if (this.runs[i].isEmpty()) {
+                closeRun(i);
+            }
+        }
+        build();
+    }
+
+    @Override
+    public CachedScanner peek() {
+        if (runs.length == 0 || runs[tree[0]].isEmpty()) {
+            return null;
+        }
+        return runs[tree[0]];
+    }
+
+    @Override
+    public void advance() {
+        int winner = tree[0];
+        if (runs[winner].isEmpty()) {
+            closeRun(winner);
+        }
+        replay(winner);
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < runs.length; i++) {
+            closeRun(i);
+        }
+    }
+
+    /**
+    * Plays every leaf up the tree, parking it at the first node that has no player yet.
+    * After k leaves, k - 1 have been parked as losers and the last one to reach the top is the winner.
+    * */
+    private void build() {
+        int k = runs.length;
+        for (int node = 1; node < k; node++) {
+            tree[node] = -1;
+        }
+        for (int leaf = 0; leaf < k; leaf++) {
+            int winner = leaf;
+            int node = (leaf + k) / 2;
+            while (node > 0) {
+                if (tree[node] == -1) {
+                    tree[node] = winner;
+                    winner = -1;
+                    break;
+                }
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+                node /= 2;
+            }
+            if (winner != -1) {
+                tree[0] = winner;
+            }
+        }
+    }
+
+    /**
+    * Replays the matches from the leaf of a run to the root.
+    * */
+    private void replay(int leaf) {
+        int winner = leaf;
+        for (int node = (leaf + runs.length) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+    * @return True if the current word of run a comes before the one of run b
+    * */
+    private boolean beats(int a, int b) {
+        if (runs[a].isEmpty()) {
+            return false;
+        } else if (runs[b].isEmpty()) {
+            return true;
+        }
+        int cmp = comparator.compare(runs[a], runs[b]);
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    private void closeRun(int i) {
+        if (!closed[i]) {
+            closed[i] = true;
+            runs[i].close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ExternalSorting;
+
+import java.lang.management.*;
+import java.util.Locale;
+
+/**
+* Memory available to the blocks of run generation and to the read buffers of the merge.
+*
+* The budget is either given explicitly, e.g. to stay well inside a container limit, or derived from the
+* heap as it was left by the last garbage collection, which the JVM reports through the memory pool beans
+* without the need to force a collection with System.gc().
+*
+* The block size starts from {@link FileSorter#getEstimatedBlockSize(long, int, long, int)} on the budget.
+* If adaptive, it is then tuned between blocks: when the heap still in use after the last collection gets
+* close to the max heap the blocks shrink, and while it stays low they grow back, never past the share
+* of the budget of a block and never below the size needed to stay within maxTmpFiles.
+* */
+public class MemoryBudget {
+    /** Share of the max heap still in use after a collection above which blocks shrink */
+    static final double HIGH_HEAP_USAGE = 0.75;
+    /** Share of the max heap still in use after a collection below which blocks grow */
+    static final double LOW_HEAP_USAGE = 0.4;
+
+    private final long budget;
+    private final boolean adaptive;
+    private long minBlockSize;
+    private long maxBlockSize;
+    private int maxTmpFiles;
+    private boolean unknownSize;
+    private volatile long blockSize;
+
+    /**
+    * @param budget Memory in bytes shared by all the blocks in memory at once
+    * @param adaptive True to tune the block size between blocks from the observed heap usage
+    * */
+    public MemoryBudget(long budget, boolean adaptive) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Invalid memory budget: " + budget);
+        }
+        this.budget = budget;
+        this.adaptive = adaptive;
+    }
+
+    /**
+    * @return A budget of the heap that was free after the last garbage collection
+    * */
+    public static MemoryBudget fromHeap(boolean adaptive) {
+        return new MemoryBudget(Math.max(1, getAvailableHeap()), adaptive);
+    }
+
+    /**
+    * Estimates the free heap without forcing a garbage collection: the max heap minus the heap that was
+    * still in use after the last collection of every pool. Pools that were never collected count with
+    * their current usage.
+    *
+    * @return The estimated free heap in bytes
+    * */
+    public static long getAvailableHeap() {
+        return getMaxHeap() - getHeapUsedAfterCollection();
+    }
+
+    /**
+    * Parses a memory size such as 512m or 2g, without a suffix the size is in bytes.
+    *
+    * @param size The size, with an optional k, m or g suffix
+    *
+    * @return The size in bytes
+    * */
+    public static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long parsed = Long.parseLong(value) * unit;
+        if (parsed <= 0) {
+            throw new IllegalArgumentException("Invalid memory size: " + size);
+        }
+        return parsed;
+    }
+
+    /**
+    * @return The budget in bytes
+    * */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+    * Sizes the first block and the bounds the block size is tuned within.
+    *
+    * When the size of the input is unknown, e.g. for a stream, nothing bounds the number of temp files, so
+    * the blocks never shrink below a quarter of their first size.
+    *
+    * @param fileSize The size of the input file to be processed, or {@link FileSorter#UNKNOWN_SIZE}
+    * @param maxTmpFiles The maximum number of temp files to create
+    * @param inFlightBlocks The maximum number of blocks held in memory at once
+    *
+    * @return The size of the first block
+    *
+    * @throws Exception If the budget cannot fit blocks large enough for maxTmpFiles
+    * */
+    public synchronized long initBlockSize(long fileSize, int maxTmpFiles, int inFlightBlocks) throws Exception {
+        blockSize = FileSorter.getEstimatedBlockSize(fileSize, maxTmpFiles, budget, inFlightBlocks);
+        this.maxTmpFiles = maxTmpFiles;
+        this.unknownSize = fileSize == FileSorter.UNKNOWN_SIZE;
+        minBlockSize = fileSize == FileSorter.UNKNOWN_SIZE ? Math.max(1, blockSize / 4)
+                : Math.max(1, fileSize / maxTmpFiles + (fileSize % maxTmpFiles == 0 ? 0 : 1));
+        maxBlockSize = Math.max(blockSize, budget / Math.max(1, inFlightBlocks));
+        return blockSize;
+    }
+
+    /**
+    * @return The size of the next block
+    * */
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+    * Raises the smallest block size to stay within maxTmpFiles once the size of an input of unknown size can be
+    * estimated, e.g. from the compression ratio so far. Does nothing if the size was known up front.
+    *
+    * @param estimatedSize The estimated size of the input in bytes, or -1 if there is no estimate yet
+    * */
+    public synchronized void estimateInputSize(long estimatedSize) {
+        if (!unknownSize || estimatedSize <= 0) {
+            return;
+        }
+        long neededBlockSize = estimatedSize / maxTmpFiles + (estimatedSize % maxTmpFiles == 0 ? 0 : 1);
+        minBlockSize = Math.max(minBlockSize, Math.min(maxBlockSize, neededBlockSize));
+        blockSize = Math.max(blockSize, minBlockSize);
+    }
+
+    /**
+    * Tunes the block size from the heap usage after the last collection, called once a block is spilled.
+    * Does nothing unless the budget is adaptive.
+    * */
+    public synchronized void adapt() {
+        if (!adaptive || maxBlockSize == 0) {
+            return;
+        }
+        double usage = (double) getHeapUsedAfterCollection() / getMaxHeap();
+        if (usage > HIGH_HEAP_USAGE) {
+            blockSize = Math.max(minBlockSize, blockSize - blockSize / 4);
+        } else if (usage < LOW_HEAP_USAGE) {
+            blockSize = Math.min(maxBlockSize, blockSize + blockSize / 4);
+        }
+    }
+
+    /**
+    * Estimates the bytes a String takes on top of its chars: the String object with its hash and the
+    * reference to its array, plus the header of the array, each padded to 8 bytes. References and object
+    * headers are smaller on a 32 bit JVM and on a 64 bit JVM with compressed oops, the default below 32GB
+    * of heap.
+    *
+    * @return The estimated overhead in bytes
+    * */
+    static int getStringOverhead() {
+        int header = getObjectHeader(), reference = getReferenceSize();
+        return align(header + reference + 4) + align(header + 4);
+    }
+
+    /**
+    * Estimates the bytes a word of a {@link WordListBlock} takes on top of its String. While it is read, that
+    * is its entry in the hash table that drops duplicates, or its slot in the list that keeps them, with room
+    * for the table to be up to half empty. Counted words also hold a long[1]. While the block is sorted, it is
+    * a slot in the list to sort, in its array copy and in the sorted list, plus the packed prefix, the
+    * permutation and the merge buffer of {@link FileSorter#sortChunk(java.util.List, java.util.Comparator, boolean)}.
+    *
+    * @param duplicates One of the duplicate modes of {@link SortOptions#setDuplicates(String)}
+    *
+    * @return The estimated overhead in bytes
+    * */
+    static int getWordEntryOverhead(String duplicates) {
+        int header = getObjectHeader(), reference = getReferenceSize();
+        int sort = 3 * reference + 8 + 4 + 4;
+        if (SortOptions.DUPLICATES_KEEP_ALL.equals(duplicates)) {
+            return sort + 2 * reference;
+        }
+        // hash, key, value and next of a HashMap node, plus two table slots
+        int entry = align(header + 4 + 3 * reference) + 2 * reference;
+        if (SortOptions.DUPLICATES_COUNT.equals(duplicates)) {
+            entry += align(header + 4 + 8);
+        }
+        return sort + entry;
+    }
+
+    private static int getObjectHeader() {
+        return !is64Bit() ? 8 : usesCompressedOops() ? 12 : 16;
+    }
+
+    private static int getReferenceSize() {
+        return !is64Bit() || usesCompressedOops() ? 4 : 8;
+    }
+
+    private static boolean is64Bit() {
+        String dataModel = System.getProperty("sun.arch.data.model");
+        // If unknown JVM bit model, default to 64 bits
+        return dataModel == null || !dataModel.contains("32");
+    }
+
+    private static boolean usesCompressedOops() {
+        try {
+            return Boolean.parseBoolean(ManagementFactory.getPlatformMXBean(
+                    com.sun.management.HotSpotDiagnosticMXBean.class).getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException | LinkageError ex) {
+            // not a HotSpot JVM, compressed oops are the default below 32GB of heap
+            return getMaxHeap() < (32L << 30);
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static long getMaxHeap() {
+        long max = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+    private static long getHeapUsedAfterCollection() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+                continue;
+            }
+            MemoryUsage afterCollection = pool.getCollectionUsage();
+            used += afterCollection != null && afterCollection.getCommitted() > 0
+                    ? afterCollection.getUsed() : pool.getUsage().getUsed();
+        }
+        return used > 0 ? used : ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,61 @@
+package ExternalSorting;
+
+/**
+* Memory shared by the sorts of an {@link ExternalSorter}. Every sort reserves its budget for as long as it
+* runs, and waits while the pool cannot fit it, so sorts running side by side never use more than the pool
+* between them.
+* */
+public class MemoryPool {
+    private final long capacity;
+    private long available;
+
+    /**
+    * @param capacity Memory in bytes shared by every sort
+    * */
+    public MemoryPool(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid memory pool capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    /**
+    * Reserves memory, waiting until enough is released by other sorts.
+    *
+    * @param bytes Memory to reserve, at most the capacity of the pool
+    *
+    * @throws InterruptedException If interrupted while waiting
+    * */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        if (bytes <= 0 || bytes > capacity) {
+            throw new IllegalArgumentException("Cannot reserve " + bytes + " bytes from a pool of " + capacity);
+        }
+        while (available < bytes) {
+            wait();
+        }
+        available -= bytes;
+    }
+
+    /**
+    * @param bytes Memory reserved with {@link #acquire(long)} to give back
+    * */
+    public synchronized void release(long bytes) {
+        available = Math.min(capacity, available + bytes);
+        notifyAll();
+    }
+
+    /**
+    * @return Memory in bytes shared by every sort
+    * */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+    * @return Memory in bytes not reserved at the moment
+    * */
+    public synchronized long getAvailable() {
+        return available;
+    }
+}
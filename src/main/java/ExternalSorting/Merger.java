@@ -0,0 +1,50 @@
+package ExternalSorting;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+* Picks the next word across the sorted temp files during the k-way merge.
+*
+* The merge loop asks for the run holding the next word with {@link #peek()}, pops that word from it and
+* then calls {@link #advance()} so the merger can restore its order. Runs that run out of words are closed
+* by the merger.
+* */
+public interface Merger {
+    /** Binary min/max heap, about 2 log k comparisons per word. The default */
+    String HEAP = "heap";
+    /** Tournament tree of losers, log k comparisons per word */
+    String LOSER_TREE = "losertree";
+
+    /**
+    * @return The run whose current word comes next, or null once every run is exhausted
+    * */
+    CachedScanner peek();
+
+    /**
+    * Restores the order after the current word of {@link #peek()} was popped.
+    * */
+    void advance();
+
+    /**
+    * Closes all runs that are not exhausted yet.
+    * */
+    void close();
+
+    /**
+    * @param name {@link #HEAP} or {@link #LOSER_TREE}
+    * @param runs Runs to merge, empty runs are allowed
+    * @param comparator Comparator of the current words of two runs
+    *
+    * @return The merger with that name, or a {@link SingleRunMerger} if there is only one run
+    * */
+    static Merger create(String name, List<CachedScanner> runs, Comparator<CachedScanner> comparator) {
+        if (HEAP.equals(name) || LOSER_TREE.equals(name)) {
+            if (runs.size() == 1) {
+                return new SingleRunMerger(runs.get(0));
+            }
+            return HEAP.equals(name) ? new HeapMerger(runs, comparator) : new LoserTreeMerger(runs, comparator);
+        }
+        throw new IllegalArgumentException("Unknown merger: " + name);
+    }
+}
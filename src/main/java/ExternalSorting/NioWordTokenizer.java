@@ -0,0 +1,193 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+* Byte level {@link WordTokenizer} that reads a channel into a large direct buffer and splits it on
+* whitespace bytes, without any regex matching or intermediate CharBuffer decoding.
+*
+* Whitespace is every ASCII byte for which java.lang.Character#isWhitespace is true, which is what
+* java.util.Scanner splits on for ASCII text. Non ASCII whitespace (e.g. U+2003 EM SPACE) is kept as
+* part of a word, use the {@link ScannerWordTokenizer} if the input relies on it.
+* */
+public class NioWordTokenizer implements WordTokenizer {
+    private static final boolean[] WHITESPACE = new boolean[256];
+
+    static {
+        for (int b = 0; b < 128; b++) {
+            WHITESPACE[b] = Character.isWhitespace((char) b);
+        }
+    }
+
+    /**
+    * @return True if the byte is an ASCII whitespace character that words are split on
+    * */
+    static boolean isWhitespace(byte b) {
+        return WHITESPACE[b & 0xFF];
+    }
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Charset charset;
+    private byte[] word = new byte[64];
+    private String cache;
+    private boolean endOfInput;
+    private final int sourceStart;
+    private long bytesFilled;
+    private long bytesBeforeCache;
+
+    /**
+    * @param channel Channel to read from, it is closed with the tokenizer
+    * @param charset ASCII compatible charset used to decode the words
+    * @param bufferSize Size of the direct read buffer
+    * */
+    public NioWordTokenizer(ReadableByteChannel channel, Charset charset, int bufferSize) {
+        this.channel = channel;
+        this.charset = charset;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip(); // start empty, the first read fills it
+        this.sourceStart = 0;
+    }
+
+    /**
+    * Tokenizes bytes that are already in memory, e.g. a memory mapped region of a file.
+    *
+    * @param source Bytes between position and limit are tokenized
+    * @param charset ASCII compatible charset used to decode the words
+    * */
+    public NioWordTokenizer(ByteBuffer source, Charset charset) {
+        this.channel = null;
+        this.charset = charset;
+        this.buffer = source;
+        this.endOfInput = true;
+        this.sourceStart = source.position();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (cache == null) {
+            bytesBeforeCache = getBytesRead();
+            cache = readWord();
+        }
+        return cache != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String curr = cache;
+        cache = null;
+        return curr;
+    }
+
+    @Override
+    public boolean nextInto(RunBlock block) {
+        if (cache != null) {
+            block.add(next());
+            return true;
+        }
+        int length = readWordBytes();
+        if (length < 0) {
+            return false;
+        }
+        block.add(word, 0, length, charset);
+        return true;
+    }
+
+    /**
+    * A word read ahead by {@link #hasNext()} only counts once it is taken.
+    * */
+    @Override
+    public long getBytesRead() {
+        if (cache != null) {
+            return bytesBeforeCache;
+        }
+        return channel != null ? bytesFilled - buffer.remaining() : buffer.position() - sourceStart;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String readWord() {
+        int length = readWordBytes();
+        return length < 0 ? null : new String(word, 0, length, charset);
+    }
+
+    /**
+    * Skips whitespace, then copies bytes into the word buffer until the next whitespace byte or the end
+    * of the input. Words can span several buffer refills.
+    *
+    * @return The length of the word in the word buffer, or -1 at the end of the input
+    * */
+    private int readWordBytes() {
+        int length = 0;
+        boolean inWord = false;
+        while (true) {
+            int pos = buffer.position();
+            int limit = buffer.limit();
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (WHITESPACE[b & 0xFF]) {
+                    if (inWord) {
+                        buffer.position(pos + 1);
+                        return length;
+                    }
+                } else {
+                    inWord = true;
+                    if (length == word.length) {
+                        word = Arrays.copyOf(word, length * 2);
+                    }
+                    word[length++] = b;
+                }
+                pos++;
+            }
+            buffer.position(pos);
+            if (!fill()) {
+                return inWord ? length : -1;
+            }
+        }
+    }
+
+    /**
+    * Refills the buffer from the channel.
+    *
+    * @return False if the end of the input was reached
+    * */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        try {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            bytesFilled += read;
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
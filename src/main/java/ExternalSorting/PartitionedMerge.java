@@ -0,0 +1,389 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+* Final merge split into key ranges that are merged concurrently, see {@link SortOptions#getMergeThreads()}.
+*
+* Splitter words are sampled from the runs, in proportion to their size, and every run is binary searched for the
+* first word of every range: a probe at a byte offset moves to the start of the next word and compares it to the
+* splitter, so runs must be text temp files, where a word starts after any whitespace byte. Words the comparator
+* finds equal always land in the same range. Every range is then merged from its part of every run into a segment
+* file next to the runs, and the segments are appended to the output in order with FileChannel#transferTo.
+*
+* The output holds the same bytes as a serial merge with the loser tree through a {@link ChannelWordWriter}, as
+* equal words are taken from the first run first, see {@link RunMerger#ofReaders}. The heap merger takes equal
+* words in another order, so only a final pass with the loser tree is split. Every segment has to
+* wrap its lines at the same words, which needs the number of words before it. The words of every range are
+* counted from the run bytes before merging, which only gives the number of words written in the modes that write
+* every word read, so distinct and count mode, as well as a limit, are always merged serially.
+* */
+final class PartitionedMerge {
+    /** Splitter candidates sampled per range */
+    static final int SAMPLES_PER_RANGE = 16;
+    /** Bytes read by a probe at once, a longer word takes several reads */
+    private static final int PROBE_SIZE = 256;
+
+    private PartitionedMerge() {
+    }
+
+    /**
+    * @param runs Runs of the final pass
+    * @param options Options the runs were written with
+    *
+    * @return True if the runs can be merged in key ranges with the options, a single run is rather streamed
+    *         to the output by a {@link SingleRunMerger}
+    * */
+    static boolean canMerge(List<File> runs, SortOptions options) {
+        return options.getMergeThreads() > 1 && runs.size() > 1 && options.getLimit() == SortOptions.NO_LIMIT
+                && Merger.LOSER_TREE.equals(options.getMerger())
+                && RunCodec.TEXT.equals(options.getRunCodec())
+                && WordTokenizer.NIO.equals(options.getTokenizer())
+                && WordTokenizer.isAsciiCompatible(Charset.defaultCharset())
+                && (SortOptions.DUPLICATES_PER_RUN.equals(options.getDuplicates())
+                || SortOptions.DUPLICATES_KEEP_ALL.equals(options.getDuplicates()));
+    }
+
+    /**
+    * Merges the runs into the output in up to {@link SortOptions#getMergeThreads()} key ranges at once, on the
+    * executor of the options or on a pool of its own.
+    *
+    * @param comparator Comparator the runs are sorted with
+    * @param runs Runs of the final pass, see {@link #canMerge(List, SortOptions)}
+    * @param output Channel of the output, closed once the segments are appended or on failure
+    * @param wordWrap Number of words before wrapping to a new line
+    * @param options Options holding the number of ranges, merger, memory and output sync
+    *
+    * @throws IOException If unable to read a run or to write a segment or the output
+    * */
+    static void merge(Comparator<String> comparator, List<File> runs, WritableByteChannel output, int wordWrap,
+        SortOptions options) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        File tmpDirectory = runs.get(0).getAbsoluteFile().getParentFile();
+        ExecutorService executor = options.getExecutor();
+        ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(options.getMergeThreads());
+        List<Future<?>> tasks = new ArrayList<>();
+        List<File> segments = new ArrayList<>();
+        try {
+            options.getMetrics().tempFilesRead(runs);
+            List<String> splitters = sampleSplitters(comparator, runs, options.getMergeThreads(), charset);
+            int ranges = splitters.size() + 1;
+
+            // The first word of every range in every run, and the number of words of every range in every run
+            long[][] bounds = new long[runs.size()][];
+            long[][] words = new long[runs.size()][];
+            for (int r = 0; r < runs.size(); r++) {
+                int run = r;
+                tasks.add(pool.submit(() -> {
+                    try (FileChannel channel = FileChannel.open(runs.get(run).toPath(), StandardOpenOption.READ)) {
+                        bounds[run] = findBounds(channel, splitters, comparator, charset);
+                        words[run] = countWords(channel, bounds[run]);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(tasks);
+            tasks.clear();
+
+            int bufferSize = options.getRunBufferSize(ranges * runs.size());
+            long firstWordIndex = 0;
+            for (int j = 0; j < ranges; j++) {
+                File segment = File.createTempFile("segment", ".tmp", tmpDirectory);
+                segments.add(segment);
+                int range = j;
+                long rangeFirstWordIndex = firstWordIndex;
+                tasks.add(pool.submit(() -> {
+                    mergeRange(comparator, runs, bounds, range, segment, wordWrap, rangeFirstWordIndex, bufferSize,
+                            charset, options);
+                    return null;
+                }));
+                for (long[] runWords : words) {
+                    firstWordIndex += runWords[j];
+                }
+            }
+            awaitAll(tasks);
+
+            for (File segment : segments) {
+                try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, output);
+                    }
+                }
+                segment.delete();
+            }
+            if (!SortOptions.SYNC_NONE.equals(options.getOutputSync()) && output instanceof FileChannel) {
+                ((FileChannel) output).force(true);
+            }
+        } finally {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            if (executor == null) {
+                pool.shutdownNow();
+            }
+            for (File segment : segments) {
+                segment.delete();
+            }
+            output.close();
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> tasks) throws IOException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while merging", ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                } else if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IOException("Unable to merge a range", ex.getCause());
+            }
+        }
+    }
+
+    /**
+    * Merges the part of every run within one key range into a segment file.
+    * */
+    private static void mergeRange(Comparator<String> comparator, List<File> runs, long[][] bounds, int range,
+        File segment, int wordWrap, long firstWordIndex, int bufferSize, Charset charset, SortOptions options)
+        throws IOException {
+        List<WordTokenizer> readers = new ArrayList<>();
+        WordSink sink = new ChannelWordWriter(FileChannel.open(segment.toPath(), StandardOpenOption.WRITE),
+                charset, wordWrap, SortOptions.SYNC_NONE, ChannelWordWriter.OUTPUT_BUFFER_SIZE, firstWordIndex);
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                long start = bounds[r][range];
+                long end = bounds[r][range + 1];
+                // empty ranges keep their place, equal words are merged in run order
+                readers.add(start < end
+                        ? new NioWordTokenizer(openRange(runs.get(r), start, end), charset, bufferSize) : null);
+            }
+        } catch (IOException | RuntimeException ex) {
+            for (WordTokenizer reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            sink.close();
+            throw ex;
+        }
+        try (RunMerger merger = RunMerger.ofReaders(comparator, readers, sink, options)) {
+            while (merger.mergeNext()) {
+                // every call writes one word to the segment
+            }
+        }
+    }
+
+    /**
+    * Samples words from the runs, more from larger runs, and picks splitters that cut them into equal ranges.
+    * Splitters the comparator finds equal are only kept once, so there may be fewer ranges than asked for.
+    *
+    * @return The first word of every range but the first, in order
+    * */
+    static List<String> sampleSplitters(Comparator<String> comparator, List<File> runs, int ranges, Charset charset)
+        throws IOException {
+        long totalSize = 0;
+        for (File run : runs) {
+            totalSize += run.length();
+        }
+        List<String> samples = new ArrayList<>();
+        int wanted = ranges * SAMPLES_PER_RANGE;
+        for (File run : runs) {
+            long size = run.length();
+            if (size == 0) {
+                continue;
+            }
+            int count = (int) Math.max(1, wanted * size / Math.max(1, totalSize));
+            try (FileChannel channel = FileChannel.open(run.toPath(), StandardOpenOption.READ)) {
+                for (int i = 0; i < count; i++) {
+                    Word word = wordAt(channel, size * i / count, charset);
+                    if (word != null) {
+                        samples.add(word.text);
+                    }
+                }
+            }
+        }
+        samples.sort(comparator);
+        List<String> splitters = new ArrayList<>();
+        for (int i = 1; i < ranges && !samples.isEmpty(); i++) {
+            String splitter = samples.get(i * samples.size() / ranges);
+            if (splitters.isEmpty() || comparator.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+                splitters.add(splitter);
+            }
+        }
+        return splitters;
+    }
+
+    /**
+    * Binary searches a run for the first word of every range.
+    *
+    * @return The offset of the first word of every range, followed by the size of the run
+    * */
+    static long[] findBounds(FileChannel channel, List<String> splitters, Comparator<String> comparator,
+        Charset charset) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[splitters.size() + 2];
+        bounds[bounds.length - 1] = size;
+        for (int j = 0; j < splitters.size(); j++) {
+            // the first offset whose next word is not before the splitter, ranges never go backwards
+            long low = bounds[j];
+            long high = size;
+            long bound = size;
+            while (low < high) {
+                long mid = low + (high - low) / 2;
+                Word word = wordAt(channel, mid, charset);
+                if (word == null || comparator.compare(word.text, splitters.get(j)) >= 0) {
+                    high = mid;
+                    bound = word == null ? size : word.start;
+                } else {
+                    low = word.start + 1;
+                }
+            }
+            bounds[j + 1] = bound;
+        }
+        return bounds;
+    }
+
+    /**
+    * Counts the words of a run in every range, in one sequential read.
+    * */
+    private static long[] countWords(FileChannel channel, long[] bounds) throws IOException {
+        long[] words = new long[bounds.length - 1];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WordTokenizer.RUN_BUFFER_SIZE);
+        boolean inWord = false;
+        int range = 0;
+        long position = 0;
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                boolean whitespace = NioWordTokenizer.isWhitespace(buffer.get());
+                if (!whitespace && !inWord) {
+                    // ranges start at a word, so a word belongs to the range its first byte is in
+                    while (position >= bounds[range + 1]) {
+                        range++;
+                    }
+                    words[range]++;
+                }
+                inWord = !whitespace;
+                position++;
+            }
+            buffer.clear();
+        }
+        return words;
+    }
+
+    /**
+    * @return The first word starting at or after the position, or null if there is none
+    * */
+    static Word wordAt(FileChannel channel, long position, Charset charset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PROBE_SIZE);
+        // a word starts at the position only if the byte before is whitespace
+        long start = position;
+        boolean skipping = position > 0 && !isWhitespaceAt(channel, position - 1);
+        byte[] word = new byte[PROBE_SIZE];
+        int length = 0;
+        long read = position;
+        while (true) {
+            buffer.clear();
+            int count = channel.read(buffer, read);
+            if (count <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                boolean whitespace = NioWordTokenizer.isWhitespace(b);
+                if (skipping) {
+                    skipping = !whitespace;
+                    start++;
+                } else if (whitespace) {
+                    if (length > 0) {
+                        return new Word(start, new String(word, 0, length, charset));
+                    }
+                    start++;
+                } else {
+                    if (length == word.length) {
+                        word = Arrays.copyOf(word, 2 * length);
+                    }
+                    word[length++] = b;
+                }
+            }
+            read += count;
+        }
+        return length > 0 ? new Word(start, new String(word, 0, length, charset)) : null;
+    }
+
+    private static boolean isWhitespaceAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer single = ByteBuffer.allocate(1);
+        return channel.read(single, position) <= 0 || NioWordTokenizer.isWhitespace(single.get(0));
+    }
+
+    /**
+    * Channel over a byte range of a run.
+    * */
+    private static ReadableByteChannel openRange(File run, long start, long end) throws IOException {
+        FileChannel channel = new FileInputStream(run).getChannel();
+        channel.position(start);
+        return new ReadableByteChannel() {
+            private long remaining = end - start;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                ByteBuffer limited = dst.duplicate();
+                limited.limit(limited.position() + (int) Math.min(dst.remaining(), remaining));
+                int read = channel.read(limited);
+                if (read > 0) {
+                    dst.position(dst.position() + read);
+                    remaining -= read;
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+    * A word of a run and the offset it starts at.
+    * */
+    static final class Word {
+        final long start;
+        final String text;
+
+        Word(long start, String text) {
+            this.start = start;
+            this.text = text;
+        }
+    }
+}
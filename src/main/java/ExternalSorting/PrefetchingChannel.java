@@ -0,0 +1,109 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+* Double buffered channel that reads ahead on an I/O executor.
+*
+* While the reader (usually a {@link NioWordTokenizer}) works through the bytes it was last given, the next
+* buffer is already being filled in the background. With many sorted temp files merged at once this turns
+* the small interleaved reads of every temp file into large sequential ones that overlap with the merge.
+* */
+class PrefetchingChannel implements ReadableByteChannel {
+    private final ReadableByteChannel channel;
+    private final ExecutorService ioExecutor;
+    private final ByteBuffer buffer;
+    private Future<Integer> pending;
+    private boolean endOfInput;
+    private boolean open = true;
+
+    /**
+    * @param channel Channel to read ahead from, it is closed with this channel
+    * @param bufferSize Size of the read ahead buffer
+    * @param ioExecutor Executor that fills the read ahead buffer
+    * */
+    PrefetchingChannel(ReadableByteChannel channel, int bufferSize, ExecutorService ioExecutor) {
+        this.channel = channel;
+        this.ioExecutor = ioExecutor;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        prefetch();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (pending != null && awaitPrefetch() < 0) {
+            endOfInput = true;
+        }
+        if (!buffer.hasRemaining()) {
+            return endOfInput ? -1 : 0;
+        }
+        int count = Math.min(dst.remaining(), buffer.remaining());
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        buffer.position(buffer.position() + count);
+        if (!buffer.hasRemaining() && !endOfInput) {
+            // the reader now holds the last bytes, fill the buffer again while it works through them
+            prefetch();
+        }
+        return count;
+    }
+
+    private void prefetch() {
+        buffer.clear();
+        pending = ioExecutor.submit(() -> {
+            int total = 0;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += read;
+            }
+            return total;
+        });
+    }
+
+    private int awaitPrefetch() throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unable to read ahead", ex.getCause());
+        } finally {
+            pending = null;
+            buffer.flip();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        try {
+            // let a read in progress finish, so it does not fail on a closed channel
+            if (pending != null) {
+                awaitPrefetch();
+            }
+        } catch (IOException ignored) {
+            // the words are not needed anymore
+        } finally {
+            channel.close();
+        }
+    }
+}
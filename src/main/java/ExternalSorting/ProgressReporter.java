@@ -0,0 +1,35 @@
+package ExternalSorting;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Reports the progress of a sort to the listeners of its {@link SortMetrics} at a fixed interval, on a
+* daemon thread of its own, until closed.
+* */
+public class ProgressReporter implements Closeable {
+    private final ScheduledExecutorService scheduler;
+
+    /**
+    * @param metrics The metrics of the sort
+    * @param intervalMillis Time between two reports
+    * */
+    public ProgressReporter(SortMetrics metrics, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid progress interval: " + intervalMillis);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sort-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(metrics::reportProgress, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
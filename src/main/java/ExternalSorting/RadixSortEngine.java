@@ -0,0 +1,199 @@
+package ExternalSorting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* Stable MSD (most significant digit first) radix sort for chunks of words.
+*
+* Instead of calling a comparator O(n log n) times, the words are distributed into 256 buckets by
+* their first byte, then each bucket by the second byte and so on, each pass being a sequential
+* counting pass. Small buckets are finished with a comparison sort. A word that ends goes into its own
+* bucket, first in ascending order and last in descending order, which gives the same order as
+* String#compareTo. Equal words keep their input order in both directions, just like with TimSort.
+*
+* Words are sorted by the chars of their case folded key, two bytes per char, so it only applies to
+* the case sensitive and case insensitive {@link WordOrdering}s. Any other comparator, e.g. a locale
+* collation, falls back to the TimSort engine.
+* */
+public class RadixSortEngine implements ChunkSortEngine {
+    private static final int RADIX = 256;
+    private static final int SMALL_BUCKET_THRESHOLD = 24;
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+    /** Beyond this many digits of common prefix, buckets are finished with a merge sort instead of recursing */
+    private static final int MAX_DEPTH = 1 << 10;
+
+    /**
+    * The digits of the items being sorted.
+    * */
+    interface Digits {
+        /**
+        * @return The number of digits of an item
+        * */
+        int length(int item);
+
+        /**
+        * @return Digit d of an item, between 0 and 255, with d less than the length of the item
+        * */
+        int digitAt(int item, int d);
+    }
+
+    @Override
+    public List<String> sort(List<String> unsortedLineChunk, Comparator<String> comparator, boolean parallelSort) {
+        if (!(comparator instanceof WordOrdering.CaseFolded)) {
+            return FileSorter.sortChunk(unsortedLineChunk, comparator, parallelSort);
+        }
+        WordOrdering.CaseFolded ordering = (WordOrdering.CaseFolded) comparator;
+        String[] words = unsortedLineChunk.toArray(new String[0]);
+        String[] keys = new String[words.length];
+        int[] items = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            keys[i] = ordering.fold(words[i]);
+            items[i] = i;
+        }
+        sort(items, new Digits() {
+            @Override
+            public int length(int item) {
+                return keys[item].length() * 2;
+            }
+
+            @Override
+            public int digitAt(int item, int d) {
+                char c = keys[item].charAt(d >> 1);
+                return (d & 1) == 0 ? c >>> 8 : c & 0xFF;
+            }
+        }, ordering.isDescending(), parallelSort);
+
+        List<String> sortedLineChunk = new ArrayList<>(words.length);
+        for (int item : items) {
+            sortedLineChunk.add(words[item]);
+        }
+        return sortedLineChunk;
+    }
+
+    /**
+    * Sorts item numbers by their digits.
+    *
+    * @param items Item numbers to sort in place
+    * @param digits Digits of the items
+    * @param descending True to sort from largest to smallest
+    * @param parallelSort True to sort large buckets on the common fork join pool
+    * */
+    static void sort(int[] items, Digits digits, boolean descending, boolean parallelSort) {
+        int[] aux = new int[items.length];
+        if (parallelSort && items.length > PARALLEL_SORT_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new BucketTask(items, aux, 0, items.length, 0, digits, descending));
+        } else {
+            sort(items, aux, 0, items.length, 0, digits, descending);
+        }
+    }
+
+    private static void sort(int[] items, int[] aux, int lo, int hi, int d, Digits digits, boolean descending) {
+        if (hi - lo <= SMALL_BUCKET_THRESHOLD || d >= MAX_DEPTH) {
+            finish(items, aux, lo, hi, d, digits, descending);
+            return;
+        }
+        int[] count = distribute(items, aux, lo, hi, d, digits, descending);
+        int endOfWord = descending ? RADIX : 0;
+        for (int r = 0; r <= RADIX; r++) {
+            if (r != endOfWord && count[r + 1] - count[r] > 1) {
+                sort(items, aux, lo + count[r], lo + count[r + 1], d + 1, digits, descending);
+            }
+        }
+    }
+
+    /**
+    * Counting sort of items[lo, hi) by digit d.
+    *
+    * @return The bucket boundaries, bucket r spans [lo + count[r], lo + count[r + 1])
+    * */
+    private static int[] distribute(int[] items, int[] aux, int lo, int hi, int d, Digits digits,
+        boolean descending) {
+        int[] count = new int[RADIX + 2];
+        for (int i = lo; i < hi; i++) {
+            count[bucket(items[i], d, digits, descending) + 1]++;
+        }
+        boolean singleBucket = false;
+        for (int r = 0; r <= RADIX; r++) {
+            singleBucket |= count[r + 1] == hi - lo;
+            count[r + 1] += count[r];
+        }
+        if (!singleBucket) { // e.g. the high byte of ASCII chars, nothing to move
+            int[] next = count.clone();
+            for (int i = lo; i < hi; i++) {
+                aux[lo + next[bucket(items[i], d, digits, descending)]++] = items[i];
+            }
+            System.arraycopy(aux, lo, items, lo, hi - lo);
+        }
+        return count;
+    }
+
+    private static int bucket(int item, int d, Digits digits, boolean descending) {
+        if (d >= digits.length(item)) {
+            return descending ? RADIX : 0;
+        }
+        int digit = digits.digitAt(item, d);
+        return descending ? RADIX - 1 - digit : digit + 1;
+    }
+
+    /**
+    * Finishes a small bucket, or one whose items share a very long prefix, by comparing the remaining digits.
+    * */
+    private static void finish(int[] items, int[] aux, int lo, int hi, int d, Digits digits, boolean descending) {
+        RunBuffer.EntryComparator comparator = (a, b) -> {
+            int lengthA = digits.length(a), lengthB = digits.length(b);
+            int length = Math.min(lengthA, lengthB);
+            for (int i = d; i < length; i++) {
+                int cmp = digits.digitAt(a, i) - digits.digitAt(b, i);
+                if (cmp != 0) {
+                    return descending ? -cmp : cmp;
+                }
+            }
+            return descending ? lengthB - lengthA : lengthA - lengthB;
+        };
+        RunBuffer.mergeSort(items, aux, lo, hi, comparator);
+    }
+
+    /**
+    * Distributes a bucket and sorts its sub buckets in parallel.
+    * */
+    private static class BucketTask extends RecursiveAction {
+        private final int[] items;
+        private final int[] aux;
+        private final int lo;
+        private final int hi;
+        private final int d;
+        private final Digits digits;
+        private final boolean descending;
+
+        BucketTask(int[] items, int[] aux, int lo, int hi, int d, Digits digits, boolean descending) {
+            this.items = items;
+            this.aux = aux;
+            this.lo = lo;
+            this.hi = hi;
+            this.d = d;
+            this.digits = digits;
+            this.descending = descending;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= PARALLEL_SORT_THRESHOLD || d >= MAX_DEPTH) {
+                sort(items, aux, lo, hi, d, digits, descending);
+                return;
+            }
+            int[] count = distribute(items, aux, lo, hi, d, digits, descending);
+            int endOfWord = descending ? RADIX : 0;
+            List<BucketTask> tasks = new ArrayList<>();
+            for (int r = 0; r <= RADIX; r++) {
+                if (r != endOfWord && count[r + 1] - count[r] > 1) {
+                    tasks.add(new BucketTask(items, aux, lo + count[r], lo + count[r + 1], d + 1, digits, descending));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+}
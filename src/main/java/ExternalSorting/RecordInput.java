@@ -0,0 +1,85 @@
+package ExternalSorting;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+* Buffered reader of the varints and raw bytes written by {@link RecordOutput}.
+* */
+class RecordInput {
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+    * @param in Stream to read from, closed with this input
+    * @param bufferSize Size of the read buffer
+    * */
+    RecordInput(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+    * @return True if the end of the stream has been reached
+    * */
+    boolean isAtEnd() throws IOException {
+        return position == limit && !fill();
+    }
+
+    int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt temp file, varint too long");
+    }
+
+    long readLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (readByte() & 0xFF);
+        }
+        return value;
+    }
+
+    byte readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException("Truncated temp file");
+        }
+        return buffer[position++];
+    }
+
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Truncated temp file");
+            }
+            int count = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+}
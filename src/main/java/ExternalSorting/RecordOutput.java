@@ -0,0 +1,76 @@
+package ExternalSorting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+* Buffered writer of the varints and raw bytes that binary temp files are made of. Records are encoded
+* into a local array that is written to the stream when full, so no call is synchronized per byte.
+* */
+class RecordOutput {
+    private final OutputStream out;
+    private byte[] buffer = new byte[1 << 16];
+    private int position;
+
+    /**
+    * @param out Stream to write to, closed with this output
+    * */
+    RecordOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+    * Makes room for a record, so the put methods never check the capacity themselves.
+    *
+    * @param bytes Maximum number of bytes the next record takes
+    * */
+    void ensureCapacity(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flush();
+            if (bytes > buffer.length) {
+                buffer = new byte[bytes];
+            }
+        }
+    }
+
+    /**
+    * Writes an unsigned varint of at most 5 bytes.
+    * */
+    void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+    * Writes a long in 8 bytes, most significant first.
+    * */
+    void putLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    void put(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+    }
+
+    /**
+    * Writes the buffered records to the stream, without flushing the stream itself.
+    * */
+    void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+* Replacement selection run generation: instead of cutting the input into blocks that are sorted one by one,
+* words are kept in a heap and the smallest one is written to the current temp file as soon as the next word
+* is read. A word that still sorts after the last word written joins the current temp file, any other word is
+* held back for the next one.
+*
+* On random input the temp files come out about twice the memory used, and already (nearly) sorted input
+* becomes a single temp file, so there is less to merge. Like the blocks, every temp file only holds each
+* distinct word once, unless all duplicates are kept, or each distinct word once with its count.
+*
+* Sorting and writing are interleaved, so the metrics get the time from the first word of a temp file to its
+* last as sort time, and only the time to close it as write time.
+* */
+class ReplacementSelection {
+    private final Comparator<String> comparator;
+    private final WordOrdering ordering;
+    private final PriorityQueue<Entry> heap;
+    private final String duplicates;
+    private final SortMetrics metrics;
+    private long wordsRead;
+    private long reportedWords;
+    private long reportedBytes;
+
+    /**
+    * @param comparator Comparator used to sort the words
+    * */
+    ReplacementSelection(Comparator<String> comparator) {
+        this(comparator, SortOptions.DUPLICATES_PER_RUN, new SortMetrics());
+    }
+
+    /**
+    * @param comparator Comparator used to sort the words
+    * @param duplicates One of the duplicate modes of {@link SortOptions#setDuplicates(String)}
+    * @param metrics Metrics the words read and the temp files are reported to
+    * */
+    ReplacementSelection(Comparator<String> comparator, String duplicates, SortMetrics metrics) {
+        this.comparator = comparator;
+        this.duplicates = duplicates;
+        this.metrics = metrics;
+        this.ordering = comparator instanceof WordOrdering ? (WordOrdering) comparator : null;
+        this.heap = new PriorityQueue<>(this::compare);
+    }
+
+    /**
+    * Reads the whole tokenizer into sorted temp files.
+    *
+    * @param fileScanner Tokenizer for the input, it is closed once the input is read
+    * @param maxMemory Estimated memory the heap may hold
+    * @param tmpDirectory Directory to place the temp files
+    * @param codec Codec used to write the temp files
+    *
+    * @return The sorted temp files, in the order they were written
+    *
+    * @throws IOException If unable to save a temp file
+    * */
+    List<File> writeRuns(WordTokenizer fileScanner, long maxMemory, File tmpDirectory, RunCodec codec)
+        throws IOException {
+        List<File> files = new ArrayList<>();
+        RunWriter runWriter = null;
+        WordSink run = null;
+        long runStart = 0;
+        try {
+            long memory = 0;
+            while (memory < maxMemory && fileScanner.hasNext()) {
+                Entry entry = newEntry(readWord(fileScanner), 0);
+                heap.add(entry);
+                memory += entry.size;
+            }
+            int currentRun = 0;
+            Entry last = null;
+            while (!heap.isEmpty()) {
+                Entry entry = heap.poll();
+                memory -= entry.size;
+                if (runWriter == null || entry.run != currentRun) {
+                    if (runWriter != null) {
+                        closeRun(run, runWriter, runStart, files);
+                    }
+                    runStart = System.nanoTime();
+                    runWriter = new RunWriter(tmpDirectory, codec);
+                    run = newRunSink(runWriter);
+                    currentRun = entry.run;
+                }
+                run.write(entry.word);
+                last = entry;
+                // refill the freed memory, words sorting before the last one written wait for the next run
+                while (memory < maxMemory && fileScanner.hasNext()) {
+                    String word = readWord(fileScanner);
+                    Entry next = newEntry(word, currentRun);
+                    if (compareWords(next, last) < 0) {
+                        next.run = currentRun + 1;
+                    }
+                    heap.add(next);
+                    memory += next.size;
+                }
+            }
+            reportInput(fileScanner);
+            if (runWriter != null) {
+                closeRun(run, runWriter, runStart, files);
+                runWriter = null;
+            }
+        } finally {
+            fileScanner.close();
+            if (runWriter != null) {
+                run.close();
+            }
+        }
+        return files;
+    }
+
+    private String readWord(WordTokenizer fileScanner) {
+        String word = fileScanner.next();
+        if (++wordsRead - reportedWords == FileSorter.METRICS_BATCH) {
+            reportInput(fileScanner);
+        }
+        return word;
+    }
+
+    private void reportInput(WordTokenizer fileScanner) {
+        long bytes = Math.max(0, fileScanner.getBytesRead());
+        metrics.inputRead(wordsRead - reportedWords, bytes - reportedBytes);
+        reportedWords = wordsRead;
+        reportedBytes = bytes;
+    }
+
+    private Entry newEntry(String word, int run) {
+        SortKey key = ordering != null ? ordering.keyOf(word) : null;
+        // estimated like the words of a block, plus the key if it is not the word itself
+        long size = FileSorter.getEstimatedStringSize(word);
+        if (key != null && key.getKey() != word) {
+            size += FileSorter.getEstimatedStringSize(word);
+        }
+        return new Entry(word, key, run, size);
+    }
+
+    /**
+    * Words that are equal according to the comparator come out of the heap next to each other, so a
+    * {@link DuplicateFilter} in front of the temp file can skip or count the exact duplicates among them.
+    * */
+    private WordSink newRunSink(RunWriter runWriter) {
+        if (SortOptions.DUPLICATES_KEEP_ALL.equals(duplicates)) {
+            return runWriter;
+        }
+        return new DuplicateFilter(runWriter, comparator, SortOptions.DUPLICATES_COUNT.equals(duplicates)
+                ? DuplicateFilter.CountFormat.TOKEN : DuplicateFilter.CountFormat.NONE);
+    }
+
+    private void closeRun(WordSink run, RunWriter runWriter, long runStart, List<File> files) throws IOException {
+        long closeStart = System.nanoTime();
+        run.close();
+        metrics.runCreated(runWriter.getFile(), closeStart - runStart, System.nanoTime() - closeStart);
+        files.add(runWriter.getFile());
+        Log.info("Temp file : " + runWriter.getFile().toString() + " created successfully.");
+    }
+
+    private int compare(Entry a, Entry b) {
+        int cmp = Integer.compare(a.run, b.run);
+        return cmp != 0 ? cmp : compareWords(a, b);
+    }
+
+    private int compareWords(Entry a, Entry b) {
+        return ordering != null ? ordering.compareKeys(a.key, b.key) : comparator.compare(a.word, b.word);
+    }
+
+    private static final class Entry {
+        private final String word;
+        private final SortKey key;
+        private final long size;
+        private int run;
+
+        private Entry(String word, SortKey key, int run, long size) {
+            this.word = word;
+            this.key = key;
+            this.run = run;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Comparator;
+
+/**
+* A block of words read into memory during run generation, which is sorted and then saved as a
+* sorted temp file. Words are added until {@link #sizeInBytes()} reaches the block size.
+* */
+public interface RunBlock {
+    /**
+    * Adds a word to the block.
+    *
+    * @param word The word
+    * */
+    void add(String word);
+
+    /**
+    * Adds a word that is still encoded. Blocks that store words as bytes override this to avoid
+    * decoding the word at all.
+    *
+    * @param bytes Buffer holding the encoded word
+    * @param offset Offset of the word in the buffer
+    * @param length Length of the word in bytes
+    * @param charset Charset the word is encoded in
+    * */
+    default void add(byte[] bytes, int offset, int length, Charset charset) {
+        add(new String(bytes, offset, length, charset));
+    }
+
+    /**
+    * @return The estimated number of bytes of memory retained by the block
+    * */
+    long sizeInBytes();
+
+    /**
+    * @return True if the block cannot take more words whatever the block size, e.g. because its arrays reached
+    *         the largest length of a Java array, so it has to be spilled
+    * */
+    default boolean isFull() {
+        return false;
+    }
+
+    /**
+    * @return The number of words {@link #writeTo(WordSink)} writes, i.e. the distinct words unless duplicates
+    *         are kept, not counting the counts of a counted block
+    * */
+    int size();
+
+    /**
+    * Sorts the block in memory.
+    *
+    * @param comparator Comparator used to sort the words
+    * @param options Options selecting the sort engine and whether to sort in parallel
+    * */
+    void sort(Comparator<String> comparator, SortOptions options);
+
+    /**
+    * Saves the sorted block to a new temp file, one word per line.
+    *
+    * @param tmpDirectory Directory to save the sorted temp file
+    *
+    * @return The sorted temp file
+    *
+    * @throws IOException If unable to write the temp file
+    * */
+    File save(File tmpDirectory) throws IOException;
+
+    /**
+    * Writes the sorted words of the block to a sink, in order.
+    *
+    * @param sink Sink to write the words to, left open
+    *
+    * @throws IOException If unable to write
+    * */
+    void writeTo(WordSink sink) throws IOException;
+
+    /**
+    * Saves the sorted block to a new temp file with a run codec.
+    *
+    * @param tmpDirectory Directory to save the sorted temp file
+    * @param codec Codec used to lay out the words
+    *
+    * @return The sorted temp file
+    *
+    * @throws IOException If unable to write the temp file
+    * */
+    default File save(File tmpDirectory, RunCodec codec) throws IOException {
+        if (codec instanceof TextRunCodec) {
+            return save(tmpDirectory);
+        }
+        try (RunWriter runWriter = new RunWriter(tmpDirectory, codec)) {
+            writeTo(runWriter);
+            return runWriter.getFile();
+        }
+    }
+}
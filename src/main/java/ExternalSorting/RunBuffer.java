@@ -0,0 +1,482 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* A packed {@link RunBlock} that keeps the encoded bytes of all distinct words in one large byte array.
+*
+* Every word costs its encoded bytes plus {@link #ENTRY_OVERHEAD} bytes of index, hash table and sort
+* arrays, instead of a String object, its char/byte array, a HashSet entry and a list slot. The index
+* entries (offset, length and an ASCII flag packed into a long) are deduplicated through an open
+* addressing hash table and sorted as an int permutation, so no objects are created per word.
+* Depending on the duplicate mode, the hash table is skipped to keep every word, or it counts the
+* occurrences of every distinct word, which are then written after the word.
+*
+* Sorting compares the raw bytes when the comparator is a case sensitive or case insensitive
+* {@link WordOrdering} and both words are ASCII, which for those orderings gives the same result as
+* comparing the strings. Any other pair of words is decoded and compared with the comparator.
+* */
+public class RunBuffer implements RunBlock {
+    /** Bytes per word besides the word itself: index, prefix, hash slots, permutation and merge buffer */
+    public static final int ENTRY_OVERHEAD = 8 + 8 + 8 + 4 + 4;
+    /** Bytes of words after which the buffer is full, well below the largest array so the last word still fits */
+    public static final int MAX_ARENA_SIZE = 1 << 30;
+    /** Words after which the buffer is full, so the hash table never has to double past 2^28 slots */
+    public static final int MAX_WORDS = 1 << 27;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final long ASCII_FLAG = 1L << 31;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+
+    private final Charset charset;
+    private byte[] arena = new byte[1 << 12];
+    private int arenaSize;
+    private long[] index = new long[1 << 6];
+    private int count;
+    private boolean allAscii = true;
+    private int[] table = new int[1 << 7];
+    private int[] order;
+    private final boolean keepAll;
+    private long[] counts;
+    private final int maxArenaSize;
+    private final int maxWords;
+
+    /**
+    * @param charset ASCII compatible charset the words are encoded in, also used to write them
+    * */
+    public RunBuffer(Charset charset) {
+        this(charset, SortOptions.DUPLICATES_PER_RUN);
+    }
+
+    /**
+    * @param charset ASCII compatible charset the words are encoded in, also used to write them
+    * @param duplicates One of the duplicate modes of {@link SortOptions#setDuplicates(String)}
+    * */
+    public RunBuffer(Charset charset, String duplicates) {
+        this(charset, duplicates, MAX_ARENA_SIZE, MAX_WORDS);
+    }
+
+    /**
+    * @param maxArenaSize Bytes of words after which the buffer is full
+    * @param maxWords Words after which the buffer is full
+    * */
+    RunBuffer(Charset charset, String duplicates, int maxArenaSize, int maxWords) {
+        this.charset = charset;
+        this.maxArenaSize = maxArenaSize;
+        this.maxWords = maxWords;
+        this.keepAll = SortOptions.DUPLICATES_KEEP_ALL.equals(duplicates);
+        if (keepAll) {
+            table = null;
+        } else if (SortOptions.DUPLICATES_COUNT.equals(duplicates)) {
+            counts = new long[index.length];
+        }
+    }
+
+    /**
+    * @return The number of distinct words in the buffer, or of all words if duplicates are kept
+    * */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+    * @param i Index of a word, in insertion order or in sorted order after {@link #sort(Comparator, boolean)}
+    *
+    * @return The decoded word
+    * */
+    public String get(int i) {
+        return decode(order != null ? order[i] : i);
+    }
+
+    @Override
+    public void add(String word) {
+        byte[] bytes = word.getBytes(charset);
+        add(bytes, 0, bytes.length, charset);
+    }
+
+    @Override
+    public void add(byte[] bytes, int offset, int length, Charset charset) {
+        int slot = -1;
+        if (!keepAll) {
+            int mask = table.length - 1;
+            slot = hash(bytes, offset, length) & mask;
+            // linear probing, a slot holds the entry number plus one so that zero means empty
+            while (table[slot] != 0) {
+                long entry = index[table[slot] - 1];
+                if (length(entry) == length && equals(bytes, offset, offset(entry), length)) {
+                    if (counts != null) {
+                        counts[table[slot] - 1]++;
+                    }
+                    return; // duplicate
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        boolean ascii = true;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        allAscii &= ascii;
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, arena, arenaSize, length);
+        index[count] = ((long) arenaSize << 32) | (ascii ? ASCII_FLAG : 0) | length;
+        if (counts != null) {
+            counts[count] = 1;
+        }
+        arenaSize += length;
+        count++;
+        if (!keepAll) {
+            table[slot] = count;
+            if (count * 2 > table.length) {
+                rehash();
+            }
+        }
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return arena.length + (long) index.length * 8 + (table != null ? (long) table.length * 4 : 0)
+                + (counts != null ? (long) counts.length * 8 : 0) + (long) count * (8 + 4 + 4);
+    }
+
+    /**
+    * @return True once the words reach {@link #MAX_ARENA_SIZE} bytes or there are {@link #MAX_WORDS} of them,
+    *         whatever the block size, so a large memory budget spills the buffer instead of overflowing its arrays
+    * */
+    @Override
+    public boolean isFull() {
+        return arenaSize >= maxArenaSize || count >= maxWords;
+    }
+
+    /**
+    * Sorts the buffer with the default TimSort engine.
+    *
+    * @param comparator Comparator used to sort the words
+    * @param parallelSort True to sort using the common fork join pool
+    * */
+    public void sort(Comparator<String> comparator, boolean parallelSort) {
+        sort(comparator, new SortOptions().setParallelSort(parallelSort));
+    }
+
+    /**
+    * Sorts the buffer. The TimSort engine sorts the permutation with a stable merge sort. The radix engine
+    * distributes it by the (case folded) bytes of the words, as long as all of them are ASCII and the
+    * comparator is a case sensitive or case insensitive {@link WordOrdering}, and otherwise falls back to
+    * the merge sort.
+    * */
+    @Override
+    public void sort(Comparator<String> comparator, SortOptions options) {
+        boolean parallelSort = options.isParallelSort();
+        table = null; // deduplication is over, free the hash table for the sort arrays
+        order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        if (ChunkSortEngine.RADIX.equals(options.getSortEngine()) && allAscii && canFoldAscii(comparator)) {
+            WordOrdering.CaseFolded ordering = (WordOrdering.CaseFolded) comparator;
+            boolean ignoreCase = ordering.isIgnoreCase();
+            RadixSortEngine.sort(order, new RadixSortEngine.Digits() {
+                @Override
+                public int length(int item) {
+                    return RunBuffer.length(index[item]);
+                }
+
+                @Override
+                public int digitAt(int item, int d) {
+                    int b = arena[offset(index[item]) + d];
+                    return ignoreCase ? toLowerCase(b) : b;
+                }
+            }, ordering.isDescending(), parallelSort);
+            return;
+        }
+        sort(order, entryComparator(comparator), parallelSort);
+    }
+
+    @Override
+    public File save(File tmpDirectory) throws IOException {
+        File newTempFile = File.createTempFile("sorted", ".txt", tmpDirectory);
+        newTempFile.deleteOnExit();
+        byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(newTempFile), 1 << 16)) {
+            for (int i = 0; i < count; i++) {
+                int entryNumber = order != null ? order[i] : i;
+                long entry = index[entryNumber];
+                out.write(arena, offset(entry), length(entry));
+                out.write(lineSeparator);
+                if (counts != null) {
+                    out.write(Long.toString(counts[entryNumber]).getBytes(charset));
+                    out.write(lineSeparator);
+                }
+            }
+        }
+        return newTempFile;
+    }
+
+    @Override
+    public void writeTo(WordSink sink) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int entryNumber = order != null ? order[i] : i;
+            long entry = index[entryNumber];
+            sink.write(arena, offset(entry), length(entry), charset);
+            if (counts != null) {
+                sink.write(Long.toString(counts[entryNumber]));
+            }
+        }
+    }
+
+    /**
+    * Compares two entries by number, also used by the {@link RadixSortEngine} to compare items.
+    * */
+    interface EntryComparator {
+        int compare(int a, int b);
+    }
+
+    private EntryComparator entryComparator(Comparator<String> comparator) {
+        if (canFoldAscii(comparator)) {
+            WordOrdering.CaseFolded ordering = (WordOrdering.CaseFolded) comparator;
+            boolean ignoreCase = ordering.isIgnoreCase();
+            int direction = ordering.isDescending() ? -1 : 1;
+            long[] prefixes = new long[count];
+            for (int i = 0; i < count; i++) {
+                prefixes[i] = prefix(index[i], ignoreCase);
+            }
+            return (a, b) -> {
+                long entryA = index[a], entryB = index[b];
+                if ((entryA & entryB & ASCII_FLAG) == 0) {
+                    return ordering.compare(decode(a), decode(b));
+                }
+                int cmp = Long.compareUnsigned(prefixes[a], prefixes[b]);
+                if (cmp == 0) {
+                    cmp = compareAscii(entryA, entryB, ignoreCase);
+                }
+                return direction * cmp;
+            };
+        } else if (comparator instanceof WordOrdering) {
+            WordOrdering ordering = (WordOrdering) comparator;
+            SortKey[] keys = new SortKey[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = ordering.keyOf(decode(i));
+            }
+            return (a, b) -> ordering.compareKeys(keys[a], keys[b]);
+        }
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++) {
+            words[i] = decode(i);
+        }
+        return (a, b) -> comparator.compare(words[a], words[b]);
+    }
+
+    /**
+    * ASCII bytes can be compared (and folded) in place for case folded orderings, unless the default
+    * locale lower cases I differently, e.g. tr.
+    * */
+    static boolean canFoldAscii(Comparator<String> comparator) {
+        return comparator instanceof WordOrdering.CaseFolded && "I".toLowerCase().equals("i");
+    }
+
+    private int compareAscii(long entryA, long entryB, boolean ignoreCase) {
+        return compareAscii(arena, offset(entryA), length(entryA), arena, offset(entryB), length(entryB), ignoreCase);
+    }
+
+    /**
+    * Compares two ASCII words byte by byte, the same as comparing their (case folded) strings.
+    * */
+    static int compareAscii(byte[] bytesA, int offsetA, int lengthA, byte[] bytesB, int offsetB, int lengthB,
+        boolean ignoreCase) {
+        int length = Math.min(lengthA, lengthB);
+        for (int i = 0; i < length; i++) {
+            int a = bytesA[offsetA + i], b = bytesB[offsetB + i];
+            if (ignoreCase) {
+                a = toLowerCase(a);
+                b = toLowerCase(b);
+            }
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    /**
+    * Packs the first 8 bytes of an ASCII word into a long, like {@link SortKey#packBytes(byte[])}.
+    * */
+    private long prefix(long entry, boolean ignoreCase) {
+        if ((entry & ASCII_FLAG) == 0) {
+            return 0; // never used, non ASCII words are always compared as strings
+        }
+        int offset = offset(entry), length = length(entry);
+        long packed = 0;
+        for (int i = 0; i < 8; i++) {
+            int b = i < length ? arena[offset + i] : 0;
+            packed = (packed << 8) | (ignoreCase ? toLowerCase(b) : b);
+        }
+        return packed;
+    }
+
+    static int toLowerCase(int b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private String decode(int entryNumber) {
+        long entry = index[entryNumber];
+        return new String(arena, offset(entry), length(entry), charset);
+    }
+
+    private static int offset(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int length(long entry) {
+        return (int) (entry & Integer.MAX_VALUE);
+    }
+
+    private boolean equals(byte[] bytes, int offset, int arenaOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != arena[arenaOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private void ensureCapacity(int length) {
+        if (arenaSize + length > arena.length) {
+            long needed = (long) arenaSize + length;
+            if (needed > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("Run buffer cannot hold more than 2GB of words");
+            }
+            // grow by half, but never past the largest array, which only a word larger than 1GB can need
+            long newLength = Math.max(needed, Math.min(MAX_ARRAY_LENGTH, arena.length + (long) (arena.length >> 1)));
+            arena = Arrays.copyOf(arena, (int) newLength);
+        }
+        if (count == index.length) {
+            index = Arrays.copyOf(index, index.length + (index.length >> 1));
+            if (counts != null) {
+                counts = Arrays.copyOf(counts, index.length);
+            }
+        }
+    }
+
+    private void rehash() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int i = 0; i < count; i++) {
+            long entry = index[i];
+            int slot = hash(arena, offset(entry), length(entry)) & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = i + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+    * Stable merge sort of a whole permutation, on the common fork join pool if parallel and large enough.
+    *
+    * @param order Entry numbers to sort in place
+    * @param comparator Comparator of the entries
+    * @param parallelSort True to sort large permutations in parallel
+    * */
+    static void sort(int[] order, EntryComparator comparator, boolean parallelSort) {
+        int[] buffer = new int[order.length];
+        if (parallelSort && order.length > PARALLEL_SORT_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(new SortTask(order, buffer, 0, order.length, comparator));
+        } else {
+            mergeSort(order, buffer, 0, order.length, comparator);
+        }
+    }
+
+    /**
+    * Stable merge sort of order[from, to) using buffer as scratch space.
+    * */
+    static void mergeSort(int[] order, int[] buffer, int from, int to, EntryComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(order, from, to, comparator);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, buffer, from, mid, comparator);
+        mergeSort(order, buffer, mid, to, comparator);
+        merge(order, buffer, from, mid, to, comparator);
+    }
+
+    private static void insertionSort(int[] order, int from, int to, EntryComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int curr = order[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(order[j], curr) > 0) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = curr;
+        }
+    }
+
+    private static void merge(int[] order, int[] buffer, int from, int mid, int to, EntryComparator comparator) {
+        if (comparator.compare(order[mid - 1], order[mid]) <= 0) {
+            return; // already in order
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = mid, out = from;
+        while (left < mid && right < to) {
+            order[out++] = comparator.compare(buffer[right], buffer[left]) < 0 ? buffer[right++] : buffer[left++];
+        }
+        while (left < mid) {
+            order[out++] = buffer[left++];
+        }
+        while (right < to) {
+            order[out++] = buffer[right++];
+        }
+    }
+
+    /**
+    * Sorts both halves in parallel and then merges them.
+    * */
+    private static class SortTask extends RecursiveAction {
+        private final int[] order;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final EntryComparator comparator;
+
+        SortTask(int[] order, int[] buffer, int from, int to, EntryComparator comparator) {
+            this.order = order;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_SORT_THRESHOLD) {
+                mergeSort(order, buffer, from, to, comparator);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(order, buffer, from, mid, comparator),
+                    new SortTask(order, buffer, mid, to, comparator));
+            merge(order, buffer, from, mid, to, comparator);
+        }
+    }
+}
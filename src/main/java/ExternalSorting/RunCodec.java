@@ -0,0 +1,74 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+
+/**
+* How the words of a sorted temp file are laid out on disk.
+*
+* Every temp file is written once and read back once per merge pass, so a more compact layout directly
+* cuts the I/O of the spill and merge phases. The writer and the reader of a codec always come in pairs,
+* the merge reads any codec through the {@link WordTokenizer} it returns.
+* */
+public interface RunCodec {
+    /** One word per line in the platform charset, readable by any tokenizer */
+    String TEXT = "text";
+    /** Front coded: every word only stores the bytes that differ from the previous word */
+    String FRONT = "front";
+    /** Front coded and then compressed with java.util.zip.Deflater at its fastest level */
+    String DEFLATE = "deflate";
+    /** Length prefixed UTF-8 records with a word count header, merged without decoding the words */
+    String BINARY = "binary";
+
+    /**
+    * @param file Empty temp file to write the sorted words to
+    *
+    * @return A sink writing the words to the file, the file is complete once the sink is closed
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    WordSink newWriter(File file) throws IOException;
+
+    /**
+    * @param file Temp file written by {@link #newWriter(File)}
+    * @param tokenizer Tokenizer to split text temp files with, see {@link WordTokenizer#open(File, String, int)}
+    * @param bufferSize Size of the read buffer
+    * @param ioExecutor Executor that reads ahead, or null to read on the calling thread
+    *
+    * @return A tokenizer handing out the words of the file in order
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    WordTokenizer newReader(File file, String tokenizer, int bufferSize, ExecutorService ioExecutor)
+        throws IOException;
+
+    /**
+    * @param name One of {@link #TEXT}, {@link #FRONT}, {@link #DEFLATE} or {@link #BINARY}
+    *
+    * @return The codec
+    * */
+    static RunCodec forName(String name) {
+        return forName(name, null);
+    }
+
+    /**
+    * @param name One of {@link #TEXT}, {@link #FRONT}, {@link #DEFLATE} or {@link #BINARY}
+    * @param comparator Comparator the temp files are sorted with, the binary codec stores key prefixes for it
+    *
+    * @return The codec
+    * */
+    static RunCodec forName(String name, Comparator<String> comparator) {
+        if (TEXT.equals(name)) {
+            return new TextRunCodec();
+        } else if (FRONT.equals(name)) {
+            return new FrontCodedRunCodec(false);
+        } else if (DEFLATE.equals(name)) {
+            return new FrontCodedRunCodec(true);
+        } else if (BINARY.equals(name)) {
+            return new BinaryRunCodec(comparator);
+        }
+        throw new IllegalArgumentException("Unknown run codec: " + name);
+    }
+}
@@ -0,0 +1,240 @@
+package ExternalSorting;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+* A k-way merge of runs into a sink, one word per {@link #mergeNext()}, so the merge can either be driven to the
+* end straight away or pulled word by word, e.g. by a {@link SortedWordIterator}.
+*
+* This uses a min/max heap or a loser tree and the merge k sorted lists algorithm. The read buffer of every run
+* gets an equal share of the merge memory. When runs are prefetched, that share is split between the read buffer
+* and the read ahead buffer.
+*
+* With a limit, the final pass stops once the output has enough words, see {@link SortOptions#setLimit(int)}.
+*
+* In distinct and count mode the words go through a {@link DuplicateFilter}, which adds up the counts read
+* from counted runs. Intermediate passes write the counts back as runs, the final pass only writes them
+* if they are emitted.
+*
+* The words and comparisons are reported to the metrics every {@link FileSorter#METRICS_BATCH} words.
+* */
+class RunMerger implements Closeable {
+    private final WordSink sink;
+    private final DuplicateFilter filter;
+    private final LimitSink limitSink;
+    private final SortMetrics metrics;
+    private final boolean finalPass;
+    private final boolean counted;
+    private final WordOrdering ordering;
+    private final ExecutorService ioExecutor;
+    private final List<CachedScanner> scanners = new ArrayList<>();
+    private boolean runOrder;
+    private final long[] comparisons = new long[1];
+    private Merger merger;
+    private long words, reportedWords, reportedComparisons;
+    private boolean closed;
+
+    /**
+    * @param comparator Comparator the runs are sorted with
+    * @param runs Runs to merge
+    * @param sink Sink the merged words are written to, it is closed with the merger, or straight away if
+    *             the runs cannot be opened
+    * @param options Options holding the tokenizer, codec, merger, memory and duplicates mode
+    * @param finalPass True if the sink is the output rather than an intermediate run
+    *
+    * @throws IOException If unable to open a run
+    * */
+    RunMerger(Comparator<String> comparator, List<File> runs, WordSink sink, SortOptions options,
+        boolean finalPass) throws IOException {
+        this(comparator, runs, null, sink, options, finalPass);
+    }
+
+    /**
+    * Same as {@link #RunMerger(Comparator, List, WordSink, SortOptions, boolean)} with one more run that is a file
+    * already sorted with the comparator, e.g. a previous output. It is read like an input, through the tokenizer of
+    * the options whatever the codec of the runs, so its words can be wrapped over lines in any way, and gzip
+    * compressed if it ends in {@link GzipFiles#EXTENSION}. It holds no counts, so it cannot be merged in count mode.
+    *
+    * @param sortedFile File already sorted, or null
+    * */
+    RunMerger(Comparator<String> comparator, List<File> runs, File sortedFile, WordSink sink, SortOptions options,
+        boolean finalPass) throws IOException {
+        this(comparator, sink, options, finalPass,
+                options.isPrefetchRuns() ? Executors.newSingleThreadExecutor() : null);
+        metrics.tempFilesRead(runs);
+        int readers = runs.size() + (sortedFile != null ? 1 : 0);
+        int bufferSize = options.getRunBufferSize(options.isPrefetchRuns() ? 2 * readers : readers);
+        RunCodec codec = RunCodec.forName(options.getRunCodec(), comparator);
+        // If a run cannot be opened the sink and the runs opened so far are closed straight away
+        try {
+            for (File file : runs) {
+                addRun(codec.newReader(file, options.getTokenizer(), bufferSize, ioExecutor), scanners.size());
+            }
+            if (sortedFile != null) {
+                WordTokenizer sortedScanner = GzipFiles.isGzip(sortedFile)
+                        ? GzipFiles.openTokenizer(sortedFile, options.getTokenizer(), bufferSize)
+                        : WordTokenizer.open(sortedFile, options.getTokenizer(), bufferSize, ioExecutor);
+                addRun(sortedScanner, scanners.size());
+            }
+            createMerger(comparator, options);
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private RunMerger(Comparator<String> comparator, WordSink sink, SortOptions options, boolean finalPass,
+        ExecutorService ioExecutor) {
+        this.counted = options.isCounted();
+        // the limit counts the words of the output, so it comes after the filter
+        if (finalPass && options.getLimit() != SortOptions.NO_LIMIT) {
+            limitSink = new LimitSink(sink, options.getLimit());
+            sink = limitSink;
+        } else {
+            limitSink = null;
+        }
+        if (counted || SortOptions.DUPLICATES_DISTINCT.equals(options.getDuplicates())) {
+            DuplicateFilter.CountFormat countFormat = !counted ? DuplicateFilter.CountFormat.NONE
+                    : !finalPass ? DuplicateFilter.CountFormat.TOKEN
+                    : options.isEmitCounts() ? DuplicateFilter.CountFormat.SUFFIX : DuplicateFilter.CountFormat.NONE;
+            filter = new DuplicateFilter(sink, comparator, countFormat);
+            sink = filter;
+        } else {
+            filter = null;
+        }
+        this.sink = sink;
+        this.finalPass = finalPass;
+        this.metrics = options.getMetrics();
+        this.ioExecutor = ioExecutor;
+        // With a word ordering each scanner caches the key of its current word, so the merger compares keys
+        this.ordering = comparator instanceof WordOrdering ? (WordOrdering) comparator : null;
+    }
+
+    /**
+    * Merges readers that are already open, e.g. on ranges of runs, into the output. The temp files read are not
+    * reported to the metrics. Words the comparator finds equal are merged in the order of their readers, the
+    * order the loser tree merges whole runs in, so ranges of the runs merge into the same words as the runs.
+    *
+    * @param comparator Comparator the words of the readers are sorted with
+    * @param readers Readers of sorted words in run order, closed with the merger, null for an empty run
+    * @param sink Sink the merged words are written to, closed with the merger
+    * @param options Options holding the merger and duplicates mode
+    *
+    * @return The merger
+    * */
+    static RunMerger ofReaders(Comparator<String> comparator, List<WordTokenizer> readers, WordSink sink,
+        SortOptions options) throws IOException {
+        RunMerger runMerger = new RunMerger(comparator, sink, options, true, null);
+        runMerger.runOrder = true;
+        int run = 0;
+        try {
+            for (; run < readers.size(); run++) {
+                if (readers.get(run) != null) {
+                    runMerger.addRun(readers.get(run), run);
+                }
+            }
+            runMerger.createMerger(comparator, options);
+        } catch (RuntimeException ex) {
+            // the readers not handed to a scanner yet are closed here, the others with the merger
+            for (WordTokenizer reader : readers.subList(Math.min(run + 1, readers.size()), readers.size())) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            runMerger.close();
+            throw ex;
+        }
+        return runMerger;
+    }
+
+    private void addRun(WordTokenizer reader, int runIndex) {
+        CachedScanner scanner;
+        try {
+            scanner = new CachedScanner(reader, ordering, counted);
+        } catch (RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+        scanner.setRunIndex(runIndex);
+        scanners.add(scanner);
+    }
+
+    private void createMerger(Comparator<String> comparator, SortOptions options) {
+        // Min/Max heap or loser tree depending on the options, ordered by the comparator passed
+        Comparator<CachedScanner> scannerComparator = ordering != null
+                ? CachedScanner::compareWith
+                : (o1, o2) -> comparator.compare(o1.peek(), o2.peek());
+        merger = Merger.create(options.getMerger(), scanners, (o1, o2) -> {
+            comparisons[0]++;
+            int comparison = scannerComparator.compare(o1, o2);
+            return comparison != 0 || !runOrder ? comparison : Integer.compare(o1.getRunIndex(), o2.getRunIndex());
+        });
+    }
+
+    /**
+    * Writes the next word in sorted order to the sink. In distinct and count mode the sink may only get
+    * the word once a word of the next group is merged, or when the merger is closed.
+    *
+    * @return False once every run is exhausted, or once the output has as many words as the limit
+    *
+    * @throws IOException If unable to read a run or write to the sink
+    * */
+    boolean mergeNext() throws IOException {
+        CachedScanner currScanner = merger.peek();
+        if (currScanner == null || (limitSink != null && limitSink.isFull())) {
+            return false;
+        }
+        if (++words - reportedWords == FileSorter.METRICS_BATCH) {
+            reportMerged();
+        }
+        if (filter != null) {
+            // the key the scanner already holds groups the word, with a word ordering
+            long count = currScanner.peekCount();
+            SortKey key = ordering != null ? currScanner.peekKey() : null;
+            filter.write(currScanner.pop(), key, count);
+        } else {
+            currScanner.popInto(sink);
+        }
+        merger.advance();
+        return true;
+    }
+
+    private void reportMerged() {
+        metrics.wordsMerged(words - reportedWords, comparisons[0] - reportedComparisons, finalPass);
+        reportedWords = words;
+        reportedComparisons = comparisons[0];
+    }
+
+    /**
+    * Flushes and closes the sink, then closes the runs. Safe to call more than once.
+    * */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reportMerged();
+        try {
+            sink.close();
+        } finally {
+            if (merger != null) {
+                merger.close();
+            } else {
+                for (CachedScanner sc : scanners) {
+                    sc.close();
+                }
+            }
+            if (ioExecutor != null) {
+                ioExecutor.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+* {@link WordSink} for a new sorted temp file, written with a {@link RunCodec} so it can be merged again.
+* */
+public class RunWriter implements WordSink {
+    private final File file;
+    private final WordSink sink;
+
+    /**
+    * Creates a new text temp file that is deleted on exit, one word per line in the same layout
+    * that run generation uses by default.
+    *
+    * @param tmpDirectory Directory to place the temp file
+    *
+    * @throws IOException If the temp file cannot be created
+    * */
+    public RunWriter(File tmpDirectory) throws IOException {
+        this(tmpDirectory, RunCodec.forName(RunCodec.TEXT));
+    }
+
+    /**
+    * Creates a new temp file that is deleted on exit.
+    *
+    * @param tmpDirectory Directory to place the temp file
+    * @param codec Codec used to lay out the words
+    *
+    * @throws IOException If the temp file cannot be created
+    * */
+    public RunWriter(File tmpDirectory, RunCodec codec) throws IOException {
+        this.file = File.createTempFile("sorted", ".txt", tmpDirectory);
+        this.file.deleteOnExit();
+        this.sink = codec.newWriter(file);
+    }
+
+    /**
+    * @return The temp file being written
+    * */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(String word) throws IOException {
+        sink.write(word);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+        sink.write(bytes, offset, length, charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.close();
+    }
+}
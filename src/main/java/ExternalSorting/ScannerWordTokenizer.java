@@ -0,0 +1,31 @@
+package ExternalSorting;
+
+import java.util.Scanner;
+
+/**
+* {@link WordTokenizer} backed by java.util.Scanner. This is the original way the sorter read words
+* and it remains the fallback for charsets the byte level tokenizer cannot handle, or for callers
+* that need a Scanner configured with a custom delimiter.
+* */
+public class ScannerWordTokenizer implements WordTokenizer {
+    private final Scanner sc;
+
+    public ScannerWordTokenizer(Scanner scanner) {
+        this.sc = scanner;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return sc.hasNext();
+    }
+
+    @Override
+    public String next() {
+        return sc.next();
+    }
+
+    @Override
+    public void close() {
+        sc.close();
+    }
+}
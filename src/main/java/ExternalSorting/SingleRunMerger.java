@@ -0,0 +1,39 @@
+package ExternalSorting;
+
+/**
+* {@link Merger} for a final pass over a single run, e.g. when the whole input fitted in one block. The run is
+* already in order, so its words are streamed to the output as they are read, without any comparison.
+* */
+public class SingleRunMerger implements Merger {
+    private CachedScanner run;
+
+    public SingleRunMerger(CachedScanner run) {
+        this.run = run;
+        closeIfEmpty();
+    }
+
+    @Override
+    public CachedScanner peek() {
+        return run;
+    }
+
+    @Override
+    public void advance() {
+        closeIfEmpty();
+    }
+
+    private void closeIfEmpty() {
+        if (run != null && run.isEmpty()) {
+            run.close();
+            run = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (run != null) {
+            run.close();
+            run = null;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package ExternalSorting;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+* A sort of one input into one output, run by an {@link ExternalSorter}. Jobs are immutable, built
+* with {@link #builder()}, and can be run again: every run works on a copy of the {@link SortOptions}, with
+* metrics of its own, so the options given are never changed and can be shared by several jobs.
+*
+* The input is a file, a stream or an iterator of words, and the output a file, a stream or a callback. Streams
+* and iterators are consumed by the first run, so such jobs cannot be run again.
+* */
+public final class SortJob {
+    private final Path input;
+    private final InputStream inputStream;
+    private final Iterator<String> inputWords;
+    private final Path output;
+    private final OutputStream outputStream;
+    private final Consumer<String> consumer;
+    private final Comparator<String> comparator;
+    private final long memoryBudget;
+    private final Path tmpDirectory;
+    private final Integer threads;
+    private final int maxTmpFiles;
+    private final int wordWrap;
+    private final SortOptions options;
+
+    private SortJob(Builder builder) {
+        this.input = builder.input;
+        this.inputStream = builder.inputStream;
+        this.inputWords = builder.inputWords;
+        this.output = builder.output;
+        this.outputStream = builder.outputStream;
+        this.consumer = builder.consumer;
+        this.comparator = builder.comparator;
+        this.memoryBudget = builder.memoryBudget;
+        this.tmpDirectory = builder.tmpDirectory;
+        this.threads = builder.threads;
+        this.maxTmpFiles = builder.maxTmpFiles;
+        this.wordWrap = builder.wordWrap;
+        this.options = builder.options;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    /**
+    * @return The input stream, null unless the job reads from a stream
+    * */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+    * @return The words to sort, null unless the job reads from an iterator
+    * */
+    public Iterator<String> getInputWords() {
+        return inputWords;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+    * @return The output stream, null unless the job writes to a stream
+    * */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+    * @return The callback of the sorted words, null unless the job pushes them to a callback
+    * */
+    public Consumer<String> getConsumer() {
+        return consumer;
+    }
+
+    public Comparator<String> getComparator() {
+        return comparator;
+    }
+
+    /**
+    * @return Memory reserved from the pool of the sorter, 0 for the default share
+    * */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+    * @return Directory of the temp files, null for the one of the sorter
+    * */
+    public Path getTmpDirectory() {
+        return tmpDirectory;
+    }
+
+    /**
+    * @return Number of blocks sorted at once, null for the threads of the sorter
+    * */
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public int getMaxTmpFiles() {
+        return maxTmpFiles;
+    }
+
+    public int getWordWrap() {
+        return wordWrap;
+    }
+
+    public SortOptions getOptions() {
+        return options;
+    }
+
+    /**
+    * Builds a {@link SortJob}. Only an input and an output are required, everything else defaults to the
+    * defaults of the command line.
+    * */
+    public static final class Builder {
+        private Path input;
+        private InputStream inputStream;
+        private Iterator<String> inputWords;
+        private Path output;
+        private OutputStream outputStream;
+        private Consumer<String> consumer;
+        private Comparator<String> comparator = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        private long memoryBudget = 0;
+        private Path tmpDirectory;
+        private Integer threads;
+        private int maxTmpFiles = 1024;
+        private int wordWrap = 100;
+        private SortOptions options;
+
+        private Builder() {
+        }
+
+        /**
+        * @param input File to sort, words in the platform charset
+        * */
+        public Builder input(Path input) {
+            this.input = input;
+            this.inputStream = null;
+            this.inputWords = null;
+            return this;
+        }
+
+        /**
+        * @param inputStream Stream of unknown length to sort, words in the platform charset. It is closed once
+        *                    it is read
+        * */
+        public Builder input(InputStream inputStream) {
+            this.input = null;
+            this.inputStream = inputStream;
+            this.inputWords = null;
+            return this;
+        }
+
+        /**
+        * @param inputWords Words to sort, see {@link IteratorWordTokenizer}
+        * */
+        public Builder input(Iterator<String> inputWords) {
+            this.input = null;
+            this.inputStream = null;
+            this.inputWords = inputWords;
+            return this;
+        }
+
+        /**
+        * @param output File to write the sorted words to, replaced if it exists
+        * */
+        public Builder output(Path output) {
+            this.output = output;
+            this.outputStream = null;
+            this.consumer = null;
+            return this;
+        }
+
+        /**
+        * @param outputStream Stream to write the sorted words to, wrapped like the output file. It is closed
+        *                     once the words are written
+        * */
+        public Builder output(OutputStream outputStream) {
+            this.output = null;
+            this.outputStream = outputStream;
+            this.consumer = null;
+            return this;
+        }
+
+        /**
+        * @param consumer Callback that gets the sorted words one by one, on the thread running the job
+        * */
+        public Builder output(Consumer<String> consumer) {
+            this.output = null;
+            this.outputStream = null;
+            this.consumer = consumer;
+            return this;
+        }
+
+        /**
+        * @param comparator Comparator to sort with, a {@link WordOrdering} enables the fast paths
+        * */
+        public Builder comparator(Comparator<String> comparator) {
+            this.comparator = comparator;
+            return this;
+        }
+
+        /**
+        * @param memoryBudget Memory in bytes reserved from the pool of the sorter while the job runs
+        * */
+        public Builder memoryBudget(long memoryBudget) {
+            if (memoryBudget <= 0) {
+                throw new IllegalArgumentException("Invalid memory budget: " + memoryBudget);
+            }
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+        * @param tmpDirectory Directory under which the job creates a directory for its temp files
+        * */
+        public Builder tmpDirectory(Path tmpDirectory) {
+            this.tmpDirectory = tmpDirectory;
+            return this;
+        }
+
+        /**
+        * @param threads Number of blocks sorted at once on the executor of the sorter, at least 1
+        * */
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Invalid number of threads: " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+        * @param maxTmpFiles Maximum number of temp files to create, at least 1
+        * */
+        public Builder maxTmpFiles(int maxTmpFiles) {
+            if (maxTmpFiles < 1) {
+                throw new IllegalArgumentException("Invalid max temp file value: " + maxTmpFiles);
+            }
+            this.maxTmpFiles = maxTmpFiles;
+            return this;
+        }
+
+        /**
+        * @param wordWrap Number of words per line of the output, at least 1
+        * */
+        public Builder wordWrap(int wordWrap) {
+            if (wordWrap < 1) {
+                throw new IllegalArgumentException("Invalid word wrap value: " + wordWrap);
+            }
+            this.wordWrap = wordWrap;
+            return this;
+        }
+
+        /**
+        * @param options Tuning options of this job, copied and completed with the executor, threads and memory of
+        *                the sorter every time the job runs
+        * */
+        public Builder options(SortOptions options) {
+            this.options = options;
+            return this;
+        }
+
+        public SortJob build() {
+            boolean hasInput = input != null || inputStream != null || inputWords != null;
+            boolean hasOutput = output != null || outputStream != null || consumer != null;
+            if (!hasInput || !hasOutput) {
+                throw new IllegalArgumentException("The following parameters are required: "
+                        + (!hasInput ? "Input file, " : "") + (!hasOutput ? "Output file" : ""));
+            }
+            if (comparator == null) {
+                throw new IllegalArgumentException("Comparator cannot be null");
+            }
+            return new SortJob(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ExternalSorting;
+
+/**
+* A word together with its precomputed collation key, created once when the word is read so that
+* comparisons during chunk sorting and merging never allocate.
+*
+* The first characters (or collation bytes) of the key are packed into a long, most significant
+* first. Two keys whose prefixes differ can therefore be ordered with a single unsigned long
+* comparison, and the full key is only compared when the prefixes are equal.
+* */
+public final class SortKey {
+    private final String word;
+    private final long prefix;
+    private final Comparable<Object> key;
+
+    @SuppressWarnings("unchecked")
+    SortKey(String word, long prefix, Comparable<?> key) {
+        this.word = word;
+        this.prefix = prefix;
+        this.key = (Comparable<Object>) key;
+    }
+
+    /**
+    * @return The original word
+    * */
+    public String getWord() {
+        return word;
+    }
+
+    /**
+    * @return The packed prefix of the key
+    * */
+    public long getPrefix() {
+        return prefix;
+    }
+
+    /**
+    * @return The full collation key, a String or a java.text.CollationKey
+    * */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+    * Compares two keys created by the same {@link WordOrdering}, in ascending order.
+    * */
+    int compareAscending(SortKey other) {
+        int cmp = Long.compareUnsigned(prefix, other.prefix);
+        return cmp != 0 ? cmp : key.compareTo(other.key);
+    }
+
+    /**
+    * Packs the first 4 chars of a string into a long, padding short strings with zeros.
+    * */
+    static long packChars(String str) {
+        long packed = 0;
+        for (int i = 0; i < 4; i++) {
+            packed = (packed << 16) | (i < str.length() ? str.charAt(i) : 0);
+        }
+        return packed;
+    }
+
+    /**
+    * Same as {@link #packChars(String)} on the case folded word, for a word whose bytes are all ASCII.
+    * */
+    static long packAsciiChars(byte[] bytes, int offset, int length, boolean ignoreCase) {
+        long packed = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = i < length ? bytes[offset + i] : 0;
+            packed = (packed << 16) | (ignoreCase ? RunBuffer.toLowerCase(b) : b);
+        }
+        return packed;
+    }
+
+    /**
+    * Packs the first 8 bytes of an array into a long, padding short arrays with zeros.
+    * */
+    static long packBytes(byte[] bytes) {
+        long packed = 0;
+        for (int i = 0; i < 8; i++) {
+            packed = (packed << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,43 @@
+package ExternalSorting;
+
+import java.io.File;
+
+/**
+* Receives the events of a sort as it goes, e.g. to log them or feed a monitoring system. Every method does
+* nothing by default, so a listener only overrides what it needs.
+*
+* Runs are created concurrently in pipelined and mmap mode, so implementations must be thread-safe.
+* The metrics passed along are live and may already have moved on by the time they are read.
+* */
+public interface SortListener {
+    /**
+    * @param phase The phase that starts
+    * @param metrics The metrics of the sort
+    * */
+    default void onPhaseStarted(SortMetrics.Phase phase, SortMetrics metrics) {
+    }
+
+    /**
+    * @param run The sorted temp file that was written
+    * @param sortNanos Time spent sorting the block of the run
+    * @param writeNanos Time spent writing the run
+    * @param metrics The metrics of the sort
+    * */
+    default void onRunCreated(File run, long sortNanos, long writeNanos, SortMetrics metrics) {
+    }
+
+    /**
+    * @param phase The phase that finished
+    * @param metrics The metrics of the sort
+    * */
+    default void onPhaseFinished(SortMetrics.Phase phase, SortMetrics metrics) {
+    }
+
+    /**
+    * Called periodically by a {@link ProgressReporter}.
+    *
+    * @param metrics The metrics of the sort
+    * */
+    default void onProgress(SortMetrics metrics) {
+    }
+}
@@ -0,0 +1,322 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* Counters and timers of a sort, filled in as it runs and passed to the registered {@link SortListener}s.
+*
+* The counters are updated from every sorting, writing and merging thread, so they are kept in LongAdders
+* and only add up when read. Tokenizers and the merge report in batches, so the values lag a little behind
+* while a phase runs and are exact once it has finished.
+*
+* Comparisons are only counted while merging: counting them in the block sorts would mean wrapping the
+* comparator, which turns off the key and byte level fast paths of {@link WordOrdering}.
+* */
+public class SortMetrics {
+    /**
+    * The phases of a sort, in order.
+    * */
+    public enum Phase {
+        /** The input is read into sorted temp files */
+        RUN_GENERATION,
+        /** The sorted temp files are merged into the output, possibly in several passes */
+        MERGE
+    }
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder wordsRead = new LongAdder();
+    private final LongAdder runsCreated = new LongAdder();
+    private final LongAdder runSortNanos = new LongAdder();
+    private final LongAdder runWriteNanos = new LongAdder();
+    private final LongAdder tempBytesWritten = new LongAdder();
+    private final LongAdder tempBytesRead = new LongAdder();
+    private final LongAdder wordsMerged = new LongAdder();
+    private final LongAdder finalPassWords = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final AtomicLongArray phaseStart = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray phaseEnd = new AtomicLongArray(Phase.values().length);
+    private final List<SortListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long inputBytes = -1;
+    private volatile Phase phase;
+
+    /**
+    * @param listener Listener to notify of the events of the sort
+    *
+    * @return This instance for chaining
+    * */
+    public SortMetrics addListener(SortListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+    * @return Metrics of another run, starting from zero, that notify the listeners of this instance
+    * */
+    SortMetrics newRun() {
+        SortMetrics metrics = new SortMetrics();
+        metrics.listeners.addAll(listeners);
+        return metrics;
+    }
+
+    /**
+    * @param inputBytes Size of the input, which the progress of run generation is measured against
+    *
+    * @return This instance for chaining
+    * */
+    public SortMetrics setInputBytes(long inputBytes) {
+        this.inputBytes = inputBytes;
+        return this;
+    }
+
+    /**
+    * Starts the timer of a phase, unless it is already running, e.g. when the mmap input falls back to a
+    * stream.
+    * */
+    void phaseStarted(Phase phase) {
+        if (phaseStart.compareAndSet(phase.ordinal(), 0, System.nanoTime())) {
+            this.phase = phase;
+            for (SortListener listener : listeners) {
+                listener.onPhaseStarted(phase, this);
+            }
+        }
+    }
+
+    void phaseFinished(Phase phase) {
+        phaseEnd.set(phase.ordinal(), System.nanoTime());
+        sampleHeap();
+        for (SortListener listener : listeners) {
+            listener.onPhaseFinished(phase, this);
+        }
+    }
+
+    /**
+    * @param words Words read from the input since the last call
+    * @param bytes Bytes read from the input since the last call, 0 if the tokenizer cannot tell
+    * */
+    void inputRead(long words, long bytes) {
+        wordsRead.add(words);
+        bytesRead.add(bytes);
+    }
+
+    void runCreated(File run, long sortNanos, long writeNanos) {
+        runsCreated.increment();
+        runSortNanos.add(sortNanos);
+        runWriteNanos.add(writeNanos);
+        tempFileWritten(run);
+        sampleHeap();
+        for (SortListener listener : listeners) {
+            listener.onRunCreated(run, sortNanos, writeNanos, this);
+        }
+    }
+
+    /**
+    * Counts a temp file written by an intermediate merge pass, or as a run.
+    * */
+    void tempFileWritten(File file) {
+        tempBytesWritten.add(file.length());
+    }
+
+    /**
+    * Counts temp files about to be read in full by a merge pass.
+    * */
+    void tempFilesRead(List<File> files) {
+        for (File file : files) {
+            tempBytesRead.add(file.length());
+        }
+    }
+
+    /**
+    * @param words Words merged since the last call
+    * @param comparisons Comparisons made since the last call
+    * @param finalPass True if the words went to the output
+    * */
+    void wordsMerged(long words, long comparisons, boolean finalPass) {
+        wordsMerged.add(words);
+        this.comparisons.add(comparisons);
+        if (finalPass) {
+            finalPassWords.add(words);
+        }
+    }
+
+    /**
+    * Samples the heap in use and notifies the listeners of the progress, called periodically by a
+    * {@link ProgressReporter}.
+    * */
+    void reportProgress() {
+        sampleHeap();
+        for (SortListener listener : listeners) {
+            listener.onProgress(this);
+        }
+    }
+
+    private void sampleHeap() {
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        peakHeap.accumulateAndGet(used, Math::max);
+    }
+
+    /**
+    * @return The size of the input, -1 if not set
+    * */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+    * @return Bytes read from the input, 0 if read with the scanner tokenizer
+    * */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getWordsRead() {
+        return wordsRead.sum();
+    }
+
+    public long getRunsCreated() {
+        return runsCreated.sum();
+    }
+
+    /**
+    * @return Time spent sorting blocks, added up over every sorting thread
+    * */
+    public long getRunSortNanos() {
+        return runSortNanos.sum();
+    }
+
+    /**
+    * @return Time spent writing runs, added up over every writing thread
+    * */
+    public long getRunWriteNanos() {
+        return runWriteNanos.sum();
+    }
+
+    /**
+    * @return Bytes of the runs and of the intermediate merge passes written to the temp directory
+    * */
+    public long getTempBytesWritten() {
+        return tempBytesWritten.sum();
+    }
+
+    /**
+    * @return Bytes of temp files read by the merge passes
+    * */
+    public long getTempBytesRead() {
+        return tempBytesRead.sum();
+    }
+
+    /**
+    * @return Words merged over every merge pass
+    * */
+    public long getWordsMerged() {
+        return wordsMerged.sum();
+    }
+
+    /**
+    * @return Words merged by the final pass, before duplicates are dropped or counted
+    * */
+    public long getFinalPassWords() {
+        return finalPassWords.sum();
+    }
+
+    /**
+    * @return Comparisons made by the merge passes
+    * */
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    /**
+    * @return The largest heap in use seen at the events of the sort and at every progress report
+    * */
+    public long getPeakHeap() {
+        return peakHeap.get();
+    }
+
+    /**
+    * @return The phase started last, null before the sort starts
+    * */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+    * @return Time spent in a phase so far, 0 if it has not started
+    * */
+    public long getPhaseNanos(Phase phase) {
+        long start = phaseStart.get(phase.ordinal());
+        if (start == 0) {
+            return 0;
+        }
+        long end = phaseEnd.get(phase.ordinal());
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    /**
+    * @return Words merged per second over every merge pass
+    * */
+    public double getMergeWordsPerSecond() {
+        long nanos = getPhaseNanos(Phase.MERGE);
+        return nanos == 0 ? 0 : getWordsMerged() * 1e9 / nanos;
+    }
+
+    /**
+    * The progress of the current phase. Run generation is measured in bytes read from the input. The merge
+    * is measured in words merged by the final pass against the words read, which is exact when duplicates
+    * are kept and underestimates the progress when they were dropped within runs.
+    *
+    * @return The share of the current phase done, between 0 and 1, or -1 if unknown
+    * */
+    public double getProgress() {
+        Phase current = phase;
+        if (current == Phase.RUN_GENERATION) {
+            long bytes = getBytesRead();
+            return inputBytes > 0 && bytes > 0 ? Math.min(1, (double) bytes / inputBytes) : -1;
+        } else if (current == Phase.MERGE) {
+            long words = getWordsRead();
+            return words > 0 ? Math.min(1, (double) getFinalPassWords() / words) : -1;
+        }
+        return -1;
+    }
+
+    /**
+    * @return Estimated milliseconds left in the current phase at its pace so far, or -1 if unknown
+    * */
+    public long getEtaMillis() {
+        double progress = getProgress();
+        if (progress <= 0) {
+            return -1;
+        }
+        long elapsed = getPhaseNanos(phase) / 1_000_000;
+        return (long) (elapsed * (1 - progress) / progress);
+    }
+
+    /**
+    * @return The counters and timers as a flat JSON object, times in milliseconds
+    * */
+    public String toJson() {
+        return "{"
+                + "\"inputBytes\":" + inputBytes
+                + ",\"bytesRead\":" + getBytesRead()
+                + ",\"wordsRead\":" + getWordsRead()
+                + ",\"runsCreated\":" + getRunsCreated()
+                + ",\"runGenerationMillis\":" + getPhaseNanos(Phase.RUN_GENERATION) / 1_000_000
+                + ",\"runSortMillis\":" + getRunSortNanos() / 1_000_000
+                + ",\"runWriteMillis\":" + getRunWriteNanos() / 1_000_000
+                + ",\"mergeMillis\":" + getPhaseNanos(Phase.MERGE) / 1_000_000
+                + ",\"wordsMerged\":" + getWordsMerged()
+                + ",\"mergeWordsPerSecond\":" + String.format(Locale.ROOT, "%.1f", getMergeWordsPerSecond())
+                + ",\"comparisons\":" + getComparisons()
+                + ",\"tempBytesWritten\":" + getTempBytesWritten()
+                + ",\"tempBytesRead\":" + getTempBytesRead()
+                + ",\"peakHeapBytes\":" + getPeakHeap()
+                + "}";
+    }
+}
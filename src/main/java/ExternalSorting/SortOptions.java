@@ -0,0 +1,606 @@
+package ExternalSorting;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tuning options for a sort run that go beyond the basic input/output configuration.
+ *
+ * All options default to values that reproduce the original single threaded behaviour,
+ * so an instance created with the default constructor can always be passed safely.
+ * */
+public class SortOptions {
+    /** Keep the words of a block as String objects in a HashSet */
+    public static final String RUN_BUFFER_OBJECTS = "objects";
+    /** Keep the words of a block as bytes in a {@link RunBuffer} */
+    public static final String RUN_BUFFER_PACKED = "packed";
+    /** Read the input through a single tokenizer */
+    public static final String INPUT_STREAM = "stream";
+    /** Memory map the input in segments that are tokenized and sorted concurrently */
+    public static final String INPUT_MMAP = "mmap";
+    /** Cut the input into blocks that are sorted one by one */
+    public static final String RUNS_BLOCKS = "blocks";
+    /** Generate longer runs with replacement selection */
+    public static final String RUNS_REPLACEMENT = "replacement";
+    /** Every temp file holds each distinct word once, duplicates across temp files are kept */
+    public static final String DUPLICATES_PER_RUN = "per-run";
+    /** Keep every occurrence of every word */
+    public static final String DUPLICATES_KEEP_ALL = "keep-all";
+    /** Keep each distinct word once in the whole output */
+    public static final String DUPLICATES_DISTINCT = "distinct";
+    /** Keep each distinct word once along with its number of occurrences */
+    public static final String DUPLICATES_COUNT = "count";
+    /** Leave the output to the page cache of the operating system */
+    public static final String SYNC_NONE = "none";
+    /** Force the output to the disk once it is complete */
+    public static final String SYNC_CLOSE = "close";
+    /** Force the output to the disk after every flush of the output buffer */
+    public static final String SYNC_FLUSH = "flush";
+    /** Merge every temp file in a single pass */
+    public static final int UNLIMITED_FAN_IN = 0;
+    /** Write every word of the input to the output */
+    public static final int NO_LIMIT = 0;
+    /** Smallest read buffer per temp file while merging, below this reads stop being sequential */
+    public static final int MIN_RUN_BUFFER_SIZE = 1 << 13;
+    /** Largest read buffer per temp file while merging */
+    public static final int MAX_RUN_BUFFER_SIZE = 1 << 23;
+
+    private int threads = 1;
+    private int writerThreads = 1;
+    private boolean parallelSort = false;
+    private String tokenizer = WordTokenizer.NIO;
+    private String runBuffer = RUN_BUFFER_OBJECTS;
+    private String sortEngine = ChunkSortEngine.TIMSORT;
+    private String merger = Merger.HEAP;
+    private int maxMergeFanIn = UNLIMITED_FAN_IN;
+    private long mergeMemory = 0;
+    private boolean prefetchRuns = false;
+    private String runCodec = RunCodec.TEXT;
+    private String inputMode = INPUT_STREAM;
+    private String runGenerator = RUNS_BLOCKS;
+    private boolean adaptiveBlockSize = false;
+    private String duplicates = DUPLICATES_PER_RUN;
+    private boolean emitCounts = false;
+    private SortMetrics metrics = new SortMetrics();
+    private ExecutorService executor;
+    private String outputSync = SYNC_NONE;
+    private int mergeThreads = 1;
+    private int limit = NO_LIMIT;
+    private JobManifest checkpoint;
+
+    /**
+     * @return Maximum number of threads used to sort chunks during run generation
+     * */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the size of the chunk sorting pool. A value of 1 keeps run generation serial,
+     * anything above 1 enables the pipelined reader/sorter/writer mode.
+     *
+     * @param threads Maximum number of sorting threads, must be at least 1
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @return Number of threads used to spill sorted chunks to temp files in pipelined mode
+     * */
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    /**
+     * @param writerThreads Number of temp file writer threads, must be at least 1
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setWriterThreads(int writerThreads) {
+        if (writerThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of writer threads: " + writerThreads);
+        }
+        this.writerThreads = writerThreads;
+        return this;
+    }
+
+    /**
+     * @return Whether chunks are sorted with java.util.Arrays#parallelSort instead of List#sort
+     * */
+    public boolean isParallelSort() {
+        return parallelSort;
+    }
+
+    /**
+     * @param parallelSort True to sort each chunk with java.util.Arrays#parallelSort
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setParallelSort(boolean parallelSort) {
+        this.parallelSort = parallelSort;
+        return this;
+    }
+
+    /**
+     * @return Name of the tokenizer used to read the input and the temp files
+     * */
+    public String getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * @param tokenizer Either {@link WordTokenizer#NIO} or {@link WordTokenizer#SCANNER}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setTokenizer(String tokenizer) {
+        if (!WordTokenizer.NIO.equals(tokenizer) && !WordTokenizer.SCANNER.equals(tokenizer)) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + tokenizer);
+        }
+        this.tokenizer = tokenizer;
+        return this;
+    }
+
+    /**
+     * @return How the words of a block are held in memory during run generation
+     * */
+    public String getRunBuffer() {
+        return runBuffer;
+    }
+
+    /**
+     * The packed buffer fits several times more words in the same block size, which means fewer
+     * temp files, but it needs an ASCII compatible platform charset and is ignored otherwise.
+     *
+     * @param runBuffer Either {@link #RUN_BUFFER_OBJECTS} or {@link #RUN_BUFFER_PACKED}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setRunBuffer(String runBuffer) {
+        if (!RUN_BUFFER_OBJECTS.equals(runBuffer) && !RUN_BUFFER_PACKED.equals(runBuffer)) {
+            throw new IllegalArgumentException("Unknown run buffer: " + runBuffer);
+        }
+        this.runBuffer = runBuffer;
+        return this;
+    }
+
+    /**
+     * @return Name of the engine used to sort blocks in memory
+     * */
+    public String getSortEngine() {
+        return sortEngine;
+    }
+
+    /**
+     * @param sortEngine Either {@link ChunkSortEngine#TIMSORT} or {@link ChunkSortEngine#RADIX}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setSortEngine(String sortEngine) {
+        ChunkSortEngine.forName(sortEngine); // validate
+        this.sortEngine = sortEngine;
+        return this;
+    }
+
+    /**
+     * @return Name of the merger used to merge the sorted temp files
+     * */
+    public String getMerger() {
+        return merger;
+    }
+
+    /**
+     * @param merger Either {@link Merger#HEAP} or {@link Merger#LOSER_TREE}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setMerger(String merger) {
+        if (!Merger.HEAP.equals(merger) && !Merger.LOSER_TREE.equals(merger)) {
+            throw new IllegalArgumentException("Unknown merger: " + merger);
+        }
+        this.merger = merger;
+        return this;
+    }
+
+    /**
+     * @return Maximum number of temp files merged at once, or {@link #UNLIMITED_FAN_IN}
+     * */
+    public int getMaxMergeFanIn() {
+        return maxMergeFanIn;
+    }
+
+    /**
+     * Limits how many temp files are open at once while merging, e.g. to stay below the open file limit.
+     * More temp files than this are merged in several passes.
+     *
+     * @param maxMergeFanIn At least 2, or {@link #UNLIMITED_FAN_IN}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setMaxMergeFanIn(int maxMergeFanIn) {
+        if (maxMergeFanIn != UNLIMITED_FAN_IN && maxMergeFanIn < 2) {
+            throw new IllegalArgumentException("Invalid max merge fan-in: " + maxMergeFanIn);
+        }
+        this.maxMergeFanIn = maxMergeFanIn;
+        return this;
+    }
+
+    /**
+     * @return Memory shared by the read buffers of the temp files of a merge pass, 0 if not set
+     * */
+    public long getMergeMemory() {
+        return mergeMemory;
+    }
+
+    /**
+     * @param mergeMemory Memory shared by the read buffers of the temp files of a merge pass
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setMergeMemory(long mergeMemory) {
+        this.mergeMemory = Math.max(0, mergeMemory);
+        return this;
+    }
+
+    /**
+     * @return Whether the temp files are read ahead on an I/O thread while merging
+     * */
+    public boolean isPrefetchRuns() {
+        return prefetchRuns;
+    }
+
+    /**
+     * Reading ahead keeps a second buffer per temp file, filled in the background while the current
+     * one is merged, so the merge memory is split over twice as many buffers.
+     *
+     * @param prefetchRuns True to read the temp files ahead while merging
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setPrefetchRuns(boolean prefetchRuns) {
+        this.prefetchRuns = prefetchRuns;
+        return this;
+    }
+
+    /**
+     * @return Name of the codec used to write and read the sorted temp files
+     * */
+    public String getRunCodec() {
+        return runCodec;
+    }
+
+    /**
+     * @param runCodec One of {@link RunCodec#TEXT}, {@link RunCodec#FRONT}, {@link RunCodec#DEFLATE}
+     *                 or {@link RunCodec#BINARY}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setRunCodec(String runCodec) {
+        RunCodec.forName(runCodec); // validate
+        this.runCodec = runCodec;
+        return this;
+    }
+
+    /**
+     * @return How the input file is read during run generation
+     * */
+    public String getInputMode() {
+        return inputMode;
+    }
+
+    /**
+     * In mmap mode every sorting thread tokenizes its own segment of the input, so reading scales with
+     * {@link #getThreads()} instead of being done by a single reader.
+     *
+     * @param inputMode Either {@link #INPUT_STREAM} or {@link #INPUT_MMAP}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setInputMode(String inputMode) {
+        if (!INPUT_STREAM.equals(inputMode) && !INPUT_MMAP.equals(inputMode)) {
+            throw new IllegalArgumentException("Unknown input mode: " + inputMode);
+        }
+        this.inputMode = inputMode;
+        return this;
+    }
+
+    /**
+     * @return How the sorted temp files are generated from the input
+     * */
+    public String getRunGenerator() {
+        return runGenerator;
+    }
+
+    /**
+     * Replacement selection produces fewer, longer temp files but sorts word by word on the reading
+     * thread, so with a stream input it ignores the pipelined mode. With a memory mapped input every
+     * segment still gets its own thread.
+     *
+     * @param runGenerator Either {@link #RUNS_BLOCKS} or {@link #RUNS_REPLACEMENT}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setRunGenerator(String runGenerator) {
+        if (!RUNS_BLOCKS.equals(runGenerator) && !RUNS_REPLACEMENT.equals(runGenerator)) {
+            throw new IllegalArgumentException("Unknown run generator: " + runGenerator);
+        }
+        this.runGenerator = runGenerator;
+        return this;
+    }
+
+    /**
+     * @return Whether the block size is tuned between blocks from the observed heap usage
+     * */
+    public boolean isAdaptiveBlockSize() {
+        return adaptiveBlockSize;
+    }
+
+    /**
+     * @param adaptiveBlockSize True to let the {@link MemoryBudget} shrink blocks under heap pressure and grow
+     *                          them back while the heap stays mostly free
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setAdaptiveBlockSize(boolean adaptiveBlockSize) {
+        this.adaptiveBlockSize = adaptiveBlockSize;
+        return this;
+    }
+
+    /**
+     * @return How duplicate words are handled
+     * */
+    public String getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Per run is the original behaviour: duplicates are dropped within a block but a word that appears
+     * in several blocks appears several times in the output. Distinct drops them during the merge as
+     * well, and count keeps the number of occurrences of every word in the temp files and adds them up
+     * while merging.
+     *
+     * @param duplicates One of {@link #DUPLICATES_PER_RUN}, {@link #DUPLICATES_KEEP_ALL},
+     *                   {@link #DUPLICATES_DISTINCT} or {@link #DUPLICATES_COUNT}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setDuplicates(String duplicates) {
+        if (!DUPLICATES_PER_RUN.equals(duplicates) && !DUPLICATES_KEEP_ALL.equals(duplicates)
+                && !DUPLICATES_DISTINCT.equals(duplicates) && !DUPLICATES_COUNT.equals(duplicates)) {
+            throw new IllegalArgumentException("Unknown duplicates mode: " + duplicates);
+        }
+        this.duplicates = duplicates;
+        return this;
+    }
+
+    /**
+     * @return Whether every word of the output is followed by its count in {@link #DUPLICATES_COUNT} mode
+     * */
+    public boolean isEmitCounts() {
+        return emitCounts;
+    }
+
+    /**
+     * @param emitCounts True to write every word as word:count in {@link #DUPLICATES_COUNT} mode
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setEmitCounts(boolean emitCounts) {
+        this.emitCounts = emitCounts;
+        return this;
+    }
+
+    /**
+     * @return Counters and timers the sort reports to
+     * */
+    public SortMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Every instance starts with metrics of its own and no listener. Set shared metrics, e.g. with a
+     * {@link LoggingSortListener}, to follow a sort from the outside.
+     *
+     * @param metrics Counters and timers the sort reports to
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setMetrics(SortMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metrics cannot be null");
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return The executor blocks and segments are sorted on, null if every sort creates its own pools
+     * */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Lets several sorts share one bounded pool, see {@link ExternalSorter}. The executor is never shut down
+     * by a sort, and its tasks never wait for each other, so any pool size works. {@link #getThreads()} still
+     * selects the pipelined mode and how many blocks a sort keeps in memory.
+     *
+     * @param executor Executor to sort on, or null to create pools for every sort
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return When the output file is forced to the disk
+     * */
+    public String getOutputSync() {
+        return outputSync;
+    }
+
+    /**
+     * Forcing the output makes sure it survives a crash of the machine once the sort returns, at the cost of
+     * waiting for the disk. Only output files written through a {@link ChannelWordWriter} are forced.
+     *
+     * @param outputSync One of {@link #SYNC_NONE}, {@link #SYNC_CLOSE} or {@link #SYNC_FLUSH}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setOutputSync(String outputSync) {
+        if (!SYNC_NONE.equals(outputSync) && !SYNC_CLOSE.equals(outputSync) && !SYNC_FLUSH.equals(outputSync)) {
+            throw new IllegalArgumentException("Unknown output sync: " + outputSync);
+        }
+        this.outputSync = outputSync;
+        return this;
+    }
+
+    /**
+     * @return Number of key ranges merged at once in the final pass
+     * */
+    public int getMergeThreads() {
+        return mergeThreads;
+    }
+
+    /**
+     * Above 1, the final pass into an output file is split into key ranges that are merged concurrently, see
+     * {@link PartitionedMerge}. Only text temp files merged with the {@link Merger#LOSER_TREE} and read by the nio
+     * tokenizer without dropping or counting duplicates across them can be split, any other final pass stays
+     * serial.
+     *
+     * @param mergeThreads Number of key ranges merged at once, must be at least 1
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setMergeThreads(int mergeThreads) {
+        if (mergeThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of merge threads: " + mergeThreads);
+        }
+        this.mergeThreads = mergeThreads;
+        return this;
+    }
+
+    /**
+     * @return Number of words written to the output, or {@link #NO_LIMIT}
+     * */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Only writes the first words of the output in sort order. Every block keeps the words that can still make it
+     * in a bounded heap while it is read, see {@link TopBlock}, so an input with few enough words to keep usually
+     * fits in the first block and is never spilled, and the final pass stops once the output has enough words.
+     * Duplicates are handled like in any other run, except that in per-run mode the heap only keeps a word once.
+     *
+     * @param limit Number of words written to the output, at least 1, or {@link #NO_LIMIT}
+     *
+     * @return This instance for chaining
+     * */
+    public SortOptions setLimit(int limit) {
+        if (limit != NO_LIMIT && limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return Manifest the runs are recorded in as they are written and merged, or null
+     * */
+    JobManifest getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Records every run in a manifest, see {@link JobManifest}. Run generation records the blocks with their
+     * offsets in the tokenizer, so during run generation it is only set while a file is read by the nio tokenizer
+     * from {@link JobManifest#getInputOffset()}.
+     *
+     * @param checkpoint Manifest of the job, or null to record nothing
+     *
+     * @return This instance for chaining
+     * */
+    SortOptions setCheckpoint(JobManifest checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * A copy for one run of a sort, see {@link ExternalSorter#sort(SortJob)}: the same settings, with metrics of
+     * its own that notify the same listeners, so neither the run nor the settings it completes change this
+     * instance.
+     *
+     * @return A copy of the options with fresh metrics
+     * */
+    SortOptions copyForRun() {
+        SortOptions copy = new SortOptions();
+        copy.threads = threads;
+        copy.writerThreads = writerThreads;
+        copy.parallelSort = parallelSort;
+        copy.tokenizer = tokenizer;
+        copy.runBuffer = runBuffer;
+        copy.sortEngine = sortEngine;
+        copy.merger = merger;
+        copy.maxMergeFanIn = maxMergeFanIn;
+        copy.mergeMemory = mergeMemory;
+        copy.prefetchRuns = prefetchRuns;
+        copy.runCodec = runCodec;
+        copy.inputMode = inputMode;
+        copy.runGenerator = runGenerator;
+        copy.adaptiveBlockSize = adaptiveBlockSize;
+        copy.duplicates = duplicates;
+        copy.emitCounts = emitCounts;
+        copy.metrics = metrics.newRun();
+        copy.executor = executor;
+        copy.outputSync = outputSync;
+        copy.mergeThreads = mergeThreads;
+        copy.limit = limit;
+        copy.checkpoint = checkpoint;
+        return copy;
+    }
+
+    /**
+     * @return Whether the temp files hold the count of every word
+     * */
+    boolean isCounted() {
+        return DUPLICATES_COUNT.equals(duplicates);
+    }
+
+    /**
+     * The read buffer size of each temp file in a merge pass: an equal share of the merge memory, kept
+     * between {@link #MIN_RUN_BUFFER_SIZE} and {@link #MAX_RUN_BUFFER_SIZE}. Without merge memory every
+     * temp file gets {@link WordTokenizer#RUN_BUFFER_SIZE}.
+     *
+     * @param runs Number of read buffers used in the pass
+     *
+     * @return The read buffer size per temp file
+     * */
+    public int getRunBufferSize(int runs) {
+        if (mergeMemory == 0) {
+            return WordTokenizer.RUN_BUFFER_SIZE;
+        }
+        long share = mergeMemory / Math.max(1, runs);
+        return (int) Math.max(MIN_RUN_BUFFER_SIZE, Math.min(MAX_RUN_BUFFER_SIZE, share));
+    }
+
+    /**
+     * The number of blocks that may be held in memory at the same time during run generation.
+     * In serial mode this is the single block being read. In pipelined mode every sorting and
+     * writing thread may hold a block, and the reader only fills a new block once one of those
+     * has been spilled, so the total never exceeds the sum of both pools.
+     *
+     * @return The maximum number of blocks in memory at once
+     * */
+    public int getInFlightBlocks() {
+        return threads <= 1 ? 1 : threads + writerThreads;
+    }
+}
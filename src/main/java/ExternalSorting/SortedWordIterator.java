@@ -0,0 +1,103 @@
+package ExternalSorting;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+* Lazy iterator over the final merge of sorted temp files, created by
+* {@link FileSorter#iterateSortedTempFiles(Comparator, List, SortOptions)}.
+*
+* Words are merged only as they are asked for, so the sorted output never has to be written anywhere. The runs
+* stay open until the last word is read or the iterator is closed, and I/O errors are thrown as
+* java.io.UncheckedIOException like the {@link WordTokenizer} does. The temp files are not deleted.
+* */
+public class SortedWordIterator implements Iterator<String>, Closeable {
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final RunMerger merger;
+    private final SortMetrics metrics;
+    private boolean finished;
+
+    /**
+    * @param comparator Comparator the runs are sorted with
+    * @param runs Runs of the final pass, no more than the fan-in
+    * @param options Options the runs were written with, their metrics are in the merge phase
+    *
+    * @throws IOException If unable to open a run
+    * */
+    SortedWordIterator(Comparator<String> comparator, List<File> runs, SortOptions options) throws IOException {
+        this.metrics = options.getMetrics();
+        this.merger = new RunMerger(comparator, runs, new WordSink() {
+            @Override
+            public void write(String word) {
+                pending.add(word);
+            }
+
+            @Override
+            public void close() {
+                // the words are pulled by the iterator
+            }
+        }, options, true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            // a group of duplicates is only written once the next group starts, or the merge ends
+            while (pending.isEmpty() && !finished) {
+                if (!merger.mergeNext()) {
+                    finish();
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pending.poll();
+    }
+
+    /**
+    * @return A sequential stream of the words left, closing the stream closes the iterator
+    * */
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    private void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            merger.close();
+        } finally {
+            metrics.phaseFinished(SortMetrics.Phase.MERGE);
+        }
+    }
+
+    /**
+    * Closes the runs, the words not read yet are dropped.
+    * */
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package ExternalSorting;
+
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+
+/**
+* The original temp file layout: one word per line in the platform charset.
+* */
+class TextRunCodec implements RunCodec {
+
+    @Override
+    public WordSink newWriter(File file) throws IOException {
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file)),
+                WordTokenizer.RUN_BUFFER_SIZE);
+        return new WordSink() {
+            @Override
+            public void write(String word) throws IOException {
+                fileWriter.write(word);
+                fileWriter.newLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                fileWriter.close();
+            }
+        };
+    }
+
+    @Override
+    public WordTokenizer newReader(File file, String tokenizer, int bufferSize, ExecutorService ioExecutor)
+        throws IOException {
+        return WordTokenizer.open(file, tokenizer, bufferSize, ioExecutor);
+    }
+}
@@ -0,0 +1,130 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+* {@link RunBlock} of the limit mode, see {@link SortOptions#setLimit(int)}: only the first limit words in sort
+* order are kept, in a heap whose head is the last of them, so a word read costs a comparison with the head and,
+* only if it takes the place of the head, log(limit) more. A word dropped sorts after every word kept, so it can
+* never come back, and the count of a word kept is complete.
+*
+* The heap holds the {@link SortKey} of every word kept, computed once when the word is read, so neither the word
+* read nor the words kept are keyed again by a comparison. The words are java.lang.String objects sized like in a
+* {@link WordListBlock}, plus their key unless it is the word itself. Unless duplicates are kept, a word already
+* in the heap is only counted.
+* */
+class TopBlock implements RunBlock {
+    private final int limit;
+    private final Comparator<String> comparator;
+    private final WordOrdering ordering;
+    private final boolean counted;
+    private final PriorityQueue<SortKey> heap;
+    private final Map<String, long[]> kept;
+    private List<String> sortedWords;
+    private long size;
+
+    /**
+    * @param limit Number of words kept
+    * @param comparator Comparator the words are sorted with
+    * @param duplicates One of the duplicate modes of {@link SortOptions#setDuplicates(String)}
+    * */
+    TopBlock(int limit, Comparator<String> comparator, String duplicates) {
+        this.limit = limit;
+        this.comparator = comparator;
+        this.ordering = comparator instanceof WordOrdering ? (WordOrdering) comparator : null;
+        this.counted = SortOptions.DUPLICATES_COUNT.equals(duplicates);
+        // the head is the last word kept, the first one to drop
+        this.heap = new PriorityQueue<>(Math.min(limit, 1 << 16), (a, b) -> compare(b, a));
+        this.kept = SortOptions.DUPLICATES_KEEP_ALL.equals(duplicates) ? null : new HashMap<>();
+    }
+
+    @Override
+    public void add(String word) {
+        if (kept != null) {
+            long[] count = kept.get(word);
+            if (count != null) {
+                count[0]++;
+                return; // a repeated word only costs its count
+            }
+        }
+        SortKey key = keyOf(word);
+        if (heap.size() == limit) {
+            if (compare(key, heap.peek()) >= 0) {
+                return;
+            }
+            SortKey dropped = heap.poll();
+            if (kept != null) {
+                kept.remove(dropped.getWord());
+            }
+            size -= getEstimatedSize(dropped);
+        }
+        heap.add(key);
+        if (kept != null) {
+            kept.put(word, new long[] {1});
+        }
+        size += getEstimatedSize(key);
+    }
+
+    /**
+    * @return The key of the word, or the word alone if the comparator is not a {@link WordOrdering}
+    * */
+    private SortKey keyOf(String word) {
+        return ordering != null ? ordering.keyOf(word) : new SortKey(word, 0, null);
+    }
+
+    private int compare(SortKey a, SortKey b) {
+        return ordering != null ? ordering.compareKeys(a, b) : comparator.compare(a.getWord(), b.getWord());
+    }
+
+    private static long getEstimatedSize(SortKey key) {
+        long size = FileSorter.getEstimatedStringSize(key.getWord());
+        if (key.getKey() != null && key.getKey() != key.getWord()) {
+            size += FileSorter.getEstimatedStringSize(key.getWord());
+        }
+        return size;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return sortedWords != null ? sortedWords.size() : heap.size();
+    }
+
+    @Override
+    public void sort(Comparator<String> comparator, SortOptions options) {
+        List<String> words = new ArrayList<>(heap.size());
+        for (SortKey key : heap) {
+            words.add(key.getWord());
+        }
+        sortedWords = ChunkSortEngine.forName(options.getSortEngine())
+                .sort(words, comparator, options.isParallelSort());
+        heap.clear();
+    }
+
+    @Override
+    public File save(File tmpDirectory) throws IOException {
+        if (!counted) {
+            return FileSorter.saveTempFile(sortedWords, tmpDirectory);
+        }
+        try (RunWriter runWriter = new RunWriter(tmpDirectory)) {
+            writeTo(runWriter);
+            return runWriter.getFile();
+        }
+    }
+
+    @Override
+    public void writeTo(WordSink sink) throws IOException {
+        for (String word : sortedWords) {
+            sink.write(word);
+            if (counted) {
+                sink.write(Long.toString(kept.get(word)[0]));
+            }
+        }
+    }
+}
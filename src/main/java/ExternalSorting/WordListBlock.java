@@ -0,0 +1,93 @@
+package ExternalSorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+* The original {@link RunBlock}: distinct words are kept as java.lang.String objects in a HashSet
+* and copied to a list to be sorted. The size of every word is estimated with
+* {@link FileSorter#getEstimatedStringSize(String)}, plus {@link MemoryBudget#getWordEntryOverhead(String)} for
+* its entry in the set and its share of the sort.
+*
+* Depending on the duplicate mode, all words are kept in a list instead, or every distinct word is
+* kept with its number of occurrences and written followed by its count.
+* */
+class WordListBlock implements RunBlock {
+    private final boolean counted;
+    private final int entryOverhead;
+    private Collection<String> words;
+    private Map<String, long[]> counts;
+    private List<String> sortedWords;
+    private long size;
+
+    WordListBlock() {
+        this(SortOptions.DUPLICATES_PER_RUN);
+    }
+
+    /**
+    * @param duplicates One of the duplicate modes of {@link SortOptions#setDuplicates(String)}
+    * */
+    WordListBlock(String duplicates) {
+        this.counted = SortOptions.DUPLICATES_COUNT.equals(duplicates);
+        this.entryOverhead = MemoryBudget.getWordEntryOverhead(duplicates);
+        if (counted) {
+            counts = new HashMap<>();
+        } else {
+            words = SortOptions.DUPLICATES_KEEP_ALL.equals(duplicates) ? new ArrayList<>() : new HashSet<>();
+        }
+    }
+
+    @Override
+    public void add(String word) {
+        if (counted) {
+            long[] count = counts.get(word);
+            if (count != null) {
+                count[0]++;
+                return; // a repeated word only costs its count
+            }
+            counts.put(word, new long[] {1});
+        } else if (!words.add(word)) {
+            return; // a duplicate is not kept
+        }
+        size += FileSorter.getEstimatedStringSize(word) + entryOverhead;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return sortedWords != null ? sortedWords.size() : counted ? counts.size() : words.size();
+    }
+
+    @Override
+    public void sort(Comparator<String> comparator, SortOptions options) {
+        sortedWords = ChunkSortEngine.forName(options.getSortEngine())
+                .sort(new ArrayList<>(counted ? counts.keySet() : words), comparator, options.isParallelSort());
+        words = null; // the set is not needed anymore, let it be collected before the block is saved
+    }
+
+    @Override
+    public File save(File tmpDirectory) throws IOException {
+        if (!counted) {
+            return FileSorter.saveTempFile(sortedWords, tmpDirectory);
+        }
+        try (RunWriter runWriter = new RunWriter(tmpDirectory)) {
+            writeTo(runWriter);
+            return runWriter.getFile();
+        }
+    }
+
+    @Override
+    public void writeTo(WordSink sink) throws IOException {
+        for (String word : sortedWords) {
+            sink.write(word);
+            if (counted) {
+                sink.write(Long.toString(counts.get(word)[0]));
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package ExternalSorting;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+* A word comparator that can also compare precomputed {@link SortKey}s.
+*
+* Comparing two words as strings, e.g. with a.toLowerCase().compareTo(b.toLowerCase()), allocates
+* on every call. When the sorter is given a WordOrdering it instead computes one key per word as the
+* word is sorted or read back from a temp file, and only compares keys from then on. Used as a plain
+* Comparator it still works, just without that benefit.
+* */
+public abstract class WordOrdering implements Comparator<String> {
+    /** Compares words ignoring case, the default ordering */
+    public static final String CASE_INSENSITIVE = "case-insensitive";
+    /** Compares words by their UTF-16 chars */
+    public static final String CASE_SENSITIVE = "case-sensitive";
+    /** Prefix of a locale collation, followed by a language tag, e.g. locale:de-DE */
+    public static final String LOCALE_PREFIX = "locale:";
+
+    private final boolean descending;
+
+    protected WordOrdering(boolean descending) {
+        this.descending = descending;
+    }
+
+    /**
+    * Computes the key of a word. Implementations must be safe to call from several threads.
+    *
+    * @param word The word
+    *
+    * @return The key of the word
+    * */
+    public abstract SortKey keyOf(String word);
+
+    /**
+    * @return The same ordering in the opposite direction
+    * */
+    @Override
+    public abstract WordOrdering reversed();
+
+    /**
+    * @return True if this ordering sorts from largest to smallest key
+    * */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+    * Compares two keys computed by this ordering.
+    *
+    * @param a First key
+    * @param b Second key
+    *
+    * @return A negative, zero or positive number as a sorts before, with or after b
+    * */
+    public int compareKeys(SortKey a, SortKey b) {
+        return descending ? b.compareAscending(a) : a.compareAscending(b);
+    }
+
+    @Override
+    public int compare(String a, String b) {
+        return compareKeys(keyOf(a), keyOf(b));
+    }
+
+    /**
+    * @param word The word
+    *
+    * @return The packed prefix of the key of the word, the same as keyOf(word).getPrefix()
+    * */
+    long prefixOf(String word) {
+        return keyOf(word).getPrefix();
+    }
+
+    /**
+    * Creates an ordering from its configuration name.
+    *
+    * @param name {@link #CASE_INSENSITIVE}, {@link #CASE_SENSITIVE} or {@link #LOCALE_PREFIX} followed by
+    *             a language tag
+    * @param descending True to sort from largest to smallest
+    *
+    * @return The ordering
+    * */
+    public static WordOrdering forName(String name, boolean descending) {
+        if (CASE_INSENSITIVE.equals(name)) {
+            return new CaseFolded(true, descending);
+        } else if (CASE_SENSITIVE.equals(name)) {
+            return new CaseFolded(false, descending);
+        } else if (name != null && name.startsWith(LOCALE_PREFIX)) {
+            return new Collated(Locale.forLanguageTag(name.substring(LOCALE_PREFIX.length())), descending);
+        }
+        throw new IllegalArgumentException("Unknown collation: " + name);
+    }
+
+    /**
+    * Compares words by their chars, optionally after lower casing them with the default locale,
+    * which is exactly what String#toLowerCase and String#compareTo do.
+    *
+    * Comparing two words and packing a prefix do not allocate when the words need no folding or are ASCII, which
+    * is lower cased char by char unless the default locale lower cases I differently, e.g. tr.
+    * */
+    static final class CaseFolded extends WordOrdering {
+        private final boolean ignoreCase;
+        private final boolean asciiFolds;
+
+        CaseFolded(boolean ignoreCase, boolean descending) {
+            super(descending);
+            this.ignoreCase = ignoreCase;
+            this.asciiFolds = !ignoreCase || "I".toLowerCase().equals("i");
+        }
+
+        boolean isIgnoreCase() {
+            return ignoreCase;
+        }
+
+        /**
+        * @return The string whose chars are compared for this word
+        * */
+        String fold(String word) {
+            return ignoreCase ? word.toLowerCase() : word;
+        }
+
+        @Override
+        public SortKey keyOf(String word) {
+            String key = fold(word);
+            return new SortKey(word, SortKey.packChars(key), key);
+        }
+
+        @Override
+        public int compare(String a, String b) {
+            if (!canFoldInPlace(a) || !canFoldInPlace(b)) {
+                return super.compare(a, b);
+            }
+            int length = Math.min(a.length(), b.length());
+            int cmp = a.length() - b.length();
+            for (int i = 0; i < length; i++) {
+                int charA = a.charAt(i), charB = b.charAt(i);
+                if (ignoreCase) {
+                    charA = RunBuffer.toLowerCase(charA);
+                    charB = RunBuffer.toLowerCase(charB);
+                }
+                if (charA != charB) {
+                    cmp = charA - charB;
+                    break;
+                }
+            }
+            return isDescending() ? -cmp : cmp;
+        }
+
+        @Override
+        long prefixOf(String word) {
+            if (!canFoldInPlace(word)) {
+                return super.prefixOf(word);
+            }
+            long packed = 0;
+            for (int i = 0; i < 4; i++) {
+                int c = i < word.length() ? word.charAt(i) : 0;
+                packed = (packed << 16) | (ignoreCase ? RunBuffer.toLowerCase(c) : c);
+            }
+            return packed;
+        }
+
+        /**
+        * @return True if the folded word is the word with its ASCII letters lower cased
+        * */
+        private boolean canFoldInPlace(String word) {
+            if (!ignoreCase) {
+                return true;
+            }
+            if (!asciiFolds) {
+                return false;
+            }
+            for (int i = 0; i < word.length(); i++) {
+                if (word.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public WordOrdering reversed() {
+            return new CaseFolded(ignoreCase, !isDescending());
+        }
+    }
+
+    /**
+    * Compares words with the java.text.Collator of a locale. Collators are not thread safe, so every
+    * thread gets its own copy.
+    * */
+    static final class Collated extends WordOrdering {
+        private final Locale locale;
+        private final ThreadLocal<Collator> collator;
+
+        Collated(Locale locale, boolean descending) {
+            super(descending);
+            this.locale = locale;
+            this.collator = ThreadLocal.withInitial(() -> Collator.getInstance(locale));
+        }
+
+        @Override
+        public SortKey keyOf(String word) {
+            CollationKey key = collator.get().getCollationKey(word);
+            return new SortKey(word, SortKey.packBytes(key.toByteArray()), key);
+        }
+
+        @Override
+        public WordOrdering reversed() {
+            return new Collated(locale, !isDescending());
+        }
+    }
+}
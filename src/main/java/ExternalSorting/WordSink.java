@@ -0,0 +1,34 @@
+package ExternalSorting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+* Destination of the merged words, either the final output file or an intermediate sorted temp file.
+* */
+public interface WordSink extends Closeable {
+    /**
+    * Writes the next word in sorted order.
+    *
+    * @param word The word
+    *
+    * @throws IOException If unable to write
+    * */
+    void write(String word) throws IOException;
+
+    /**
+    * Writes the next word in sorted order while it is still encoded. Sinks that write bytes override
+    * this to avoid decoding the word at all.
+    *
+    * @param bytes Buffer holding the encoded word
+    * @param offset Offset of the word in the buffer
+    * @param length Length of the word in bytes
+    * @param charset Charset the word is encoded in
+    *
+    * @throws IOException If unable to write
+    * */
+    default void write(byte[] bytes, int offset, int length, Charset charset) throws IOException {
+        write(new String(bytes, offset, length, charset));
+    }
+}
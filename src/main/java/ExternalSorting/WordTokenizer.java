@@ -0,0 +1,182 @@
+package ExternalSorting;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+
+/**
+* Splits a source of text into whitespace separated words.
+*
+* This mirrors the small part of java.util.Scanner that the sorter actually needs, so the regex based
+* scanner can be swapped for the byte level {@link NioWordTokenizer}. I/O errors are thrown as
+* java.io.UncheckedIOException since, unlike java.util.Scanner, a tokenizer should never hide them.
+* */
+public interface WordTokenizer extends Closeable {
+    /** Fast byte level tokenizer, used whenever the charset allows it */
+    String NIO = "nio";
+    /** java.util.Scanner based tokenizer, for exotic charsets */
+    String SCANNER = "scanner";
+
+    /** Buffer size used to read large input files */
+    int INPUT_BUFFER_SIZE = 1 << 20;
+    /** Buffer size used per sorted temp file, many of these are open at once while merging */
+    int RUN_BUFFER_SIZE = 1 << 16;
+
+    /**
+    * @return True if there is another word to read
+    * */
+    boolean hasNext();
+
+    /**
+    * @return The next word
+    *
+    * @throws java.util.NoSuchElementException If there are no more words
+    * */
+    String next();
+
+    /**
+    * Reads the next word straight into a run block. Tokenizers that work on bytes override this
+    * to hand the encoded word to the block without creating a String.
+    *
+    * @param block Block to add the word to
+    *
+    * @return False if there are no more words
+    * */
+    default boolean nextInto(RunBlock block) {
+        if (!hasNext()) {
+            return false;
+        }
+        block.add(next());
+        return true;
+    }
+
+    /**
+    * @return Bytes of input consumed so far, or -1 if the tokenizer cannot tell
+    * */
+    default long getBytesRead() {
+        return -1;
+    }
+
+    /**
+    * @return Estimated size in bytes of the whole input as it is tokenized, e.g. once decompressed, for an input
+    *         whose size is not known up front, or -1 if the tokenizer cannot tell
+    * */
+    default long getEstimatedSize() {
+        return -1;
+    }
+
+    @Override
+    void close();
+
+    /**
+    * The byte level tokenizer only looks for ASCII whitespace bytes, which is only safe if no multi
+    * byte character of the charset can contain such a byte. This holds for UTF-8 and for the common
+    * single byte charsets.
+    *
+    * @param charset Charset of the text to tokenize
+    *
+    * @return True if the charset can be tokenized at byte level
+    * */
+    static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1) || charset.name().startsWith("windows-125");
+    }
+
+    /**
+    * Opens a tokenizer on a file written in the platform default charset, the same charset
+    * java.util.Scanner and the temp file writers use.
+    *
+    * @param file File to tokenize
+    * @param tokenizer Either {@link #NIO} or {@link #SCANNER}. The nio tokenizer falls back
+    *                  to the scanner if the default charset is not ASCII compatible
+    * @param bufferSize Size of the read buffer of the nio tokenizer
+    *
+    * @return A tokenizer for the file
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    static WordTokenizer open(File file, String tokenizer, int bufferSize) throws IOException {
+        return open(file, tokenizer, bufferSize, null);
+    }
+
+    /**
+    * Same as {@link #open(File, String, int)}, but the nio tokenizer reads ahead on an I/O executor
+    * through a {@link PrefetchingChannel}, which holds a second buffer of the same size.
+    *
+    * @param file File to tokenize
+    * @param tokenizer Either {@link #NIO} or {@link #SCANNER}
+    * @param bufferSize Size of the read buffer and of the read ahead buffer
+    * @param ioExecutor Executor that reads ahead, or null to read on the calling thread
+    *
+    * @return A tokenizer for the file
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    static WordTokenizer open(File file, String tokenizer, int bufferSize, ExecutorService ioExecutor)
+        throws IOException {
+        Charset charset = Charset.defaultCharset();
+        if (SCANNER.equals(tokenizer) || !isAsciiCompatible(charset)) {
+            return new ScannerWordTokenizer(new Scanner(file));
+        }
+        if (!NIO.equals(tokenizer)) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + tokenizer);
+        }
+        FileInputStream in = new FileInputStream(file);
+        ReadableByteChannel channel = ioExecutor != null
+                ? new PrefetchingChannel(in.getChannel(), bufferSize, ioExecutor) : in.getChannel();
+        return new NioWordTokenizer(channel, charset, bufferSize);
+    }
+
+    /**
+    * Opens the nio tokenizer on a file from an offset, e.g. to go on reading where a stopped job was, see
+    * {@link JobManifest}. The offset must be at the start or end of a word.
+    *
+    * @param file File to tokenize
+    * @param bufferSize Size of the read buffer
+    * @param position Offset of the file to read from
+    *
+    * @return A tokenizer for the rest of the file, whose bytes read are counted from the offset
+    *
+    * @throws IOException If the file cannot be opened
+    * */
+    static WordTokenizer open(File file, int bufferSize, long position) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(position);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return new NioWordTokenizer(in.getChannel(), Charset.defaultCharset(), bufferSize);
+    }
+
+    /**
+    * Same as {@link #open(File, String, int)} but for a stream of unknown length, e.g. a socket or the
+    * standard input.
+    *
+    * @param in Stream of text in the platform default charset, it is closed with the tokenizer
+    * @param tokenizer Either {@link #NIO} or {@link #SCANNER}
+    * @param bufferSize Size of the read buffer of the nio tokenizer
+    *
+    * @return A tokenizer for the stream
+    * */
+    static WordTokenizer open(InputStream in, String tokenizer, int bufferSize) {
+        Charset charset = Charset.defaultCharset();
+        if (SCANNER.equals(tokenizer) || !isAsciiCompatible(charset)) {
+            return new ScannerWordTokenizer(new Scanner(in, charset.name()));
+        }
+        if (!NIO.equals(tokenizer)) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + tokenizer);
+        }
+        return new NioWordTokenizer(Channels.newChannel(in), charset, bufferSize);
+    }
+
+}
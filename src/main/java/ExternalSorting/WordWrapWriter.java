@@ -0,0 +1,38 @@
+package ExternalSorting;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/**
+* {@link WordSink} for the final output file. Words are separated by a space and a new line
+* is started after every wordWrap words.
+* */
+public class WordWrapWriter implements WordSink {
+    private final BufferedWriter fileWriter;
+    private final int wordWrap;
+    private int counter;
+
+    /**
+    * @param fileWriter Writer for the output file, closed with the sink
+    * @param wordWrap Number of words before wrapping to a new line
+    * */
+    public WordWrapWriter(BufferedWriter fileWriter, int wordWrap) {
+        this.fileWriter = fileWriter;
+        this.wordWrap = wordWrap;
+    }
+
+    @Override
+    public void write(String word) throws IOException {
+        fileWriter.write(word);
+        fileWriter.write(" ");
+        if (++counter >= wordWrap) { // wrap line after wordWrap words per line
+            fileWriter.newLine();
+            counter = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileWriter.close();
+    }
+}
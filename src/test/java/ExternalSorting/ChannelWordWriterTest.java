@@ -0,0 +1,89 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChannelWordWriterTest {
+
+    private static final String[] words = {"Lorem", "ipsum", "\u00e9t\u00e9", "dolor", "sit", "amet",
+            "consectetur", "adipiscing", "elit", "Stra\u00dfe", "sed", "do", "eiusmod"};
+
+    @Test
+    public void shouldWriteTheLayoutOfTheWordWrapWriter_WhenFlushingOftenAndForcing() throws IOException {
+        /*
+         * Given ASCII and non ASCII words, some as UTF-8 bytes, and a buffer smaller than some words
+         * When they are written through the channel writer with a word wrap of 4 and forced on every flush
+         * Then the file should hold the same bytes as the word wrap writer writes
+         * */
+        // Arrange
+        File expectedFile = File.createTempFile("test_output", ".txt", null);
+        expectedFile.deleteOnExit();
+        File actualFile = File.createTempFile("test_output", ".txt", null);
+        actualFile.deleteOnExit();
+
+        // Act
+        try (WordWrapWriter expected = new WordWrapWriter(new BufferedWriter(new FileWriter(expectedFile)), 4);
+             ChannelWordWriter actual = new ChannelWordWriter(FileChannel.open(actualFile.toPath(),
+                     StandardOpenOption.WRITE), Charset.defaultCharset(), 4, SortOptions.SYNC_FLUSH, 8)) {
+            for (int i = 0; i < 5; i++) {
+                for (String word : words) {
+                    byte[] utf8 = word.getBytes(StandardCharsets.UTF_8);
+                    if (i % 2 == 0) {
+                        expected.write(word);
+                        actual.write(word);
+                    } else {
+                        expected.write(utf8, 0, utf8.length, StandardCharsets.UTF_8);
+                        actual.write(utf8, 0, utf8.length, StandardCharsets.UTF_8);
+                    }
+                }
+            }
+        }
+
+        // Assert
+        assertArrayEquals(Files.readAllBytes(expectedFile.toPath()), Files.readAllBytes(actualFile.toPath()));
+    }
+
+    @Test
+    public void shouldWriteOneWordPerLine_WhenTheWordWrapIsZero() throws IOException {
+        /*
+         * Given a word wrap of 0, which the word wrap writer takes as one word per line
+         * When words are written through the channel writer, from the start and as a segment of a larger output
+         * Then every word should be on a line of its own
+         * */
+        // Arrange
+        File file = File.createTempFile("test_output", ".txt", null);
+        file.deleteOnExit();
+        File segment = File.createTempFile("test_output", ".txt", null);
+        segment.deleteOnExit();
+
+        // Act
+        try (ChannelWordWriter writer = new ChannelWordWriter(FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE), Charset.defaultCharset(), 0, SortOptions.SYNC_NONE);
+             ChannelWordWriter segmentWriter = new ChannelWordWriter(FileChannel.open(segment.toPath(),
+                     StandardOpenOption.WRITE), Charset.defaultCharset(), 0, SortOptions.SYNC_NONE,
+                     ChannelWordWriter.OUTPUT_BUFFER_SIZE, 5)) {
+            writer.write("Lorem");
+            writer.write("ipsum");
+            segmentWriter.write("dolor");
+        }
+
+        // Assert
+        String separator = System.lineSeparator();
+        assertEquals("Lorem " + separator + "ipsum " + separator,
+                new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset()));
+        assertEquals("dolor " + separator, new String(Files.readAllBytes(segment.toPath()), Charset.defaultCharset()));
+    }
+
+    @Test
+    public void shouldThrowAnException_WhenGivenAnUnknownSync() {
+        assertThrows(IllegalArgumentException.class, () -> new SortOptions().setOutputSync("always"));
+    }
+}
@@ -0,0 +1,182 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExternalSorterTest {
+
+    private static final String[] sampleData = {"Lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore",
+            "et", "dolore", "magna", "aliqua", "Ut", "enim", "ad", "minim", "veniam"};
+    private static final String[] EXPECTED_SORTED_ASC = {"ad", "adipiscing", "aliqua", "amet", "consectetur", "do",
+            "dolor", "dolore", "eiusmod", "elit", "enim", "et", "incididunt", "ipsum", "labore", "Lorem",
+            "magna", "minim", "sed", "sit", "tempor", "ut", "Ut", "veniam"};
+
+    @Test
+    public void shouldSortAFile_WhenGivenAJob() throws Exception {
+        /*
+         * Given a sorter and a job for an unsorted input file
+         * When the job is run
+         * Then the output should hold the sorted words and the job temp directory should be gone
+         * */
+        // Arrange
+        Path tmpDirectory = Files.createTempDirectory("sorter");
+        Path input = writeInput(String.join(" ", sampleData));
+        Path output = Files.createTempFile("test_output", ".txt");
+        output.toFile().deleteOnExit();
+
+        // Act
+        SortMetrics metrics;
+        try (ExternalSorter sorter = ExternalSorter.builder().threads(2).memory(1 << 24)
+                .tmpDirectory(tmpDirectory).build()) {
+            metrics = sorter.sort(SortJob.builder().input(input).output(output).build());
+        }
+
+        // Assert
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC) + " ", new String(Files.readAllBytes(output)).trim() + " ");
+        assertEquals(sampleData.length, metrics.getWordsRead());
+        assertEquals(0, tmpDirectory.toFile().list().length);
+        tmpDirectory.toFile().delete();
+    }
+
+    @Test
+    public void shouldRunJobsConcurrently_WhenSharingTheExecutorAndMemoryPool() throws Exception {
+        /*
+         * Given a sorter whose memory pool fits two jobs at once and more jobs than that
+         * When every job is submitted with small blocks and several threads
+         * Then every output should be sorted and every reservation returned to the pool
+         * */
+        // Arrange
+        List<SortJob> jobs = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            StringBuilder words = new StringBuilder();
+            for (int n = 0; n < 20; n++) {
+                words.append(String.join(" ", sampleData)).append(System.lineSeparator());
+            }
+            Path output = Files.createTempFile("test_output", ".txt");
+            output.toFile().deleteOnExit();
+            outputs.add(output);
+            jobs.add(SortJob.builder().input(writeInput(words.toString())).output(output).memoryBudget(1 << 12)
+                    .options(new SortOptions().setRunBuffer(SortOptions.RUN_BUFFER_PACKED)).threads(3).build());
+        }
+
+        // Act
+        List<SortMetrics> metrics = new ArrayList<>();
+        ExternalSorter sorter = ExternalSorter.builder().threads(2).maxConcurrentJobs(3).memory(1 << 13).build();
+        try {
+            List<Future<SortMetrics>> results = new ArrayList<>();
+            for (SortJob job : jobs) {
+                results.add(sorter.submit(job));
+            }
+            for (Future<SortMetrics> result : results) {
+                metrics.add(result.get());
+            }
+        } finally {
+            sorter.close();
+        }
+
+        // Assert
+        for (int i = 0; i < jobs.size(); i++) {
+            assertTrue(metrics.get(i).getRunsCreated() > 1);
+            List<String> words = new ArrayList<>();
+            for (String line : Files.readAllLines(outputs.get(i))) {
+                words.addAll(Arrays.asList(line.trim().split(" ")));
+            }
+            assertEquals(20 * sampleData.length, words.size());
+            List<String> sorted = new ArrayList<>(words);
+            sorted.sort(String.CASE_INSENSITIVE_ORDER);
+            assertEquals(sorted, words);
+        }
+        assertEquals(1 << 13, sorter.getMemoryPool().getAvailable());
+    }
+
+    @Test
+    public void shouldSortStreamsAndIterators_WhenGivenAJobWithoutFiles() throws Exception {
+        /*
+         * Given a job reading a stream into a stream and a job reading an iterator into a callback
+         * When both jobs are run
+         * Then the output stream and the callback should get the sorted words
+         * */
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SortJob streamJob = SortJob.builder()
+                .input(new ByteArrayInputStream(String.join(" ", sampleData).getBytes()))
+                .output(out).build();
+        List<String> consumed = new ArrayList<>();
+        SortJob iteratorJob = SortJob.builder()
+                .input(Arrays.asList(sampleData).iterator())
+                .output(consumed::add).build();
+
+        // Act
+        try (ExternalSorter sorter = ExternalSorter.builder().threads(2).memory(1 << 24).build()) {
+            sorter.sort(streamJob);
+            sorter.sort(iteratorJob);
+        }
+
+        // Assert
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC), out.toString().trim());
+        assertEquals(Arrays.asList(EXPECTED_SORTED_ASC), consumed);
+    }
+
+    @Test
+    public void shouldThrowAnException_WhenAJobNeedsMoreThanThePool() throws Exception {
+        // Arrange
+        Path input = writeInput(String.join(" ", sampleData));
+        SortJob job = SortJob.builder().input(input).output(input).memoryBudget(1 << 20).build();
+
+        // Act and Assert
+        try (ExternalSorter sorter = ExternalSorter.builder().memory(1 << 10).build()) {
+            assertThrows(IllegalArgumentException.class, () -> sorter.sort(job));
+        }
+        assertThrows(IllegalArgumentException.class, () -> SortJob.builder().input(input).build());
+    }
+
+    @Test
+    public void shouldReportEveryRunOnItsOwn_WhenAJobIsRunTwice() throws Exception {
+        /*
+         * Given a job for an input file with options of its own
+         * When the job is run twice
+         * Then every run should report its own metrics and the options should be left as they were
+         * */
+        // Arrange
+        Path input = writeInput(String.join(" ", sampleData));
+        Path output = Files.createTempFile("test_output", ".txt");
+        output.toFile().deleteOnExit();
+        SortOptions options = new SortOptions();
+        SortJob job = SortJob.builder().input(input).output(output).options(options).build();
+
+        // Act
+        SortMetrics first;
+        SortMetrics second;
+        try (ExternalSorter sorter = ExternalSorter.builder().threads(2).memory(1 << 24).build()) {
+            first = sorter.sort(job);
+            second = sorter.sort(job);
+        }
+
+        // Assert
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC), new String(Files.readAllBytes(output)).trim());
+        assertNotSame(first, second);
+        assertEquals(sampleData.length, first.getWordsRead());
+        assertEquals(sampleData.length, second.getWordsRead());
+        assertEquals(0, options.getMetrics().getWordsRead());
+        assertNull(options.getExecutor());
+        assertEquals(1, options.getThreads());
+    }
+
+    private static Path writeInput(String words) throws IOException {
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(tempInputFile))) {
+            fileWriter.write(words);
+        }
+        return tempInputFile.toPath();
+    }
+}
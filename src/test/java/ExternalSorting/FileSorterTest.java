@@ -3,8 +3,11 @@ package ExternalSorting;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -79,6 +82,26 @@ public class FileSorterTest {
         assertEquals(actualMessage, expectedMessage);
     }
 
+    @Test
+    public void shouldShareFreeMemoryBetweenInFlightBlocks() throws Exception {
+        /*
+         * When an estimate is made for several blocks held in memory at once
+         * Then each block should only get its share of the free memory
+         *  and it should throw an exception if the share is too small for maxTmpFiles
+         * */
+        // Arrange
+        long freeMemory = 1200000;
+
+        // Act
+        long singleBlockSize = FileSorter.getEstimatedBlockSize(1000, 1024, freeMemory, 1);
+        long sharedBlockSize = FileSorter.getEstimatedBlockSize(1000, 1024, freeMemory, 6);
+
+        // Assert
+        assertEquals(FileSorter.getEstimatedBlockSize(1000, 1024, freeMemory), singleBlockSize);
+        assertEquals(freeMemory / 6 / 2, sharedBlockSize);
+        assertThrows(Exception.class, () -> FileSorter.getEstimatedBlockSize(1024000, 1, freeMemory, 2));
+    }
+
     @Test
     public void shouldCorrectlyEstimateStringSize() {
         /*
@@ -157,6 +180,98 @@ public class FileSorterTest {
         assertArrayEquals(sorted.toArray(), EXPECTED_SORTED_DESC);
     }
 
+    @Test
+    public void shouldSortWithPrecomputedKeys_WhenGivenAWordOrdering() throws IOException {
+        /*
+         * Given an unsorted list of strings
+         * When sortAndSaveTempFile is called with a case insensitive word ordering
+         * Then should sort the list exactly like the lower casing comparators, in both orders
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+
+        // Act
+        File ascFile = FileSorter.sortAndSaveTempFile(new ArrayList<>(Arrays.asList(sampleData)), ascOrdering, null);
+        File descFile = FileSorter.sortAndSaveTempFile(new ArrayList<>(Arrays.asList(sampleData)),
+                ascOrdering.reversed(), null, true);
+
+        // Assert
+        List<String> ascSorted = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(ascFile))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                ascSorted.add(line);
+            }
+        }
+        List<String> descSorted = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(descFile))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                descSorted.add(line);
+            }
+        }
+        assertArrayEquals(EXPECTED_SORTED_ASC, ascSorted.toArray());
+        assertArrayEquals(EXPECTED_SORTED_DESC, descSorted.toArray());
+    }
+
+    @Test
+    public void shouldMergeSortedTempFiles_WhenGivenAWordOrdering() throws IOException {
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        List<File> tempFileList = new ArrayList<>();
+        tempFileList.add(FileSorter.sortAndSaveTempFile(Arrays.asList(sampleData), ascOrdering, null));
+        tempFileList.add(FileSorter.sortAndSaveTempFile(Arrays.asList(sampleMergeData), ascOrdering, null));
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempOutputFile)));
+
+        // Act
+        FileSorter.mergeSortedTempFiles(ascOrdering, tempFileList, fileWriter, 100);
+
+        // Assert
+        List<String> merged = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(tempOutputFile))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                merged.add(line);
+            }
+        }
+        assertArrayEquals(EXPECTED_MERGED, merged.toArray());
+    }
+
+    @Test
+    public void shouldMergeSortedTempFiles_WhenUsingLoserTree() throws IOException {
+        /*
+         * Given two sorted temp files
+         * When they are merged with the loser tree merger
+         * Then the output should be sorted, with words that only differ by case taken from the first file first
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        List<File> tempFileList = new ArrayList<>();
+        tempFileList.add(FileSorter.sortAndSaveTempFile(Arrays.asList(sampleData), ascOrdering, null));
+        tempFileList.add(FileSorter.sortAndSaveTempFile(Arrays.asList(sampleMergeData), ascOrdering, null));
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempOutputFile)));
+
+        // Act
+        FileSorter.mergeSortedTempFiles(ascOrdering, tempFileList, fileWriter, 100,
+                new SortOptions().setMerger(Merger.LOSER_TREE));
+
+        // Assert
+        List<String> merged = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(tempOutputFile))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                merged.add(line);
+            }
+        }
+        assertEquals(1, merged.size());
+        assertEquals(EXPECTED_MERGED[0].toLowerCase(), merged.get(0).toLowerCase());
+        assertTrue(merged.get(0).contains(" ut Ut ut "));
+    }
+
     @Test
     public void shouldMergeSortedTempFiles() throws IOException {
         // Arrange
@@ -225,6 +340,49 @@ public class FileSorterTest {
         assertTrue(merged.get(0).split(" ").length <= 1);
     }
 
+    @Test
+    public void shouldMergeSortedTempFilesInSeveralPasses_WhenRunsExceedMaxFanIn() throws IOException {
+        /*
+         * Given more sorted temp files than the max merge fan-in
+         * When they are deflated and merged while reading ahead
+         * Then the output should be the same as with a single merge pass and the merged runs deleted
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        List<String> words = new ArrayList<>(Arrays.asList(sampleData));
+        words.addAll(Arrays.asList(sampleMergeData));
+        List<File> singlePassRuns = new ArrayList<>();
+        List<File> multiPassRuns = new ArrayList<>();
+        for (int i = 0; i < words.size(); i += 7) {
+            List<String> run = words.subList(i, Math.min(words.size(), i + 7));
+            singlePassRuns.add(FileSorter.sortAndSaveTempFile(run, ascOrdering, null));
+            try (RunWriter runWriter = new RunWriter(null, RunCodec.forName(RunCodec.DEFLATE))) {
+                for (String word : FileSorter.sortChunk(new ArrayList<>(run), ascOrdering, false)) {
+                    runWriter.write(word);
+                }
+                multiPassRuns.add(runWriter.getFile());
+            }
+        }
+        File singlePassOutput = File.createTempFile("test_output", ".txt", null);
+        singlePassOutput.deleteOnExit();
+        File multiPassOutput = File.createTempFile("test_output", ".txt", null);
+        multiPassOutput.deleteOnExit();
+
+        // Act
+        FileSorter.mergeSortedTempFiles(ascOrdering, singlePassRuns,
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(singlePassOutput))), 10);
+        FileSorter.mergeSortedTempFiles(ascOrdering, multiPassRuns,
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(multiPassOutput))), 10,
+                new SortOptions().setMaxMergeFanIn(2).setMergeMemory(1 << 16).setPrefetchRuns(true)
+                        .setRunCodec(RunCodec.DEFLATE));
+
+        // Assert
+        assertTrue(multiPassRuns.size() > 2);
+        assertTrue(multiPassRuns.stream().filter(File::exists).count() <= 2);
+        assertEquals(new String(Files.readAllBytes(singlePassOutput.toPath())).toLowerCase(),
+                new String(Files.readAllBytes(multiPassOutput.toPath())).toLowerCase());
+    }
+
     @Test
     public void shouldCreateSortedTempFiles_WhenGivenUnsortedLargeFile() throws Exception {
         // Arrange
@@ -259,6 +417,398 @@ public class FileSorterTest {
         }
     }
 
+    @Test
+    public void shouldCreateSortedTempFilesConcurrently_WhenGivenMultipleThreads() throws Exception {
+        /*
+         * Given an unsorted file and a block size small enough to produce several runs
+         * When createSortedTempFiles is called with several sorting threads
+         * Then every run should be sorted and together they should contain every word
+         * */
+        // Arrange
+        Comparator<String> ascComparator = (a, b) -> a.toLowerCase().compareTo(b.toLowerCase());
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempInputFile)));
+        fileWriter.write(String.join(" ", sampleData));
+        fileWriter.close();
+        Scanner fileScanner = new Scanner(tempInputFile);
+        SortOptions options = new SortOptions().setThreads(3).setWriterThreads(2).setParallelSort(true);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(tempInputFile.length(), 1024,
+                2000, fileScanner, ascComparator, null, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.size() > 1);
+        List<String> allWords = new ArrayList<>();
+        for (File file : sortedTempFiles) {
+            List<String> tempData = new ArrayList<>();
+            try (BufferedReader fileReader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = fileReader.readLine()) != null) {
+                    tempData.add(line);
+                }
+            }
+            List<String> sorted = new ArrayList<>(tempData);
+            sorted.sort(ascComparator);
+            assertEquals(sorted, tempData);
+            allWords.addAll(tempData);
+        }
+        allWords.sort(ascComparator);
+        assertArrayEquals(EXPECTED_SORTED_ASC, allWords.toArray());
+    }
+
+    @Test
+    public void shouldCreateSortedTempFilesFromSegments_WhenMappingInput() throws Exception {
+        /*
+         * Given an unsorted input file
+         * When it is memory mapped and its segments are sorted by several threads
+         * Then every temp file should be sorted and together they should hold every word, none of them split
+         * */
+        // Arrange
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempInputFile)));
+        for (int i = 0; i < 20; i++) {
+            fileWriter.write(String.join(" ", sampleData));
+            fileWriter.newLine();
+        }
+        fileWriter.close();
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        SortOptions options = new SortOptions().setThreads(3).setInputMode(SortOptions.INPUT_MMAP);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.createSortedTempFilesMapped(tempInputFile, 1024,
+                FileSorter.getEstimatedFreeMemory(), ascOrdering, null, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.size() >= 3);
+        Set<String> words = new HashSet<>();
+        for (File sortedTempFile : sortedTempFiles) {
+            List<String> tempData = new ArrayList<>();
+            try (BufferedReader fileReader = new BufferedReader(new FileReader(sortedTempFile))) {
+                String line;
+                while ((line = fileReader.readLine()) != null) {
+                    tempData.add(line);
+                }
+            }
+            List<String> sorted = new ArrayList<>(tempData);
+            sorted.sort(ascOrdering);
+            assertEquals(sorted, tempData);
+            words.addAll(tempData);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(sampleData)), words);
+    }
+
+    @Test
+    public void shouldCreateSortedTempFiles_WhenUsingPackedRunBuffer() throws Exception {
+        // Arrange
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        BufferedWriter fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempInputFile)));
+        fileWriter.write(String.join(" ", sampleData) + " " + String.join(" ", sampleData));
+        fileWriter.close();
+        WordTokenizer tokenizer = WordTokenizer.open(tempInputFile, WordTokenizer.NIO, 64);
+        SortOptions options = new SortOptions().setRunBuffer(SortOptions.RUN_BUFFER_PACKED);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(tempInputFile.length(), 1024,
+                FileSorter.getEstimatedFreeMemory(), tokenizer,
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false), null, options);
+
+        // Assert
+        assertEquals(1, sortedTempFiles.size());
+        List<String> tempData = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(sortedTempFiles.get(0)))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                tempData.add(line);
+            }
+        }
+        assertArrayEquals(EXPECTED_SORTED_ASC, tempData.toArray());
+    }
+
+    @Test
+    public void shouldHandleDuplicatesAcrossTempFiles_WhenGivenADuplicatesMode() throws Exception {
+        /*
+         * Given an input holding every word three times and blocks small enough to produce several runs
+         * When it is sorted in keep-all, distinct and count mode
+         * Then keep-all should keep every occurrence, distinct every word once and count every word with 3
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData);
+
+        // Act
+        List<String> keepAll = sortWithOptions(input + " " + input + " " + input, ascOrdering,
+                new SortOptions().setDuplicates(SortOptions.DUPLICATES_KEEP_ALL));
+        List<String> distinct = sortWithOptions(input + " " + input + " " + input, ascOrdering,
+                new SortOptions().setDuplicates(SortOptions.DUPLICATES_DISTINCT));
+        List<String> counted = sortWithOptions(input + " " + input + " " + input, ascOrdering,
+                new SortOptions().setDuplicates(SortOptions.DUPLICATES_COUNT).setEmitCounts(true));
+
+        // Assert
+        assertEquals(3 * sampleData.length, keepAll.size());
+        assertEquals(new HashSet<>(Arrays.asList(sampleData)), new HashSet<>(keepAll));
+        assertEquals(sampleData.length, distinct.size());
+        assertEquals(new HashSet<>(Arrays.asList(sampleData)), new HashSet<>(distinct));
+        assertEquals(sampleData.length, counted.size());
+        for (int i = 0; i < counted.size(); i++) {
+            assertEquals(EXPECTED_SORTED_ASC[i].toLowerCase() + ":3", counted.get(i).toLowerCase());
+        }
+    }
+
+    @Test
+    public void shouldMergeCounts_WhenCountingWithPackedBuffersAndBinaryRunsInSeveralPasses() throws Exception {
+        /*
+         * Given an input where "ut" appears more often than the other words
+         * When the words are counted in packed blocks, written as binary runs and merged two at a time
+         * Then every word should come out once with the sum of its counts
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData) + " ut ut " + String.join(" ", sampleData);
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_COUNT).setEmitCounts(true)
+                .setRunBuffer(SortOptions.RUN_BUFFER_PACKED).setRunCodec(RunCodec.BINARY).setMaxMergeFanIn(2);
+
+        // Act
+        List<String> counted = sortWithOptions(input, ascOrdering, options);
+
+        // Assert
+        assertEquals(sampleData.length, counted.size());
+        assertTrue(counted.contains("ut:4"));
+        assertTrue(counted.contains("Ut:2"));
+        assertTrue(counted.contains("veniam:2"));
+    }
+
+    @Test
+    public void shouldSortAStreamIntoALazyIterator_WhenTheInputLengthIsUnknown() throws Exception {
+        /*
+         * Given a stream of unknown length holding every word twice and a small memory budget
+         * When it is sorted into temp files and merged through a lazy iterator in distinct mode
+         * Then the stream should give every word once in sorted order and the merge phase should be finished
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData) + System.lineSeparator() + String.join(" ", sampleData);
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_DISTINCT);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(new ByteArrayInputStream(input.getBytes()),
+                1024, 2000, ascOrdering, null, options);
+        List<String> words;
+        try (SortedWordIterator iterator = FileSorter.iterateSortedTempFiles(ascOrdering, sortedTempFiles, options)) {
+            words = iterator.stream().collect(Collectors.toList());
+        }
+
+        // Assert
+        assertTrue(sortedTempFiles.size() > 1);
+        assertEquals(Arrays.asList(EXPECTED_SORTED_ASC), words);
+        assertEquals(2 * sampleData.length, options.getMetrics().getWordsRead());
+        assertTrue(options.getMetrics().getPhaseNanos(SortMetrics.Phase.MERGE) > 0);
+        for (File file : sortedTempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldSortInMemoryWithoutTempFiles_WhenTheInputFitsInTheFirstBlock() throws Exception {
+        /*
+         * Given an input holding every word twice that fits in memory
+         * When it is sorted into an output file in count mode with emitted counts
+         * Then no temp file should be written and every word should be written once with its count
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData) + System.lineSeparator() + String.join(" ", sampleData);
+        File tmpDirectory = Files.createTempDirectory("test_tmp").toFile();
+        tmpDirectory.deleteOnExit();
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_COUNT).setEmitCounts(true)
+                .setThreads(4);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.sortAndMerge(FileSorter.UNKNOWN_SIZE, 1024, 1 << 20,
+                WordTokenizer.open(new ByteArrayInputStream(input.getBytes()), WordTokenizer.NIO, 64), ascOrdering,
+                tmpDirectory, tempOutputFile, false, 100, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.isEmpty());
+        assertEquals(0, tmpDirectory.list().length);
+        List<String> words = Arrays.asList(new String(Files.readAllBytes(tempOutputFile.toPath())).trim().split(" "));
+        assertEquals(Arrays.stream(EXPECTED_SORTED_ASC).map(word -> word + ":2").collect(Collectors.toList()),
+                words.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList()));
+        assertEquals(words.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList()), words);
+        assertEquals(sampleData.length, options.getMetrics().getFinalPassWords());
+    }
+
+    @Test
+    public void shouldSortThroughTempFiles_WhenTheInputDoesNotFitInTheFirstBlock() throws Exception {
+        /*
+         * Given an input larger than a block of a small memory budget
+         * When it is sorted into an output file
+         * Then the first block should become the first of several temp files and the output should be sorted
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData);
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        SortOptions options = new SortOptions();
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.sortAndMerge(input.length(), 1024, 2000,
+                WordTokenizer.open(new ByteArrayInputStream(input.getBytes()), WordTokenizer.NIO, 64), ascOrdering,
+                null, tempOutputFile, false, 100, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.size() > 1);
+        List<String> words = Arrays.asList(new String(Files.readAllBytes(tempOutputFile.toPath())).trim().split(" "));
+        assertEquals(Arrays.asList(EXPECTED_SORTED_ASC), words.stream().sorted(String.CASE_INSENSITIVE_ORDER)
+                .collect(Collectors.toList()));
+        assertEquals(words.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList()), words);
+        assertEquals(sampleData.length, options.getMetrics().getWordsRead());
+        for (File file : sortedTempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldWriteOnlyTheFirstWords_WhenGivenALimitInEitherOrder() throws Exception {
+        /*
+         * Given an input that fits in memory and a limit of 5 words
+         * When it is sorted in ascending and in descending order
+         * Then the output should only hold the first 5 words of each order, without any temp file
+         * */
+        // Arrange
+        String input = String.join(" ", sampleData) + " " + String.join(" ", sampleMergeData);
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+
+        // Act
+        List<File> ascTempFiles = FileSorter.sortAndMerge(input.length(), 1024, 1 << 20,
+                WordTokenizer.open(new ByteArrayInputStream(input.getBytes()), WordTokenizer.NIO, 64),
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false), null, tempOutputFile, false, 100,
+                new SortOptions().setLimit(5));
+        String asc = new String(Files.readAllBytes(tempOutputFile.toPath()));
+        List<File> descTempFiles = FileSorter.sortAndMerge(input.length(), 1024, 1 << 20,
+                WordTokenizer.open(new ByteArrayInputStream(input.getBytes()), WordTokenizer.NIO, 64),
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, true), null, tempOutputFile, false, 100,
+                new SortOptions().setLimit(5));
+        String desc = new String(Files.readAllBytes(tempOutputFile.toPath()));
+
+        // Assert
+        assertTrue(ascTempFiles.isEmpty());
+        assertTrue(descTempFiles.isEmpty());
+        assertEquals("ad adipiscing aliqua aliquip amet ", asc);
+        // the per-run heap keeps "ut" once, next to "Ut"
+        assertEquals("veniam ut ut ullamco tempor ", desc.toLowerCase());
+    }
+
+    @Test
+    public void shouldStopTheMergeAtTheLimit_WhenTheLimitedBlocksAreSpilled() throws Exception {
+        /*
+         * Given a memory budget too small for a block of 3 words
+         * When an input is sorted with a limit of 3 words and every word kept
+         * Then the blocks should be spilled and the merge should only write the first 3 words
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        String input = String.join(" ", sampleData) + " " + String.join(" ", sampleData);
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_KEEP_ALL).setLimit(3);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.sortAndMerge(FileSorter.UNKNOWN_SIZE, 1024, 200,
+                WordTokenizer.open(new ByteArrayInputStream(input.getBytes()), WordTokenizer.NIO, 64), ascOrdering,
+                null, tempOutputFile, false, 100, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.size() > 1);
+        assertEquals("ad ad adipiscing ", new String(Files.readAllBytes(tempOutputFile.toPath())));
+        assertEquals(3, options.getMetrics().getFinalPassWords());
+        for (File file : sortedTempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldMergeNewWordsIntoThePreviousOutput_WhenItIsTheOutputFile() throws Exception {
+        /*
+         * Given a previous output wrapped every 5 words and new words sorted into temp files
+         * When they are merged in distinct mode into the previous output itself
+         * Then it should be replaced by every distinct word of both in sorted order, with nothing left behind
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        File directory = Files.createTempDirectory("test_incremental").toFile();
+        directory.deleteOnExit();
+        File outputFile = new File(directory, "sorted.txt");
+        outputFile.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(outputFile))) {
+            for (int i = 0; i < EXPECTED_SORTED_ASC.length; i++) {
+                fileWriter.write(EXPECTED_SORTED_ASC[i] + (i % 5 == 4 ? System.lineSeparator() : " "));
+            }
+        }
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_DISTINCT);
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(
+                new ByteArrayInputStream(String.join(" ", sampleMergeData).getBytes()), 1024, 1000, ascOrdering,
+                null, options);
+
+        // Act
+        FileSorter.mergeSortedTempFiles(ascOrdering, sortedTempFiles, outputFile, outputFile, 100, options);
+
+        // Assert
+        Set<String> distinct = new LinkedHashSet<>(Arrays.asList(EXPECTED_SORTED_ASC));
+        distinct.addAll(Arrays.asList(sampleMergeData));
+        List<String> expected = distinct.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList());
+        List<String> words = Arrays.asList(new String(Files.readAllBytes(outputFile.toPath())).trim().split(" "));
+        assertEquals(expected, words.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList()));
+        assertEquals(words.stream().sorted(String.CASE_INSENSITIVE_ORDER).collect(Collectors.toList()), words);
+        assertArrayEquals(new String[] {"sorted.txt"}, directory.list());
+        for (File file : sortedTempFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldThrowAnException_WhenMergingAPreviousOutputInCountMode() {
+        // Arrange
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_COUNT);
+        File outputFile = new File("sorted.txt");
+
+        // Act and Assert
+        assertThrows(IllegalArgumentException.class, () -> FileSorter.mergeSortedTempFiles(
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false), new ArrayList<>(), outputFile, outputFile,
+                100, options));
+    }
+
+    /**
+    * Sorts the input through temp files small enough that there are several, and reads back the output words.
+    * */
+    private static List<String> sortWithOptions(String input, Comparator<String> comparator, SortOptions options)
+        throws Exception {
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(tempInputFile))) {
+            fileWriter.write(input);
+        }
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(tempInputFile.length(), 1024, 2000,
+                WordTokenizer.open(tempInputFile, WordTokenizer.NIO, 64), comparator, null, options);
+        assertTrue(sortedTempFiles.size() > 2);
+        FileSorter.mergeSortedTempFiles(comparator, sortedTempFiles,
+                new BufferedWriter(new FileWriter(tempOutputFile)), 10, options);
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(tempOutputFile.toPath())) {
+            words.addAll(Arrays.asList(line.trim().split("\\s+")));
+        }
+        return words;
+    }
+
     @Test
     public void shouldThrowAnExceptionAndExit_WhenNotGivenRequiredParameters() {
         // Act and Assert
@@ -305,4 +855,186 @@ public class FileSorterTest {
 
         assertTrue(sorted.get(0).contains(String.join(" ", EXPECTED_SORTED_ASC)));
     }
+
+    @Test
+    public void shouldResumeFromTheJobManifest_WhenACheckpointedSortWasStopped() throws Exception {
+        /*
+         * Given a checkpointed sort stopped after its first temp file, which holds the first five words of the input
+         *       and a word the input does not, so reading them again would show
+         * When it is run again with the same settings
+         * Then the output should hold the first temp file and the rest of the input, and the manifest should be gone
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("checkpoint").toFile();
+        File tempInputFile = new File(tmpDirectory, "input.txt");
+        File tempOutputFile = new File(tmpDirectory, "output.txt");
+        Files.write(tempInputFile.toPath(), String.join(" ", sampleData).getBytes());
+        Comparator<String> comparator = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        List<String> firstWords = new ArrayList<>(Arrays.asList(sampleData).subList(0, 5));
+        long firstBlockEnd = String.join(" ", firstWords).length();
+        firstWords.add("zzz");
+        JobManifest manifest = JobManifest.open(tmpDirectory, tempInputFile, "case-insensitive asc nio per-run text 0");
+        manifest.addRun(FileSorter.sortAndSaveTempFile(firstWords, comparator, tmpDirectory), firstWords.size(),
+                0, firstBlockEnd);
+
+        // Act
+        FileSorter testFileSorter = new FileSorter(null); // using command line props
+        testFileSorter.main(new String[]{"--inputfile", tempInputFile.toString(),
+            "--outputfile", tempOutputFile.toString(), "--tmpfilesdirectory", tmpDirectory.toString(),
+            "--order", "asc", "--collation", WordOrdering.CASE_INSENSITIVE, "--tokenizer", WordTokenizer.NIO,
+            "--duplicates", SortOptions.DUPLICATES_PER_RUN, "--runcodec", RunCodec.TEXT, "--limit", "0",
+            "--wordwrap", "100", "--checkpoint", "true"});
+
+        // Assert
+        String sorted = new String(Files.readAllBytes(tempOutputFile.toPath())).trim();
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC) + " zzz", sorted);
+        assertFalse(new File(tmpDirectory, tempInputFile.getName() + JobManifest.EXTENSION).exists());
+        assertEquals(Arrays.asList("input.txt", "output.txt"), Arrays.stream(tmpDirectory.list()).sorted()
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldKeyEveryWordOnce_WhenMergingDistinctWords() throws Exception {
+        /*
+         * Given two runs sorted with a word ordering that counts the keys it computes, with words in common
+         * When they are merged in distinct mode
+         * Then the duplicates should be dropped and every word read should be keyed once, by its scanner only
+         * */
+        // Arrange
+        AtomicLong keys = new AtomicLong();
+        WordOrdering counting = countingKeys(keys);
+        List<File> runs = Arrays.asList(
+                FileSorter.saveTempFile(Arrays.asList("ad", "amet", "ut", "Ut"), null),
+                FileSorter.saveTempFile(Arrays.asList("amet", "dolor", "ut"), null));
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_DISTINCT);
+
+        // Act
+        List<String> merged = new ArrayList<>();
+        FileSorter.mergeSortedTempFiles(counting, runs, merged::add, options);
+
+        // Assert
+        assertEquals(Arrays.asList("ad", "amet", "dolor", "ut", "Ut"), merged);
+        assertEquals(7, keys.get());
+    }
+
+    @Test
+    public void shouldKeyEveryWordOnce_WhenKeepingTheFirstWords() throws Exception {
+        /*
+         * Given a block that keeps the first 2 words, sorted with a word ordering that counts the keys it computes
+         * When 5 words are added, one of them twice
+         * Then it should keep the first 2 words and only key every distinct word once
+         * */
+        // Arrange
+        AtomicLong keys = new AtomicLong();
+        WordOrdering counting = countingKeys(keys);
+        TopBlock block = new TopBlock(2, counting, SortOptions.DUPLICATES_DISTINCT);
+
+        // Act
+        for (String word : Arrays.asList("lorem", "Ipsum", "dolor", "ipsum", "amet", "dolor")) {
+            block.add(word);
+        }
+        long keysAdded = keys.get();
+        block.sort(counting, new SortOptions());
+        File run = block.save(null);
+        List<String> words = Arrays.asList(new String(Files.readAllBytes(run.toPath())).trim().split("\\s+"));
+
+        // Assert
+        assertEquals(Arrays.asList("amet", "dolor"), words);
+        assertEquals(5, keysAdded);
+    }
+
+    /**
+    * @return The case insensitive word ordering, counting the keys it computes
+    * */
+    private static WordOrdering countingKeys(AtomicLong keys) {
+        WordOrdering caseInsensitive = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        return new WordOrdering(false) {
+            @Override
+            public SortKey keyOf(String word) {
+                keys.incrementAndGet();
+                return caseInsensitive.keyOf(word);
+            }
+
+            @Override
+            public WordOrdering reversed() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void shouldRejectAPreviousOutput_WhenCountingDuplicates() throws Exception {
+        /*
+         * Given an input and a previous output
+         * When they are sorted from the command line in count mode
+         * Then it should fail before writing any temp file
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("counted").toFile();
+        File tempInputFile = new File(tmpDirectory, "input.txt");
+        File previousOutputFile = new File(tmpDirectory, "previous.txt");
+        Files.write(tempInputFile.toPath(), String.join(" ", sampleData).getBytes());
+        Files.write(previousOutputFile.toPath(), String.join(" ", EXPECTED_SORTED_ASC).getBytes());
+
+        // Act
+        FileSorter testFileSorter = new FileSorter(null); // using command line props
+        Exception thrown = assertThrows(Exception.class, () -> testFileSorter.main(new String[]{
+            "--inputfile", tempInputFile.toString(), "--outputfile", new File(tmpDirectory, "output.txt").toString(),
+            "--tmpfilesdirectory", tmpDirectory.toString(), "--duplicates", SortOptions.DUPLICATES_COUNT,
+            "--previousoutputfile", previousOutputFile.toString()}));
+
+        // Assert
+        assertTrue(thrown.getMessage().contains("count mode"));
+        assertEquals(Arrays.asList("input.txt", "previous.txt"), Arrays.stream(tmpDirectory.list()).sorted()
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldSortTheWholeInput_WhenTheLimitIsInvalid() throws Exception {
+        /*
+         * Given an input that fits in memory
+         * When it is sorted from the command line with a negative limit
+         * Then the limit should be ignored and every word written
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("limit").toFile();
+        File tempInputFile = new File(tmpDirectory, "input.txt");
+        File tempOutputFile = new File(tmpDirectory, "output.txt");
+        Files.write(tempInputFile.toPath(), String.join(" ", sampleData).getBytes());
+
+        // Act
+        FileSorter testFileSorter = new FileSorter(null); // using command line props
+        testFileSorter.main(new String[]{"--inputfile", tempInputFile.toString(),
+            "--outputfile", tempOutputFile.toString(), "--tmpfilesdirectory", tmpDirectory.toString(),
+            "--order", "asc", "--collation", WordOrdering.CASE_INSENSITIVE, "--wordwrap", "100", "--limit", "-1"});
+
+        // Assert
+        String sorted = new String(Files.readAllBytes(tempOutputFile.toPath())).trim();
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC), sorted);
+    }
+
+    @Test
+    public void shouldMergeWithOneThread_WhenTheMergeThreadsAreInvalid() throws Exception {
+        /*
+         * Given an input split into several temp files
+         * When it is sorted from the command line with 0 merge threads
+         * Then the value should be ignored and the temp files merged into the output
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("mergethreads").toFile();
+        File tempInputFile = new File(tmpDirectory, "input.txt");
+        File tempOutputFile = new File(tmpDirectory, "output.txt");
+        Files.write(tempInputFile.toPath(), String.join(" ", sampleData).getBytes());
+
+        // Act
+        FileSorter testFileSorter = new FileSorter(null); // using command line props
+        testFileSorter.main(new String[]{"--inputfile", tempInputFile.toString(),
+            "--outputfile", tempOutputFile.toString(), "--tmpfilesdirectory", tmpDirectory.toString(),
+            "--order", "asc", "--collation", WordOrdering.CASE_INSENSITIVE, "--wordwrap", "100",
+            "--memorybudget", "1k", "--mergethreads", "0"});
+
+        // Assert
+        String sorted = new String(Files.readAllBytes(tempOutputFile.toPath())).trim();
+        assertEquals(String.join(" ", EXPECTED_SORTED_ASC), sorted);
+    }
 }
@@ -0,0 +1,66 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GzipFilesTest {
+
+    private static final String[] sampleData = {"Lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore",
+            "et", "dolore", "magna", "aliqua", "Ut", "enim", "ad", "minim", "veniam"};
+
+    @Test
+    public void shouldTokenizeACompressedFile_AndEstimateItsDecompressedSize() throws IOException {
+        /*
+         * Given a gzip file written with the gzip writer, larger than the read buffer
+         * When it is tokenized with either tokenizer
+         * Then every word should be read back and the estimated size should be the decompressed size
+         * */
+        // Arrange
+        File file = File.createTempFile("test_input", GzipFiles.EXTENSION, null);
+        file.deleteOnExit();
+        String text = String.join(" ", sampleData) + System.lineSeparator();
+        try (BufferedWriter writer = GzipFiles.newWriter(file, false)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.write(text);
+            }
+        }
+
+        for (String tokenizer : new String[] {WordTokenizer.NIO, WordTokenizer.SCANNER}) {
+            // Act
+            List<String> words = new ArrayList<>();
+            long estimatedSize;
+            try (WordTokenizer fileScanner = GzipFiles.openTokenizer(file, tokenizer, 4096)) {
+                while (fileScanner.hasNext()) {
+                    words.add(fileScanner.next());
+                }
+                estimatedSize = fileScanner.getEstimatedSize();
+            }
+
+            // Assert
+            assertTrue(GzipFiles.isGzip(file));
+            assertEquals(1000 * sampleData.length, words.size());
+            assertEquals(Arrays.asList(sampleData), words.subList(0, sampleData.length));
+            assertEquals(1000L * text.length(), estimatedSize);
+        }
+    }
+
+    @Test
+    public void shouldThrowAnException_WhenTheFileIsNotCompressed() throws IOException {
+        // Arrange
+        File file = File.createTempFile("test_input", GzipFiles.EXTENSION, null);
+        file.deleteOnExit();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(String.join(" ", sampleData));
+        }
+
+        // Act and Assert
+        assertThrows(IOException.class, () -> GzipFiles.openTokenizer(file, WordTokenizer.NIO, 4096));
+    }
+}
@@ -0,0 +1,180 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JobManifestTest {
+
+    private static final String SETTINGS = "case-insensitive asc nio per-run text 0";
+
+    @Test
+    public void shouldResumeFromTheRunsThatFollowOnFromTheStartOfTheInput() throws IOException {
+        /*
+         * Given a manifest with runs for the input bytes 0-10 and 20-30, the run for 10-20 was never written
+         * When the job is started again
+         * Then it should go on from byte 10 with the first run only, and the run after the gap should be deleted
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        JobManifest manifest = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+        File first = manifest.addRun(newRun(tmpDirectory, "a b"), 2, 0, 10);
+        File third = manifest.addRun(newRun(tmpDirectory, "e f"), 2, 20, 30);
+
+        // Act
+        JobManifest restarted = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+
+        // Assert
+        assertFalse(restarted.isInputDone());
+        assertEquals(10, restarted.getInputOffset());
+        assertEquals(Collections.singletonList(first), restarted.getRuns());
+        assertTrue(first.exists());
+        assertFalse(third.exists());
+    }
+
+    @Test
+    public void shouldDropARun_WhenItDoesNotMatchItsChecksum() throws IOException {
+        /*
+         * Given a manifest with two runs, the second one changed on the disk without changing its length
+         * When the job is started again
+         * Then it should go on from the end of the first run
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        JobManifest manifest = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+        File first = manifest.addRun(newRun(tmpDirectory, "a b"), 2, 0, 10);
+        File second = manifest.addRun(newRun(tmpDirectory, "c d"), 2, 10, 20);
+        Files.write(second.toPath(), Files.readAllBytes(first.toPath()));
+
+        // Act
+        JobManifest restarted = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+
+        // Assert
+        assertEquals(10, restarted.getInputOffset());
+        assertEquals(Collections.singletonList(first), restarted.getRuns());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    public void shouldStartOver_WhenTheSettingsChanged() throws IOException {
+        /*
+         * Given a manifest with a run written in ascending order
+         * When the job is started again in descending order
+         * Then it should start from the beginning and delete the run
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        File run = JobManifest.open(tmpDirectory, inputFile, SETTINGS).addRun(newRun(tmpDirectory, "a b"), 2, 0, 10);
+
+        // Act
+        JobManifest restarted = JobManifest.open(tmpDirectory, inputFile, SETTINGS.replace("asc", "desc"));
+
+        // Assert
+        assertEquals(0, restarted.getInputOffset());
+        assertTrue(restarted.getRuns().isEmpty());
+        assertFalse(run.exists());
+    }
+
+    @Test
+    public void shouldResumeTheMergePasses_WhenTheInputWasRead() throws IOException {
+        /*
+         * Given a manifest of a whole input in three runs, two of which were merged
+         * When the job is started again
+         * Then it should only hold the run left and the merged run
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        JobManifest manifest = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+        File first = manifest.addRun(newRun(tmpDirectory, "a b"), 2, 0, 10);
+        List<File> runs = manifest.finishInput(Arrays.asList(first, newRun(tmpDirectory, "c d"),
+                newRun(tmpDirectory, "e f")));
+        File merged = manifest.replaceRuns(runs.subList(0, 2), newRun(tmpDirectory, "a b c d"), 4);
+
+        // Act
+        JobManifest restarted = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+
+        // Assert
+        assertEquals(3, runs.size());
+        assertTrue(restarted.isInputDone());
+        assertEquals(Arrays.asList(runs.get(2), merged), restarted.getRuns());
+
+        // Act
+        restarted.complete();
+
+        // Assert
+        assertFalse(merged.exists());
+        assertFalse(new File(tmpDirectory, inputFile.getName() + JobManifest.EXTENSION).exists());
+    }
+
+    @Test
+    public void shouldCutAnUnfinishedFinalPassOffTheOutput() throws IOException {
+        /*
+         * Given an output that held words before the final pass started, and more after it was stopped
+         * When the final pass starts again
+         * Then the output should be cut back to the words it held before
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        File outputFile = new File(tmpDirectory, "output.txt");
+        Files.write(outputFile.toPath(), "a b ".getBytes(StandardCharsets.US_ASCII));
+        JobManifest manifest = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+        manifest.finishInput(Collections.singletonList(newRun(tmpDirectory, "c d")));
+        manifest.startOutput(outputFile);
+        Files.write(outputFile.toPath(), "a b c ".getBytes(StandardCharsets.US_ASCII));
+
+        // Act
+        JobManifest.open(tmpDirectory, inputFile, SETTINGS).startOutput(outputFile);
+
+        // Assert
+        assertEquals("a b ", new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void shouldDeleteTheRunsThatWereNeverRecorded() throws IOException {
+        /*
+         * Given a job stopped while writing a run, and after renaming another one but before recording it
+         * When the job is started again
+         * Then both runs should be deleted and the recorded one kept
+         * */
+        // Arrange
+        File tmpDirectory = Files.createTempDirectory("manifest").toFile();
+        File inputFile = newInput(tmpDirectory);
+        JobManifest manifest = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+        File first = manifest.addRun(newRun(manifest.getTempDirectory(), "a b"), 2, 0, 10);
+        File written = newRun(manifest.getTempDirectory(), "c d");
+        File renamed = new File(tmpDirectory, inputFile.getName() + ".run7");
+        Files.write(renamed.toPath(), "e f".getBytes(StandardCharsets.US_ASCII));
+
+        // Act
+        JobManifest restarted = JobManifest.open(tmpDirectory, inputFile, SETTINGS);
+
+        // Assert
+        assertEquals(Collections.singletonList(first), restarted.getRuns());
+        assertTrue(first.exists());
+        assertFalse(written.exists());
+        assertFalse(renamed.exists());
+        assertEquals(0, restarted.getTempDirectory().list().length);
+    }
+
+    private static File newInput(File tmpDirectory) throws IOException {
+        File inputFile = new File(tmpDirectory, "input.txt");
+        Files.write(inputFile.toPath(), "a b c d e f g h".getBytes(StandardCharsets.US_ASCII));
+        return inputFile;
+    }
+
+    private static File newRun(File tmpDirectory, String words) throws IOException {
+        return FileSorter.saveTempFile(Arrays.asList(words.split(" ")), tmpDirectory);
+    }
+}
@@ -0,0 +1,110 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void shouldParseMemorySizes() {
+        assertEquals(512, MemoryBudget.parseSize("512"));
+        assertEquals(64L << 10, MemoryBudget.parseSize("64k"));
+        assertEquals(512L << 20, MemoryBudget.parseSize("512M"));
+        assertEquals(2L << 30, MemoryBudget.parseSize(" 2g "));
+        assertThrows(IllegalArgumentException.class, () -> MemoryBudget.parseSize("0m"));
+        assertThrows(NumberFormatException.class, () -> MemoryBudget.parseSize("lots"));
+    }
+
+    @Test
+    public void shouldEstimateAvailableHeap_WithoutExceedingMaxMemory() {
+        // Act
+        long available = MemoryBudget.getAvailableHeap();
+
+        // Assert
+        assertTrue(available > 0);
+        assertTrue(available <= Runtime.getRuntime().maxMemory());
+    }
+
+    @Test
+    public void shouldKeepBlockSizeWithinBounds_WhenAdapting() throws Exception {
+        /*
+         * Given an adaptive budget
+         * When the block size is adapted many times
+         * Then it should never go past the share of a block or below what maxTmpFiles needs
+         * */
+        // Arrange
+        long budgetBytes = 64L << 20;
+        MemoryBudget budget = new MemoryBudget(budgetBytes, true);
+        long first = budget.initBlockSize(1L << 30, 1024, 4);
+
+        // Act & Assert
+        assertEquals(FileSorter.getEstimatedBlockSize(1L << 30, 1024, budgetBytes, 4), first);
+        for (int i = 0; i < 50; i++) {
+            budget.adapt();
+            assertTrue(budget.getBlockSize() <= budgetBytes / 4);
+            assertTrue(budget.getBlockSize() >= (1L << 30) / 1024);
+        }
+    }
+
+    @Test
+    public void shouldKeepBlockSize_WhenNotAdaptive() throws Exception {
+        // Arrange
+        MemoryBudget budget = new MemoryBudget(64L << 20, false);
+        long first = budget.initBlockSize(1000, 1024, 1);
+
+        // Act
+        budget.adapt();
+
+        // Assert
+        assertEquals(first, budget.getBlockSize());
+    }
+
+    @Test
+    public void shouldRaiseTheSmallestBlockSize_WhenTheSizeOfAnUnknownInputIsEstimated() throws Exception {
+        /*
+         * Given a budget for an input of unknown size
+         * When the input is first estimated at a size that needs larger blocks to stay within maxTmpFiles
+         * Then the block size should grow to match, but never past the share of a block
+         * */
+        // Arrange
+        MemoryBudget budget = new MemoryBudget(64L << 20, false);
+        long first = budget.initBlockSize(FileSorter.UNKNOWN_SIZE, 16, 2);
+
+        // Act
+        budget.estimateInputSize(-1);
+        long withoutEstimate = budget.getBlockSize();
+        budget.estimateInputSize(1L << 30);
+
+        // Assert
+        assertEquals(16L << 20, first);
+        assertEquals(first, withoutEstimate);
+        assertEquals(32L << 20, budget.getBlockSize());
+    }
+
+    @Test
+    public void shouldCountTheEntryOfEveryWordKept_InAWordListBlock() {
+        /*
+         * Given a block of distinct words and a block that counts them
+         * When the same word is added twice
+         * Then each block should count the word once, with its entry, and the counted entry should be larger
+         * */
+        // Arrange
+        WordListBlock distinct = new WordListBlock(SortOptions.DUPLICATES_DISTINCT);
+        WordListBlock counted = new WordListBlock(SortOptions.DUPLICATES_COUNT);
+
+        // Act
+        for (int i = 0; i < 2; i++) {
+            distinct.add("word");
+            counted.add("word");
+        }
+
+        // Assert
+        long stringSize = FileSorter.getEstimatedStringSize("word");
+        assertEquals(stringSize + MemoryBudget.getWordEntryOverhead(SortOptions.DUPLICATES_DISTINCT),
+                distinct.sizeInBytes());
+        assertEquals(stringSize + MemoryBudget.getWordEntryOverhead(SortOptions.DUPLICATES_COUNT),
+                counted.sizeInBytes());
+        assertTrue(counted.sizeInBytes() > distinct.sizeInBytes());
+    }
+}
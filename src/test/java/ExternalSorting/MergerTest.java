@@ -0,0 +1,111 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergerTest {
+
+    private static List<List<String>> randomRuns(int k) {
+        List<List<String>> runs = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            List<String> run = new ArrayList<>();
+            int size = ThreadLocalRandom.current().nextInt(0, 200);
+            for (int j = 0; j < size; j++) {
+                run.add(Integer.toString(ThreadLocalRandom.current().nextInt(100000), 36));
+            }
+            Collections.sort(run);
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    private static List<CachedScanner> scanners(List<List<String>> runs) {
+        List<CachedScanner> scanners = new ArrayList<>();
+        for (List<String> run : runs) {
+            byte[] bytes = String.join("\n", run).getBytes(StandardCharsets.UTF_8);
+            scanners.add(new CachedScanner(new NioWordTokenizer(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                    StandardCharsets.UTF_8, 64)));
+        }
+        return scanners;
+    }
+
+    private static List<String> mergeAll(Merger merger) {
+        List<String> merged = new ArrayList<>();
+        CachedScanner currScanner;
+        while ((currScanner = merger.peek()) != null) {
+            merged.add(currScanner.pop());
+            merger.advance();
+        }
+        merger.close();
+        return merged;
+    }
+
+    @Test
+    public void shouldMergeRunsInOrder_WithEitherMerger() {
+        /*
+         * Given sorted runs of random sizes, some of them empty
+         * When they are merged with the heap and with the loser tree
+         * Then both should produce every word in sorted order
+         * */
+        for (int k : new int[]{0, 1, 2, 3, 7, 64, 100}) {
+            // Arrange
+            List<List<String>> runs = randomRuns(k);
+            List<String> expected = new ArrayList<>();
+            runs.forEach(expected::addAll);
+            Collections.sort(expected);
+            Comparator<CachedScanner> comparator = Comparator.comparing(CachedScanner::peek);
+
+            // Act
+            List<String> heap = mergeAll(Merger.create(Merger.HEAP, scanners(runs), comparator));
+            List<String> loserTree = mergeAll(Merger.create(Merger.LOSER_TREE, scanners(runs), comparator));
+
+            // Assert
+            assertEquals(expected, heap);
+            assertEquals(expected, loserTree);
+        }
+    }
+
+    @Test
+    public void shouldStreamASingleRunWithoutComparing() {
+        // Arrange
+        List<List<String>> runs = randomRuns(1);
+        Merger merger = Merger.create(Merger.HEAP, scanners(runs), (a, b) -> {
+            throw new AssertionError("A single run needs no comparison");
+        });
+
+        // Act
+        List<String> merged = mergeAll(merger);
+
+        // Assert
+        assertTrue(merger instanceof SingleRunMerger);
+        assertEquals(runs.get(0), merged);
+    }
+
+    @Test
+    public void shouldCompareLogKTimesPerWord_WithLoserTree() {
+        // Arrange
+        int k = 128;
+        List<List<String>> runs = randomRuns(k);
+        AtomicLong comparisons = new AtomicLong();
+        Comparator<CachedScanner> comparator = (a, b) -> {
+            comparisons.incrementAndGet();
+            return a.peek().compareTo(b.peek());
+        };
+        Merger merger = Merger.create(Merger.LOSER_TREE, scanners(runs), comparator);
+        comparisons.set(0); // ignore building the tree
+
+        // Act
+        List<String> merged = mergeAll(merger);
+
+        // Assert
+        assertTrue(comparisons.get() <= (long) merged.size() * 7); // log2(128)
+    }
+}
@@ -0,0 +1,116 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioWordTokenizerTest {
+
+    private static final String SAMPLE_TEXT = "  Lorem ipsum\tdolor\r\nsit  amet,\fconsectetur\u000Badipiscing "
+            + "\u00E9lit na\u00EFve stra\u00DFe\n\n\u00DCber\u001Fend";
+
+    private static List<String> readAll(WordTokenizer tokenizer) {
+        List<String> words = new ArrayList<>();
+        while (tokenizer.hasNext()) {
+            words.add(tokenizer.next());
+        }
+        tokenizer.close();
+        return words;
+    }
+
+    @Test
+    public void shouldSplitWordsLikeScanner_WhenWordsSpanSeveralBuffers() {
+        /*
+         * Given a text with mixed ASCII whitespace and multi byte characters
+         * When it is tokenized with a read buffer smaller than most words
+         * Then it should produce the same words as java.util.Scanner
+         * */
+        // Arrange
+        byte[] bytes = SAMPLE_TEXT.getBytes(StandardCharsets.UTF_8);
+        WordTokenizer scanner = new ScannerWordTokenizer(new Scanner(new ByteArrayInputStream(bytes), "UTF-8"));
+        WordTokenizer nio = new NioWordTokenizer(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                StandardCharsets.UTF_8, 3);
+
+        // Act
+        List<String> expected = readAll(scanner);
+        List<String> actual = readAll(nio);
+
+        // Assert
+        assertEquals(expected, actual);
+        assertEquals("stra\u00DFe", actual.get(9));
+    }
+
+    @Test
+    public void shouldSplitWordsLikeScanner_WhenReadingAhead() {
+        /*
+         * Given a text with mixed ASCII whitespace and multi byte characters
+         * When it is tokenized through a read ahead channel with buffers smaller than most words
+         * Then it should produce the same words as java.util.Scanner
+         * */
+        // Arrange
+        byte[] bytes = SAMPLE_TEXT.getBytes(StandardCharsets.UTF_8);
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        WordTokenizer scanner = new ScannerWordTokenizer(new Scanner(new ByteArrayInputStream(bytes), "UTF-8"));
+        WordTokenizer nio = new NioWordTokenizer(new PrefetchingChannel(
+                Channels.newChannel(new ByteArrayInputStream(bytes)), 5, ioExecutor), StandardCharsets.UTF_8, 3);
+
+        // Act
+        List<String> expected = readAll(scanner);
+        List<String> actual = readAll(nio);
+        ioExecutor.shutdownNow();
+
+        // Assert
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void shouldTokenizeInMemoryBuffer() {
+        // Arrange
+        ByteBuffer source = ByteBuffer.wrap("xx b  c\n".getBytes(StandardCharsets.US_ASCII));
+        source.position(3); // only tokenize from position to limit
+
+        // Act
+        List<String> words = readAll(new NioWordTokenizer(source, StandardCharsets.US_ASCII));
+
+        // Assert
+        assertEquals(Arrays.asList("b", "c"), words);
+    }
+
+    @Test
+    public void shouldThrow_WhenNoMoreWords() {
+        // Arrange
+        WordTokenizer nio = new NioWordTokenizer(Channels.newChannel(new ByteArrayInputStream(new byte[]{' ', '\n'})),
+                StandardCharsets.UTF_8, 16);
+
+        // Act and Assert
+        assertFalse(nio.hasNext());
+        assertThrows(NoSuchElementException.class, nio::next);
+    }
+
+    @Test
+    public void shouldFallBackToScanner_WhenRequested() throws IOException {
+        // Arrange
+        File file = File.createTempFile("test_input", ".txt", null);
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("one two\nthree");
+        }
+
+        // Act
+        WordTokenizer scanner = WordTokenizer.open(file, WordTokenizer.SCANNER, 16);
+        WordTokenizer nio = WordTokenizer.open(file, WordTokenizer.NIO, 16);
+
+        // Assert
+        assertTrue(scanner instanceof ScannerWordTokenizer);
+        assertEquals(Arrays.asList("one", "two", "three"), readAll(scanner));
+        assertEquals(Arrays.asList("one", "two", "three"), readAll(nio));
+    }
+}
@@ -0,0 +1,86 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedMergeTest {
+
+    private static final String[] sampleData = {"Lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore",
+            "et", "dolore", "magna", "aliqua", "Ut", "enim", "ad", "minim", "veniam"};
+
+    @Test
+    public void shouldWriteTheSameBytesAsASerialMerge_WhenMergingKeyRangesConcurrently() throws Exception {
+        /*
+         * Given runs holding the same words several times, some only differing in case
+         * When they are merged serially by the loser tree and in 4 key ranges at once with a word wrap of 7
+         * Then both outputs should hold the same bytes, equal words taken from the first run first
+         * */
+        // Arrange
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        Random random = new Random(42);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            input.append(sampleData[random.nextInt(sampleData.length)]).append(random.nextInt(50)).append(' ');
+        }
+        File serialOutput = sort(input.toString(), ascOrdering, 1);
+        File partitionedOutput = sort(input.toString(), ascOrdering, 4);
+
+        // Assert
+        byte[] expected = Files.readAllBytes(serialOutput.toPath());
+        assertEquals(400, new String(expected).trim().split("\\s+").length);
+        assertArrayEquals(expected, Files.readAllBytes(partitionedOutput.toPath()));
+    }
+
+    @Test
+    public void shouldFindTheFirstWordOfEveryRange_WhenSearchingARun() throws IOException {
+        // Arrange
+        File run = File.createTempFile("test_run", ".txt", null);
+        run.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(run))) {
+            fileWriter.write("ad\nadipiscing\nbb\nbb\nlabore\nut\nUt\nveniam\n");
+        }
+        List<String> splitters = Arrays.asList("ab", "bb", "ut", "zz");
+
+        // Act
+        long[] bounds;
+        try (FileChannel channel = FileChannel.open(run.toPath())) {
+            bounds = PartitionedMerge.findBounds(channel, splitters,
+                    WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false), Charset.defaultCharset());
+        }
+
+        // Assert
+        assertArrayEquals(new long[] {0, 0, 14, 27, run.length(), run.length()}, bounds);
+    }
+
+    private static File sort(String input, Comparator<String> comparator, int mergeThreads) throws Exception {
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(tempInputFile))) {
+            fileWriter.write(input);
+        }
+        SortOptions options = new SortOptions().setDuplicates(SortOptions.DUPLICATES_KEEP_ALL)
+                .setMerger(Merger.LOSER_TREE).setMergeThreads(mergeThreads);
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(tempInputFile.length(), 1024, 4000,
+                WordTokenizer.open(tempInputFile, WordTokenizer.NIO, 64), comparator, null, options);
+        assertTrue(sortedTempFiles.size() > 4);
+        assertEquals(mergeThreads > 1, PartitionedMerge.canMerge(sortedTempFiles, options));
+        // the heap merger takes equal words in another order than the ranges
+        assertFalse(PartitionedMerge.canMerge(sortedTempFiles, new SortOptions()
+                .setDuplicates(SortOptions.DUPLICATES_KEEP_ALL).setMerger(Merger.HEAP).setMergeThreads(mergeThreads)));
+        FileSorter.mergeSortedTempFiles(comparator, sortedTempFiles, tempOutputFile, false, 7, options);
+        for (File file : sortedTempFiles) {
+            file.delete();
+        }
+        return tempOutputFile;
+    }
+}
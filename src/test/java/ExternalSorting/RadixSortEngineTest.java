@@ -0,0 +1,120 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RadixSortEngineTest {
+
+    private static List<String> randomWords(int count, boolean asciiOnly, String commonPrefix) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(i % 3 == 0 ? commonPrefix : "");
+            int length = sb.length() + ThreadLocalRandom.current().nextInt(0, 10);
+            while (sb.length() < length) {
+                int kind = ThreadLocalRandom.current().nextInt(20);
+                sb.append(kind == 0 && !asciiOnly ? (char) ThreadLocalRandom.current().nextInt(0xC0, 0x17F)
+                        : kind < 8 ? (char) ThreadLocalRandom.current().nextInt('A', 'E')
+                        : (char) ThreadLocalRandom.current().nextInt('a', 'e'));
+            }
+            words.add(sb.toString());
+        }
+        return words;
+    }
+
+    private static List<WordOrdering> caseOrderings() {
+        WordOrdering insensitive = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        WordOrdering sensitive = WordOrdering.forName(WordOrdering.CASE_SENSITIVE, false);
+        return Arrays.asList(insensitive, insensitive.reversed(), sensitive, sensitive.reversed());
+    }
+
+    @Test
+    public void shouldSortExactlyLikeTimSort() {
+        /*
+         * Given random words, with duplicates and many sharing a long prefix
+         * When they are sorted by the radix engine in either direction, serially or in parallel
+         * Then the result should be identical to TimSort, including the order of equal words
+         * */
+        // Arrange
+        StringBuilder longPrefix = new StringBuilder();
+        while (longPrefix.length() < 700) {
+            longPrefix.append("ab");
+        }
+        List<String> words = randomWords(10000, false, longPrefix.toString());
+        ChunkSortEngine timSort = ChunkSortEngine.forName(ChunkSortEngine.TIMSORT);
+        ChunkSortEngine radix = ChunkSortEngine.forName(ChunkSortEngine.RADIX);
+
+        for (WordOrdering ordering : caseOrderings()) {
+            // Act
+            List<String> expected = timSort.sort(new ArrayList<>(words), ordering, false);
+            List<String> serial = radix.sort(new ArrayList<>(words), ordering, false);
+            List<String> parallel = radix.sort(new ArrayList<>(words), ordering, true);
+
+            // Assert
+            assertEquals(expected, serial);
+            assertEquals(expected, parallel);
+        }
+    }
+
+    @Test
+    public void shouldSortSampleDataInBothOrders() {
+        // Arrange
+        List<String> words = Arrays.asList("Lorem", "ipsum", "ut", "dolor", "Ut", "amet", "", "ad", "a");
+        WordOrdering asc = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        ChunkSortEngine radix = ChunkSortEngine.forName(ChunkSortEngine.RADIX);
+
+        // Act
+        List<String> ascSorted = radix.sort(new ArrayList<>(words), asc, false);
+        List<String> descSorted = radix.sort(new ArrayList<>(words), asc.reversed(), false);
+
+        // Assert
+        assertEquals(Arrays.asList("", "a", "ad", "amet", "dolor", "ipsum", "Lorem", "ut", "Ut"), ascSorted);
+        assertEquals(Arrays.asList("ut", "Ut", "Lorem", "ipsum", "dolor", "amet", "ad", "a", ""), descSorted);
+    }
+
+    @Test
+    public void shouldRadixSortPackedRunBufferLikeMergeSort() {
+        // Arrange
+        List<String> words = randomWords(20000, true, "prefix");
+        SortOptions timSort = new SortOptions();
+        SortOptions radix = new SortOptions().setSortEngine(ChunkSortEngine.RADIX).setParallelSort(true);
+
+        for (WordOrdering ordering : caseOrderings()) {
+            RunBuffer expected = new RunBuffer(StandardCharsets.UTF_8);
+            RunBuffer actual = new RunBuffer(StandardCharsets.UTF_8);
+            for (String word : words) {
+                expected.add(word);
+                actual.add(word);
+            }
+
+            // Act
+            expected.sort(ordering, timSort);
+            actual.sort(ordering, radix);
+
+            // Assert
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void shouldFallBackToTimSort_WhenNotACaseOrdering() {
+        // Arrange
+        List<String> words = randomWords(1000, false, "");
+        Comparator<String> comparator = (a, b) -> b.toLowerCase().compareTo(a.toLowerCase());
+
+        // Act
+        List<String> sorted = ChunkSortEngine.forName(ChunkSortEngine.RADIX).sort(new ArrayList<>(words), comparator,
+                false);
+
+        // Assert
+        List<String> expected = new ArrayList<>(words);
+        expected.sort(comparator);
+        assertEquals(expected, sorted);
+    }
+}
@@ -0,0 +1,92 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplacementSelectionTest {
+
+    private static WordTokenizer tokenizerOf(List<String> words) {
+        return new NioWordTokenizer(ByteBuffer.wrap(String.join(" ", words).getBytes(StandardCharsets.US_ASCII)),
+                StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> readRun(File run) throws IOException {
+        List<String> words = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(run))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                words.add(line);
+            }
+        }
+        return words;
+    }
+
+    @Test
+    public void shouldWriteSingleRun_WhenInputIsNearlySorted() throws IOException {
+        /*
+         * Given a sorted input with a few words slightly out of place and duplicates
+         * When runs are generated with memory for a few dozen words
+         * Then a single sorted run of the distinct words should be written
+         * */
+        // Arrange
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            words.add(String.format("word%05d", i));
+        }
+        Collections.swap(words, 10, 12);
+        Collections.swap(words, 500, 505);
+        words.add(700, "word00700");
+        WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+
+        // Act
+        List<File> runs = new ReplacementSelection(ordering).writeRuns(tokenizerOf(words), 50 * 100, null,
+                RunCodec.forName(RunCodec.TEXT));
+
+        // Assert
+        assertEquals(1, runs.size());
+        List<String> expected = new ArrayList<>(new TreeSet<>(words));
+        assertEquals(expected, readRun(runs.get(0)));
+    }
+
+    @Test
+    public void shouldWriteFewerLongerRuns_WhenInputIsRandom() throws Exception {
+        /*
+         * Given a random input
+         * When runs are generated by replacement selection and by blocks with the same memory
+         * Then every run should be sorted, together they should hold every word,
+         * and there should be clearly fewer runs than blocks
+         * */
+        // Arrange
+        Random random = new Random(42);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            words.add(Integer.toString(random.nextInt(1 << 30), 36));
+        }
+        WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_SENSITIVE, true);
+        long memory = 1 << 12;
+
+        // Act
+        List<File> runs = new ReplacementSelection(ordering).writeRuns(tokenizerOf(words), memory, null,
+                RunCodec.forName(RunCodec.TEXT));
+        List<File> blocks = FileSorter.createSortedTempFiles(memory, 1, memory, tokenizerOf(words), ordering,
+                null, new SortOptions());
+
+        // Assert
+        Set<String> written = new HashSet<>();
+        for (File run : runs) {
+            List<String> runWords = readRun(run);
+            List<String> sorted = new ArrayList<>(runWords);
+            sorted.sort(ordering);
+            assertEquals(sorted, runWords);
+            written.addAll(runWords);
+        }
+        assertEquals(new HashSet<>(words), written);
+        assertTrue(runs.size() * 3 < blocks.size() * 2, runs.size() + " runs vs " + blocks.size() + " blocks");
+    }
+}
@@ -0,0 +1,148 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunBufferTest {
+
+    private static List<String> randomWords(int count) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = ThreadLocalRandom.current().nextInt(1, 12);
+            while (sb.length() < length) {
+                int kind = ThreadLocalRandom.current().nextInt(20);
+                sb.append(kind == 0 ? (char) ThreadLocalRandom.current().nextInt(0xC0, 0x17F)
+                        : kind < 8 ? (char) ThreadLocalRandom.current().nextInt('A', 'E')
+                        : (char) ThreadLocalRandom.current().nextInt('a', 'e'));
+            }
+            words.add(sb.toString());
+        }
+        return words;
+    }
+
+    private static List<String> sortPacked(List<String> words, Comparator<String> comparator, boolean parallel) {
+        RunBuffer buffer = new RunBuffer(StandardCharsets.UTF_8);
+        for (String word : words) {
+            buffer.add(word);
+        }
+        buffer.sort(comparator, parallel);
+        List<String> sorted = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            sorted.add(buffer.get(i));
+        }
+        return sorted;
+    }
+
+    private static void assertSameOrder(List<String> expected, List<String> actual, Comparator<String> comparator) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+        for (int i = 0; i < expected.size(); i++) {
+            // words that compare equal, e.g. "ab" and "AB", may come in any order
+            assertEquals(0, comparator.compare(expected.get(i), actual.get(i)));
+        }
+    }
+
+    @Test
+    public void shouldDeduplicateAndSortLikeObjectBlocks() {
+        /*
+         * Given random words with duplicates and some non ASCII chars
+         * When they are sorted in a packed run buffer
+         * Then the distinct words should come out in the same order as with String objects
+         * */
+        // Arrange
+        List<String> words = randomWords(20000);
+        List<Comparator<String>> comparators = Arrays.asList(
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false),
+                WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, true),
+                WordOrdering.forName(WordOrdering.CASE_SENSITIVE, false),
+                WordOrdering.forName("locale:en-US", false),
+                (a, b) -> b.toLowerCase().compareTo(a.toLowerCase()));
+
+        for (Comparator<String> comparator : comparators) {
+            List<String> expected = new ArrayList<>(new HashSet<>(words));
+            expected.sort(comparator);
+
+            // Act
+            List<String> serial = sortPacked(words, comparator, false);
+            List<String> parallel = sortPacked(words, comparator, true);
+
+            // Assert
+            assertSameOrder(expected, serial, comparator);
+            assertEquals(serial, parallel);
+        }
+    }
+
+    @Test
+    public void shouldUseLessMemoryThanObjectBlocks() {
+        // Arrange
+        List<String> words = randomWords(10000);
+        RunBuffer packed = new RunBuffer(StandardCharsets.UTF_8);
+        WordListBlock objects = new WordListBlock();
+        new FileSorter(null); // initializes the object overhead estimate
+
+        // Act
+        for (String word : words) {
+            packed.add(word);
+            objects.add(word);
+        }
+
+        // Assert
+        assertTrue(packed.sizeInBytes() < objects.sizeInBytes());
+    }
+
+    @Test
+    public void shouldSaveSortedWordsOnePerLine() throws IOException {
+        // Arrange
+        RunBuffer buffer = new RunBuffer(StandardCharsets.UTF_8);
+        for (String word : new String[]{"pear", "Apple", "fig", "apple", "pear"}) {
+            buffer.add(word);
+        }
+        buffer.sort(WordOrdering.forName(WordOrdering.CASE_SENSITIVE, false), false);
+
+        // Act
+        File file = buffer.save(null);
+
+        // Assert
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        assertEquals(Arrays.asList("Apple", "apple", "fig", "pear"), lines);
+    }
+
+    @Test
+    public void shouldReportItselfFull_WhenReachingItsLimits() {
+        /*
+         * Given buffers that are full after 3 words or after 8 bytes of words
+         * When distinct words and a duplicate are added
+         * Then each should only be full once it reached its limit, duplicates not counting
+         * */
+        // Arrange
+        RunBuffer words = new RunBuffer(StandardCharsets.UTF_8, SortOptions.DUPLICATES_PER_RUN, 1 << 10, 3);
+        RunBuffer bytes = new RunBuffer(StandardCharsets.UTF_8, SortOptions.DUPLICATES_PER_RUN, 8, 1 << 10);
+
+        // Act & Assert
+        for (String word : new String[] {"ab", "cd", "ab"}) {
+            words.add(word);
+            bytes.add(word);
+        }
+        assertFalse(words.isFull());
+        assertFalse(bytes.isFull());
+        words.add("ef");
+        bytes.add("efgh");
+        assertTrue(words.isFull());
+        assertTrue(bytes.isFull());
+        assertFalse(new RunBuffer(StandardCharsets.UTF_8).isFull());
+    }
+}
@@ -0,0 +1,166 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunCodecTest {
+
+    private static final List<String> SORTED_WORDS = Arrays.asList("a", "ab", "abc", "abd", "b", "ba",
+            "banana", "bandana", "stra\u00DFe", "stra\u00DFen", "\u00DCber", "\u00FCberall");
+
+    private static List<String> roundTrip(String codecName, List<String> words, int bufferSize) throws IOException {
+        RunCodec codec = RunCodec.forName(codecName);
+        File run = File.createTempFile("sorted", ".txt", null);
+        run.deleteOnExit();
+        try (WordSink sink = codec.newWriter(run)) {
+            for (String word : words) {
+                sink.write(word);
+            }
+        }
+        List<String> read = new ArrayList<>();
+        WordTokenizer reader = codec.newReader(run, WordTokenizer.NIO, bufferSize, null);
+        while (reader.hasNext()) {
+            read.add(reader.next());
+        }
+        reader.close();
+        return read;
+    }
+
+    @Test
+    public void shouldReadBackTheWordsWritten_ForEveryCodec() throws IOException {
+        /*
+         * Given sorted words sharing prefixes, some with multi byte characters
+         * When they are written and read back with each codec and a tiny read buffer
+         * Then the same words should be read in the same order
+         * */
+        // Arrange
+        List<String> words = new ArrayList<>();
+        for (String word : SORTED_WORDS) {
+            if (Charset.defaultCharset().newEncoder().canEncode(word)) {
+                words.add(word);
+            }
+        }
+
+        // Act & Assert
+        for (String codec : Arrays.asList(RunCodec.TEXT, RunCodec.FRONT, RunCodec.DEFLATE, RunCodec.BINARY)) {
+            assertEquals(words, roundTrip(codec, words, 4), codec);
+        }
+    }
+
+    @Test
+    public void shouldWriteFewerBytes_WhenFrontCodingSortedWords() throws IOException {
+        // Arrange
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            words.add(String.format("consectetur%05d", i));
+        }
+        File text = File.createTempFile("sorted", ".txt", null);
+        text.deleteOnExit();
+        File front = File.createTempFile("sorted", ".txt", null);
+        front.deleteOnExit();
+
+        // Act
+        for (File file : Arrays.asList(text, front)) {
+            try (WordSink sink = RunCodec.forName(file == text ? RunCodec.TEXT : RunCodec.FRONT).newWriter(file)) {
+                for (String word : words) {
+                    sink.write(word);
+                }
+            }
+        }
+
+        // Assert
+        assertTrue(front.length() * 3 < text.length());
+        assertEquals(words, roundTrip(RunCodec.FRONT, words, 1 << 10));
+    }
+
+    @Test
+    public void shouldSaveSortedBlock_WhenGivenFrontCodec() throws IOException {
+        /*
+         * Given a packed run buffer and a word list block holding the same words
+         * When both are sorted and saved with the deflate codec
+         * Then reading either temp file back should give the sorted words
+         * */
+        // Arrange
+        WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_SENSITIVE, false);
+        SortOptions options = new SortOptions();
+        List<String> shuffled = new ArrayList<>(SORTED_WORDS.subList(0, 8));
+        Collections.shuffle(shuffled, new Random(7));
+
+        for (RunBlock block : Arrays.asList(new RunBuffer(Charset.defaultCharset()), new WordListBlock())) {
+            shuffled.forEach(block::add);
+
+            // Act
+            block.sort(ordering, options);
+            File run = block.save(null, RunCodec.forName(RunCodec.DEFLATE));
+            run.deleteOnExit();
+
+            // Assert
+            List<String> read = new ArrayList<>();
+            WordTokenizer reader = RunCodec.forName(RunCodec.DEFLATE).newReader(run, WordTokenizer.NIO, 16, null);
+            while (reader.hasNext()) {
+                read.add(reader.next());
+            }
+            reader.close();
+            assertEquals(SORTED_WORDS.subList(0, 8), read);
+        }
+    }
+
+    @Test
+    public void shouldMergeBinaryRunsOnKeyPrefixes_LikeTextRuns() throws IOException {
+        /*
+         * Given the same sorted words saved as text runs and as binary runs with key prefixes
+         * When both are merged case insensitively in both directions
+         * Then the outputs should be identical
+         * */
+        for (boolean descending : new boolean[] {false, true}) {
+            // Arrange
+            WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, descending);
+            List<String> words = Arrays.asList("Zebra", "apple", "Apple", "appLe", "b\u00E9b\u00E9", "bebe",
+                    "BEBE", "consectetur", "consectetuR", "\u00C9t\u00E9", "zeb", "a");
+            List<File> textRuns = new ArrayList<>();
+            List<File> binaryRuns = new ArrayList<>();
+            for (int i = 0; i < words.size(); i += 3) {
+                List<String> sorted = FileSorter.sortChunk(new ArrayList<>(words.subList(i, i + 3)), ordering, false);
+                textRuns.add(FileSorter.saveTempFile(sorted, null));
+                try (RunWriter runWriter = new RunWriter(null, RunCodec.forName(RunCodec.BINARY, ordering))) {
+                    for (String word : sorted) {
+                        runWriter.write(word);
+                    }
+                    binaryRuns.add(runWriter.getFile());
+                }
+            }
+            File textOutput = File.createTempFile("test_output", ".txt", null);
+            textOutput.deleteOnExit();
+            File binaryOutput = File.createTempFile("test_output", ".txt", null);
+            binaryOutput.deleteOnExit();
+
+            // Act
+            FileSorter.mergeSortedTempFiles(ordering, textRuns, new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(textOutput), StandardCharsets.UTF_8)), 100, new SortOptions());
+            FileSorter.mergeSortedTempFiles(ordering, binaryRuns, new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(binaryOutput), StandardCharsets.UTF_8)), 100,
+                    new SortOptions().setRunCodec(RunCodec.BINARY));
+
+            // Assert
+            if (Charset.defaultCharset().newEncoder().canEncode("\u00E9")) {
+                assertEquals(new String(Files.readAllBytes(textOutput.toPath()), StandardCharsets.UTF_8),
+                        new String(Files.readAllBytes(binaryOutput.toPath()), StandardCharsets.UTF_8));
+            } else {
+                assertEquals(words.size(), new String(Files.readAllBytes(binaryOutput.toPath()),
+                        StandardCharsets.UTF_8).trim().split(" ").length);
+            }
+        }
+    }
+
+    @Test
+    public void shouldThrowAnException_WhenGivenUnknownCodec() {
+        assertThrows(IllegalArgumentException.class, () -> RunCodec.forName("lz4"));
+    }
+}
@@ -0,0 +1,106 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SortMetricsTest {
+
+    private static final String[] sampleData = {"Lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore",
+            "et", "dolore", "magna", "aliqua", "Ut", "enim", "ad", "minim", "veniam"};
+
+    @Test
+    public void shouldCountWordsRunsAndMergeWork_WhenSorting() throws Exception {
+        /*
+         * Given metrics with a listener and an input small blocks split into several runs
+         * When the input is sorted and merged
+         * Then the listener should get every phase and run, and the counters should match the input
+         * */
+        // Arrange
+        File tempInputFile = File.createTempFile("test_input", ".txt", null);
+        tempInputFile.deleteOnExit();
+        File tempOutputFile = File.createTempFile("test_output", ".txt", null);
+        tempOutputFile.deleteOnExit();
+        try (BufferedWriter fileWriter = new BufferedWriter(new FileWriter(tempInputFile))) {
+            fileWriter.write(String.join(" ", sampleData));
+        }
+        List<String> events = new CopyOnWriteArrayList<>();
+        SortMetrics metrics = new SortMetrics().addListener(new SortListener() {
+            @Override
+            public void onPhaseStarted(SortMetrics.Phase phase, SortMetrics metrics) {
+                events.add("start " + phase);
+            }
+
+            @Override
+            public void onRunCreated(File run, long sortNanos, long writeNanos, SortMetrics metrics) {
+                events.add("run");
+            }
+
+            @Override
+            public void onPhaseFinished(SortMetrics.Phase phase, SortMetrics metrics) {
+                events.add("finish " + phase);
+            }
+        });
+        SortOptions options = new SortOptions().setMetrics(metrics);
+        WordOrdering ascOrdering = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+
+        // Act
+        List<File> sortedTempFiles = FileSorter.createSortedTempFiles(tempInputFile.length(), 1024, 2000,
+                WordTokenizer.open(tempInputFile, WordTokenizer.NIO, 64), ascOrdering, null, options);
+        FileSorter.mergeSortedTempFiles(ascOrdering, sortedTempFiles,
+                new BufferedWriter(new FileWriter(tempOutputFile)), 10, options);
+
+        // Assert
+        assertTrue(sortedTempFiles.size() > 1);
+        assertEquals("start RUN_GENERATION", events.get(0));
+        assertEquals("finish RUN_GENERATION", events.get(sortedTempFiles.size() + 1));
+        assertEquals(Arrays.asList("start MERGE", "finish MERGE"), events.subList(events.size() - 2, events.size()));
+        assertEquals(sortedTempFiles.size(), metrics.getRunsCreated());
+        assertEquals(sampleData.length, metrics.getWordsRead());
+        assertEquals(tempInputFile.length(), metrics.getBytesRead());
+        assertEquals(sampleData.length, metrics.getWordsMerged());
+        assertEquals(sampleData.length, metrics.getFinalPassWords());
+        assertTrue(metrics.getComparisons() > 0);
+        long runBytes = sortedTempFiles.stream().mapToLong(File::length).sum();
+        assertEquals(runBytes, metrics.getTempBytesWritten());
+        assertEquals(runBytes, metrics.getTempBytesRead());
+        assertTrue(metrics.getPeakHeap() > 0);
+        assertEquals(1.0, metrics.getProgress());
+        assertEquals(0, metrics.getEtaMillis());
+    }
+
+    @Test
+    public void shouldEstimateProgressAndWriteJson() {
+        /*
+         * Given metrics of a run generation that read a quarter of its input
+         * When the progress is read and the metrics are written as JSON
+         * Then the progress should be 25% with an ETA, and the JSON should hold every counter
+         * */
+        // Arrange
+        SortMetrics metrics = new SortMetrics().setInputBytes(400);
+
+        // Act
+        double before = metrics.getProgress();
+        metrics.phaseStarted(SortMetrics.Phase.RUN_GENERATION);
+        metrics.inputRead(10, 100);
+        String json = metrics.toJson();
+
+        // Assert
+        assertEquals(-1, before);
+        assertEquals(0.25, metrics.getProgress());
+        assertTrue(metrics.getEtaMillis() >= 0);
+        assertTrue(json.startsWith("{") && json.endsWith("}"));
+        assertTrue(json.contains("\"inputBytes\":400"));
+        assertTrue(json.contains("\"bytesRead\":100"));
+        assertTrue(json.contains("\"wordsRead\":10"));
+        for (String key : new String[] {"runsCreated", "runSortMillis", "runWriteMillis", "mergeMillis",
+                "mergeWordsPerSecond", "comparisons", "tempBytesWritten", "tempBytesRead", "peakHeapBytes"}) {
+            assertTrue(json.contains("\"" + key + "\":"), key);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ExternalSorting;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WordOrderingTest {
+
+    private static String randomWord() {
+        StringBuilder sb = new StringBuilder();
+        int length = ThreadLocalRandom.current().nextInt(0, 8);
+        // mostly a small alphabet so that prefixes collide, with the odd non ASCII char
+        while (sb.length() < length) {
+            int kind = ThreadLocalRandom.current().nextInt(10);
+            sb.append(kind == 0 ? (char) ThreadLocalRandom.current().nextInt(0xC0, 0x17F)
+                    : kind < 5 ? (char) ThreadLocalRandom.current().nextInt('A', 'D')
+                    : (char) ThreadLocalRandom.current().nextInt('a', 'd'));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void shouldOrderKeysLikeLowerCasedStrings() {
+        /*
+         * Given random words with colliding prefixes
+         * When their case insensitive keys are compared
+         * Then the result should have the same sign as comparing the lower cased words
+         * */
+        // Arrange
+        WordOrdering asc = WordOrdering.forName(WordOrdering.CASE_INSENSITIVE, false);
+        WordOrdering desc = asc.reversed();
+
+        for (int i = 0; i < 10000; i++) {
+            String a = randomWord(), b = randomWord();
+
+            // Act
+            int expected = Integer.signum(a.toLowerCase().compareTo(b.toLowerCase()));
+
+            // Assert
+            assertEquals(expected, Integer.signum(asc.compareKeys(asc.keyOf(a), asc.keyOf(b))));
+            assertEquals(-expected, Integer.signum(desc.compareKeys(desc.keyOf(a), desc.keyOf(b))));
+        }
+    }
+
+    @Test
+    public void shouldOrderKeysLikeStrings_WhenCaseSensitive() {
+        // Arrange
+        WordOrdering ordering = WordOrdering.forName(WordOrdering.CASE_SENSITIVE, false);
+
+        for (int i = 0; i < 10000; i++) {
+            String a = randomWord(), b = randomWord();
+
+            // Act and Assert
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(ordering.compare(a, b)));
+        }
+    }
+
+    @Test
+    public void shouldOrderWordsWithLocaleCollation() {
+        /*
+         * Given words with accents
+         * When they are sorted with a german collation
+         * Then accented letters should sort next to their base letter instead of after z
+         * */
+        // Arrange
+        List<String> words = new ArrayList<>(Arrays.asList("zebra", "\u00C4pfel", "apfel", "B\u00E4r", "baum"));
+        WordOrdering ordering = WordOrdering.forName("locale:de-DE", false);
+
+        // Act
+        List<String> sorted = FileSorter.sortChunk(words, ordering, false);
+
+        // Assert
+        assertEquals(Arrays.asList("apfel", "\u00C4pfel", "B\u00E4r", "baum", "zebra"), sorted);
+    }
+
+    @Test
+    public void shouldRejectUnknownCollation() {
+        assertThrows(IllegalArgumentException.class, () -> WordOrdering.forName("shouting", false));
+    }
+}